@@ -0,0 +1,99 @@
+package com.charlyghislain.resourcewatcher;
+
+import com.charlyghislain.resourcewatcher.config.ResourceActionType;
+import com.charlyghislain.resourcewatcher.config.WatchedResource;
+import io.kubernetes.client.informer.SharedIndexInformer;
+import io.kubernetes.client.informer.SharedInformerFactory;
+import io.kubernetes.client.openapi.models.V1Pod;
+import io.kubernetes.client.openapi.models.V1PodList;
+import io.kubernetes.client.openapi.models.V1Secret;
+import io.kubernetes.client.openapi.models.V1SecretList;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Informer event filtering, as performed on the informer listener thread for every event. Update events compare the
+ * payload digests once for all the controllers sharing the informer.
+ */
+@BenchmarkMode(Mode.Throughput)
+@Warmup(iterations = 3, time = 2, timeUnit = TimeUnit.SECONDS)
+@Measurement(iterations = 5, time = 2, timeUnit = TimeUnit.SECONDS)
+@Fork(1)
+@State(Scope.Benchmark)
+public class FilterBenchmark {
+
+    private WatchedResource secretWatchedResource;
+    private WatchedResourceFilter secretFilter;
+    private ResourceDigestCache<V1Secret> secretDigestCache;
+    private V1Secret watchedSecret;
+    private V1Secret watchedSecretResync;
+    private V1Secret watchedSecretUpdate;
+    private V1Secret otherSecret;
+
+    private WatchedResource podWatchedResource;
+    private WatchedResourceFilter podFilter;
+    private ResourceDigestCache<V1Pod> podDigestCache;
+    private V1Pod watchedPod;
+    private V1Pod watchedPodResync;
+
+    @Setup
+    public void setup() {
+        SharedInformerFactory informerFactory = new SharedInformerFactory();
+
+        secretWatchedResource = BenchmarkResources.createWatchedResource("Secret", "mysecret", ResourceActionType.ANNOTATE_WITH_CONTENT_HASH);
+        secretFilter = WatchedResourceFilter.compile(secretWatchedResource);
+        SharedIndexInformer<V1Secret> secretInformer = informerFactory.sharedIndexInformerFor(params -> null, V1Secret.class, V1SecretList.class);
+        secretDigestCache = new ResourceDigestCache<>(secretInformer);
+        watchedSecret = BenchmarkResources.createTlsSecret("mysecret", "100");
+        watchedSecretResync = BenchmarkResources.createTlsSecret("mysecret", "100");
+        watchedSecretUpdate = BenchmarkResources.createTlsSecret("mysecret", "101");
+        watchedSecretUpdate.getData().put("tls.crt", "renewed".getBytes());
+        otherSecret = BenchmarkResources.createTlsSecret("othersecret", "200");
+        secretInformer.getIndexer().add(watchedSecret);
+
+        podWatchedResource = BenchmarkResources.createWatchedResource("Pod", "mypod", ResourceActionType.ANNOTATE_WITH_TIMESTAMP);
+        podFilter = WatchedResourceFilter.compile(podWatchedResource);
+        SharedIndexInformer<V1Pod> podInformer = informerFactory.sharedIndexInformerFor(params -> null, V1Pod.class, V1PodList.class);
+        podDigestCache = new ResourceDigestCache<>(podInformer);
+        watchedPod = BenchmarkResources.createPod("mypod", "300");
+        watchedPodResync = BenchmarkResources.createPod("mypod", "301");
+        podInformer.getIndexer().add(watchedPodResync);
+    }
+
+    @Benchmark
+    public boolean secretAddMatching() {
+        return ResourceWatcher.checkObjectWatchedOnAdd(watchedSecret, secretWatchedResource, secretFilter);
+    }
+
+    @Benchmark
+    public boolean secretAddNotMatching() {
+        return ResourceWatcher.checkObjectWatchedOnAdd(otherSecret, secretWatchedResource, secretFilter);
+    }
+
+    @Benchmark
+    public boolean secretUpdateResync() {
+        return ResourceWatcher.checkObjectWatchedOnUpdate(watchedSecret, watchedSecretResync, secretWatchedResource, secretFilter,
+                () -> secretDigestCache.hasDigestChanged(watchedSecret, watchedSecretResync));
+    }
+
+    @Benchmark
+    public boolean secretUpdateContentChanged() {
+        return ResourceWatcher.checkObjectWatchedOnUpdate(watchedSecret, watchedSecretUpdate, secretWatchedResource, secretFilter,
+                () -> secretDigestCache.hasDigestChanged(watchedSecret, watchedSecretUpdate));
+    }
+
+    @Benchmark
+    public boolean podUpdateStatusUnchanged() {
+        return ResourceWatcher.checkObjectWatchedOnUpdate(watchedPod, watchedPodResync, podWatchedResource, podFilter,
+                () -> podDigestCache.hasDigestChanged(watchedPod, watchedPodResync));
+    }
+}
@@ -0,0 +1,41 @@
+package com.charlyghislain.resourcewatcher;
+
+import io.kubernetes.client.custom.V1Patch;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Serialization of the deployment annotation patch, which replaced the deployment deep copy on the write path.
+ */
+@BenchmarkMode(Mode.Throughput)
+@Warmup(iterations = 3, time = 2, timeUnit = TimeUnit.SECONDS)
+@Measurement(iterations = 5, time = 2, timeUnit = TimeUnit.SECONDS)
+@Fork(1)
+@State(Scope.Benchmark)
+public class PatchBodyBenchmark {
+
+    private Map<String, String> annotations;
+    private Map<String, String> ledgerEntries;
+
+    @Setup
+    public void setup() {
+        annotations = Map.of("resourcewatcher/trigger", "2f6c1a9e0b7d4c3e8a5f1b2d9c0e7a6b4d3c2b1a0f9e8d7c6b5a4f3e2d1c0b9a");
+        ledgerEntries = Map.of(TriggerLedger.ENTRY_ANNOTATION_PREFIX + "0f9e8d7c6b5a4f3e2d1c0b9a2f6c1a9e",
+                "Secret/ns0/secret0@2f6c1a9e0b7d4c3e8a5f1b2d9c0e7a6b4d3c2b1a0f9e8d7c6b5a4f3e2d1c0b9a");
+    }
+
+    @Benchmark
+    public V1Patch podTemplateAnnotationsPatch() {
+        return DeploymentAnnotator.createPodTemplateAnnotationsPatch(annotations, ledgerEntries);
+    }
+}
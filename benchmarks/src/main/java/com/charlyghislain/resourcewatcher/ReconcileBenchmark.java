@@ -0,0 +1,127 @@
+package com.charlyghislain.resourcewatcher;
+
+import com.charlyghislain.resourcewatcher.config.ResourceActionType;
+import com.charlyghislain.resourcewatcher.config.WatchedResource;
+import io.kubernetes.client.extended.controller.reconciler.Request;
+import io.kubernetes.client.extended.controller.reconciler.Result;
+import io.kubernetes.client.informer.SharedIndexInformer;
+import io.kubernetes.client.informer.SharedInformerFactory;
+import io.kubernetes.client.openapi.ApiClient;
+import io.kubernetes.client.openapi.apis.AppsV1Api;
+import io.kubernetes.client.openapi.models.V1Deployment;
+import io.kubernetes.client.openapi.models.V1DeploymentList;
+import io.kubernetes.client.openapi.models.V1Secret;
+import io.kubernetes.client.openapi.models.V1SecretList;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Reconciliation of a watched secret, from the indexer lookup to the deployment annotation write. The api server is
+ * stubbed: deployments are listed from memory and patches are counted.
+ */
+@BenchmarkMode(Mode.Throughput)
+@Warmup(iterations = 3, time = 2, timeUnit = TimeUnit.SECONDS)
+@Measurement(iterations = 5, time = 2, timeUnit = TimeUnit.SECONDS)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ReconcileBenchmark {
+
+    @Param({"ANNOTATE_WITH_TIMESTAMP", "ANNOTATE_WITH_CONTENT_HASH"})
+    private ResourceActionType actionType;
+
+    private final AtomicLong patchCount = new AtomicLong();
+    private ScheduledExecutorService coalescingScheduler;
+    private WatchedResourceReconcilier<V1Secret> reconcilier;
+    private Request request;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        ApiClient apiClient = new ApiClient();
+        AppsV1Api appsV1Api = new StubAppsV1Api(apiClient);
+        SharedInformerFactory informerFactory = new SharedInformerFactory();
+        SharedIndexInformer<V1Secret> secretInformer = informerFactory.sharedIndexInformerFor(params -> null, V1Secret.class, V1SecretList.class);
+        secretInformer.getIndexer().add(BenchmarkResources.createTlsSecret("mysecret", "100"));
+        ResourceDigestCache<V1Secret> digestCache = new ResourceDigestCache<>(secretInformer);
+
+        // Deployment informers are never started, so that deployments are listed from the stubbed api
+        ResourceInformerFactory resourceInformerFactory = new ResourceInformerFactory(informerFactory, apiClient, false);
+        coalescingScheduler = Executors.newSingleThreadScheduledExecutor();
+        // Rollouts are not limited
+        RolloutScheduler rolloutScheduler = new RolloutScheduler(new CountingDeploymentAnnotator(appsV1Api), 0, 0,
+                Duration.ZERO, coalescingScheduler);
+        DeploymentTargetCache deploymentTargetCache = new DeploymentTargetCache(resourceInformerFactory, appsV1Api, rolloutScheduler);
+        DeploymentAnnotationCoalescer annotationCoalescer = new DeploymentAnnotationCoalescer(
+                rolloutScheduler,
+                Duration.ZERO,
+                Duration.ZERO,
+                coalescingScheduler
+        );
+        WatchedResource watchedResource = BenchmarkResources.createWatchedResource("Secret", "mysecret", actionType);
+        reconcilier = new WatchedResourceReconcilier<>(null, appsV1Api, deploymentTargetCache, annotationCoalescer,
+                watchedResource, secretInformer, digestCache, ResourceWatcherMetrics.forWatchedResource("benchmark"), null,
+                retriedRequest -> {
+                });
+        request = new Request(BenchmarkResources.NAMESPACE, "mysecret");
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        coalescingScheduler.shutdownNow();
+    }
+
+    @Benchmark
+    public Result reconcile() {
+        return reconcilier.reconcile(request);
+    }
+
+    private static class StubAppsV1Api extends AppsV1Api {
+
+        private final V1DeploymentList deploymentList = new V1DeploymentList()
+                .items(List.of(BenchmarkResources.createDeployment("mydeployment")));
+
+        private StubAppsV1Api(ApiClient apiClient) {
+            super(apiClient);
+        }
+
+        @Override
+        public V1DeploymentList listNamespacedDeployment(String namespace, String pretty, Boolean allowWatchBookmarks,
+                                                         String _continue, String fieldSelector, String labelSelector,
+                                                         Integer limit, String resourceVersion, String resourceVersionMatch,
+                                                         Integer timeoutSeconds, Boolean watch) {
+            return deploymentList;
+        }
+    }
+
+    private class CountingDeploymentAnnotator extends DeploymentAnnotator {
+
+        private CountingDeploymentAnnotator(AppsV1Api appsV1Api) {
+            super(appsV1Api, 1);
+        }
+
+        @Override
+        public CompletableFuture<V1Deployment> annotatePodTemplate(String deploymentNamespace, String deploymentName, Map<String, String> annotations,
+                                                                   Map<String, String> ledgerEntries) {
+            patchCount.incrementAndGet();
+            return CompletableFuture.completedFuture(null);
+        }
+    }
+}
@@ -0,0 +1,246 @@
+package com.charlyghislain.resourcewatcher;
+
+import io.kubernetes.client.custom.Quantity;
+import io.kubernetes.client.openapi.JSON;
+import io.kubernetes.client.openapi.models.V1Container;
+import io.kubernetes.client.openapi.models.V1ContainerPort;
+import io.kubernetes.client.openapi.models.V1ContainerStatus;
+import io.kubernetes.client.openapi.models.V1EnvVar;
+import io.kubernetes.client.openapi.models.V1ListMeta;
+import io.kubernetes.client.openapi.models.V1ObjectMeta;
+import io.kubernetes.client.openapi.models.V1Pod;
+import io.kubernetes.client.openapi.models.V1PodCondition;
+import io.kubernetes.client.openapi.models.V1PodList;
+import io.kubernetes.client.openapi.models.V1PodSpec;
+import io.kubernetes.client.openapi.models.V1PodStatus;
+import io.kubernetes.client.openapi.models.V1ResourceRequirements;
+import io.kubernetes.client.openapi.models.V1SecretVolumeSource;
+import io.kubernetes.client.openapi.models.V1Volume;
+import io.kubernetes.client.openapi.models.V1VolumeMount;
+import io.kubernetes.client.proto.Meta;
+import io.kubernetes.client.proto.Resource;
+import io.kubernetes.client.proto.Runtime;
+import io.kubernetes.client.proto.V1;
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.time.OffsetDateTime;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Decoding of a pod list response, as received by an informer when listing a busy namespace, from the bytes
+ * received.
+ * <p>
+ * Json and protobuf are compared decoding all fields, into api models and protobuf messages respectively. The
+ * protobuf codec of the watcher only converts the fields it reads into api models. The receivedBytes counter reports
+ * the utf-8 bytes received per second, and the payloadBytes counter the size of a response.
+ */
+@BenchmarkMode(Mode.Throughput)
+@Warmup(iterations = 3, time = 2, timeUnit = TimeUnit.SECONDS)
+@Measurement(iterations = 5, time = 2, timeUnit = TimeUnit.SECONDS)
+@Fork(1)
+@State(Scope.Benchmark)
+public class WireFormatBenchmark {
+
+    private static final OffsetDateTime CREATION_TIME = OffsetDateTime.of(2021, 11, 2, 8, 30, 0, 0, ZoneOffset.UTC);
+
+    @Param({"100"})
+    private int podCount;
+
+    private JSON json;
+    private byte[] jsonPayload;
+    private byte[] protobufPayload;
+
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.OPERATIONS)
+    public static class ReceivedBytes {
+        public long receivedBytes;
+
+        @Setup(Level.Iteration)
+        public void reset() {
+            receivedBytes = 0;
+        }
+    }
+
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.EVENTS)
+    public static class PayloadSize {
+        // Assigned rather than accumulated, so that it reports the size of a single response
+        public long payloadBytes;
+    }
+
+    @Setup
+    public void setup() throws IOException {
+        json = new JSON();
+        List<V1Pod> pods = new ArrayList<>();
+        V1.PodList.Builder protobufPodList = V1.PodList.newBuilder()
+                .setMetadata(Meta.ListMeta.newBuilder().setResourceVersion("123456"));
+        for (int i = 0; i < podCount; i++) {
+            pods.add(createPod(i));
+            protobufPodList.addItems(createProtobufPod(i));
+        }
+        V1PodList podList = new V1PodList()
+                .apiVersion("v1")
+                .kind("PodList")
+                .metadata(new V1ListMeta().resourceVersion("123456"))
+                .items(pods);
+        jsonPayload = json.serialize(podList).getBytes(StandardCharsets.UTF_8);
+
+        Runtime.Unknown envelope = Runtime.Unknown.newBuilder()
+                .setTypeMeta(Runtime.TypeMeta.newBuilder().setApiVersion("v1").setKind("PodList"))
+                .setRaw(protobufPodList.build().toByteString())
+                .setContentType(ProtobufResourceCodec.MEDIA_TYPE)
+                .build();
+        ByteArrayOutputStream payloadStream = new ByteArrayOutputStream();
+        payloadStream.write(new byte[]{0x6b, 0x38, 0x73, 0x00});
+        envelope.writeTo(payloadStream);
+        protobufPayload = payloadStream.toByteArray();
+    }
+
+    @Benchmark
+    public V1PodList decodeJson(ReceivedBytes receivedBytes, PayloadSize payloadSize) {
+        receivedBytes.receivedBytes += jsonPayload.length;
+        payloadSize.payloadBytes = jsonPayload.length;
+        return json.deserialize(new String(jsonPayload, StandardCharsets.UTF_8), V1PodList.class);
+    }
+
+    @Benchmark
+    public V1.PodList decodeProtobufMessages(ReceivedBytes receivedBytes, PayloadSize payloadSize) throws IOException {
+        receivedBytes.receivedBytes += protobufPayload.length;
+        payloadSize.payloadBytes = protobufPayload.length;
+        return V1.PodList.parseFrom(ProtobufResourceCodec.unwrapEnvelope(protobufPayload));
+    }
+
+    @Benchmark
+    public V1PodList decodeProtobufCodec(ReceivedBytes receivedBytes, PayloadSize payloadSize) throws IOException {
+        receivedBytes.receivedBytes += protobufPayload.length;
+        payloadSize.payloadBytes = protobufPayload.length;
+        return ProtobufResourceCodec.POD.decodeList(protobufPayload);
+    }
+
+    private static V1Pod createPod(int index) {
+        String name = "my-app-5d8f7c9b6-" + index;
+        return new V1Pod()
+                .apiVersion("v1")
+                .kind("Pod")
+                .metadata(new V1ObjectMeta()
+                        .name(name)
+                        .namespace(BenchmarkResources.NAMESPACE)
+                        .uid("4b1d7a52-6a0f-4c8e-9d1e-" + index)
+                        .resourceVersion(String.valueOf(100000 + index))
+                        .creationTimestamp(CREATION_TIME)
+                        .labels(Map.of("app", "my-app", "pod-template-hash", "5d8f7c9b6", "version", "1.4.2"))
+                        .annotations(Map.of("prometheus.io/scrape", "true", "prometheus.io/port", "8080")))
+                .spec(new V1PodSpec()
+                        .containers(List.of(createContainer("app", "docker.io/library/app:1.4.2"),
+                                createContainer("sidecar", "docker.io/library/sidecar:0.9.1")))
+                        .volumes(List.of(
+                                new V1Volume().name("tls").secret(new V1SecretVolumeSource().secretName("my-app-tls")),
+                                new V1Volume().name("config").secret(new V1SecretVolumeSource().secretName("my-app-config"))))
+                        .nodeName("node-" + (index % 8))
+                        .restartPolicy("Always")
+                        .schedulerName("default-scheduler")
+                        .serviceAccountName("my-app"))
+                .status(new V1PodStatus()
+                        .phase("Running")
+                        .podIP("10.0." + (index / 256) + "." + (index % 256))
+                        .hostIP("192.168.1." + (index % 8))
+                        .conditions(List.of(
+                                new V1PodCondition().type("Initialized").status("True").lastTransitionTime(CREATION_TIME),
+                                new V1PodCondition().type("Ready").status("True").lastTransitionTime(CREATION_TIME),
+                                new V1PodCondition().type("ContainersReady").status("True").lastTransitionTime(CREATION_TIME),
+                                new V1PodCondition().type("PodScheduled").status("True").lastTransitionTime(CREATION_TIME)))
+                        .containerStatuses(List.of(
+                                new V1ContainerStatus().name("app").image("docker.io/library/app:1.4.2").imageID("docker.io/library/app@sha256:0123").ready(true).restartCount(0),
+                                new V1ContainerStatus().name("sidecar").image("docker.io/library/sidecar:0.9.1").imageID("docker.io/library/sidecar@sha256:4567").ready(true).restartCount(1))));
+    }
+
+    private static V1Container createContainer(String name, String image) {
+        List<V1EnvVar> env = new ArrayList<>();
+        for (int i = 0; i < 8; i++) {
+            env.add(new V1EnvVar().name("ENV_VARIABLE_" + i).value("value-of-environment-variable-" + i));
+        }
+        return new V1Container()
+                .name(name)
+                .image(image)
+                .ports(List.of(new V1ContainerPort().name("http").containerPort(8080).protocol("TCP")))
+                .env(env)
+                .resources(new V1ResourceRequirements()
+                        .limits(Map.of("cpu", Quantity.fromString("500m"), "memory", Quantity.fromString("512Mi")))
+                        .requests(Map.of("cpu", Quantity.fromString("100m"), "memory", Quantity.fromString("256Mi"))))
+                .volumeMounts(List.of(
+                        new V1VolumeMount().name("tls").mountPath("/var/run/tls").readOnly(true),
+                        new V1VolumeMount().name("config").mountPath("/var/run/config").readOnly(true)));
+    }
+
+    private static V1.Pod createProtobufPod(int index) {
+        String name = "my-app-5d8f7c9b6-" + index;
+        Meta.Time creationTime = Meta.Time.newBuilder().setSeconds(CREATION_TIME.toEpochSecond()).build();
+        V1.PodStatus.Builder status = V1.PodStatus.newBuilder()
+                .setPhase("Running")
+                .setPodIP("10.0." + (index / 256) + "." + (index % 256))
+                .setHostIP("192.168.1." + (index % 8))
+                .addContainerStatuses(V1.ContainerStatus.newBuilder().setName("app").setImage("docker.io/library/app:1.4.2").setImageID("docker.io/library/app@sha256:0123").setReady(true).setRestartCount(0))
+                .addContainerStatuses(V1.ContainerStatus.newBuilder().setName("sidecar").setImage("docker.io/library/sidecar:0.9.1").setImageID("docker.io/library/sidecar@sha256:4567").setReady(true).setRestartCount(1));
+        for (String conditionType : List.of("Initialized", "Ready", "ContainersReady", "PodScheduled")) {
+            status.addConditions(V1.PodCondition.newBuilder().setType(conditionType).setStatus("True").setLastTransitionTime(creationTime));
+        }
+        return V1.Pod.newBuilder()
+                .setMetadata(Meta.ObjectMeta.newBuilder()
+                        .setName(name)
+                        .setNamespace(BenchmarkResources.NAMESPACE)
+                        .setUid("4b1d7a52-6a0f-4c8e-9d1e-" + index)
+                        .setResourceVersion(String.valueOf(100000 + index))
+                        .setCreationTimestamp(creationTime)
+                        .putAllLabels(Map.of("app", "my-app", "pod-template-hash", "5d8f7c9b6", "version", "1.4.2"))
+                        .putAllAnnotations(Map.of("prometheus.io/scrape", "true", "prometheus.io/port", "8080")))
+                .setSpec(V1.PodSpec.newBuilder()
+                        .addContainers(createProtobufContainer("app", "docker.io/library/app:1.4.2"))
+                        .addContainers(createProtobufContainer("sidecar", "docker.io/library/sidecar:0.9.1"))
+                        .addVolumes(V1.Volume.newBuilder().setName("tls").setVolumeSource(V1.VolumeSource.newBuilder()
+                                .setSecret(V1.SecretVolumeSource.newBuilder().setSecretName("my-app-tls"))))
+                        .addVolumes(V1.Volume.newBuilder().setName("config").setVolumeSource(V1.VolumeSource.newBuilder()
+                                .setSecret(V1.SecretVolumeSource.newBuilder().setSecretName("my-app-config"))))
+                        .setNodeName("node-" + (index % 8))
+                        .setRestartPolicy("Always")
+                        .setSchedulerName("default-scheduler")
+                        .setServiceAccountName("my-app"))
+                .setStatus(status)
+                .build();
+    }
+
+    private static V1.Container createProtobufContainer(String name, String image) {
+        V1.Container.Builder container = V1.Container.newBuilder()
+                .setName(name)
+                .setImage(image)
+                .addPorts(V1.ContainerPort.newBuilder().setName("http").setContainerPort(8080).setProtocol("TCP"))
+                .setResources(V1.ResourceRequirements.newBuilder()
+                        .putLimits("cpu", Resource.Quantity.newBuilder().setString("500m").build())
+                        .putLimits("memory", Resource.Quantity.newBuilder().setString("512Mi").build())
+                        .putRequests("cpu", Resource.Quantity.newBuilder().setString("100m").build())
+                        .putRequests("memory", Resource.Quantity.newBuilder().setString("256Mi").build()))
+                .addVolumeMounts(V1.VolumeMount.newBuilder().setName("tls").setMountPath("/var/run/tls").setReadOnly(true))
+                .addVolumeMounts(V1.VolumeMount.newBuilder().setName("config").setMountPath("/var/run/config").setReadOnly(true));
+        for (int i = 0; i < 8; i++) {
+            container.addEnv(V1.EnvVar.newBuilder().setName("ENV_VARIABLE_" + i).setValue("value-of-environment-variable-" + i));
+        }
+        return container.build();
+    }
+}
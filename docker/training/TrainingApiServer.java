@@ -0,0 +1,123 @@
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+
+/**
+ * Stub api server for the class data sharing training run.
+ * <p>
+ * Serves a secret and a config map, a deployment referencing them, and accepts leases, events and deployment
+ * patches, so that a resource watcher reaches its first reconcile. Run as a single source file:
+ * java TrainingApiServer.java [port]
+ */
+public class TrainingApiServer {
+
+    private static final String NAMESPACE = "training";
+    private static final String SECRET = "{\"apiVersion\":\"v1\",\"kind\":\"Secret\",\"metadata\":{\"name\":\"training-secret\","
+            + "\"namespace\":\"training\",\"uid\":\"00000000-0000-0000-0000-000000000001\",\"resourceVersion\":\"1\","
+            + "\"labels\":{\"app\":\"training\"}},\"type\":\"Opaque\",\"data\":{\"password\":\"dHJhaW5pbmc=\"}}";
+    private static final String CONFIG_MAP = "{\"apiVersion\":\"v1\",\"kind\":\"ConfigMap\",\"metadata\":{\"name\":\"training-config\","
+            + "\"namespace\":\"training\",\"uid\":\"00000000-0000-0000-0000-000000000002\",\"resourceVersion\":\"1\"},"
+            + "\"data\":{\"key\":\"value\"}}";
+    private static final String DEPLOYMENT = "{\"apiVersion\":\"apps/v1\",\"kind\":\"Deployment\",\"metadata\":{\"name\":\"training\","
+            + "\"namespace\":\"training\",\"uid\":\"00000000-0000-0000-0000-000000000003\",\"resourceVersion\":\"1\",\"generation\":1,"
+            + "\"labels\":{\"app\":\"training\"}},\"spec\":{\"replicas\":1,\"selector\":{\"matchLabels\":{\"app\":\"training\"}},"
+            + "\"template\":{\"metadata\":{\"labels\":{\"app\":\"training\"}},\"spec\":{"
+            + "\"volumes\":[{\"name\":\"config\",\"configMap\":{\"name\":\"training-config\"}}],"
+            + "\"containers\":[{\"name\":\"app\",\"image\":\"training\","
+            + "\"env\":[{\"name\":\"PASSWORD\",\"valueFrom\":{\"secretKeyRef\":{\"name\":\"training-secret\",\"key\":\"password\"}}}]}]}}},"
+            + "\"status\":{\"observedGeneration\":1,\"replicas\":1,\"updatedReplicas\":1,\"readyReplicas\":1,\"availableReplicas\":1}}";
+
+    private static final Map<String, String> LEASES = new ConcurrentHashMap<>();
+
+    public static void main(String[] args) throws IOException {
+        int port = args.length > 0 ? Integer.parseInt(args[0]) : 8001;
+        HttpServer server = HttpServer.create(new InetSocketAddress("127.0.0.1", port), 0);
+        server.setExecutor(Executors.newCachedThreadPool());
+        server.createContext("/", TrainingApiServer::handle);
+        server.start();
+        System.out.println("Training api server listening on port " + port);
+    }
+
+    private static void handle(HttpExchange exchange) throws IOException {
+        try (exchange) {
+            String method = exchange.getRequestMethod();
+            String path = exchange.getRequestURI().getPath();
+            String query = exchange.getRequestURI().getQuery();
+            boolean watch = query != null && query.contains("watch=true");
+            String requestBody = new String(exchange.getRequestBody().readAllBytes(), StandardCharsets.UTF_8);
+
+            if (watch) {
+                // No events, the informers watch again once the response ends
+                respondWatch(exchange);
+            } else if (method.equals("GET") && path.equals("/api/v1/namespaces/" + NAMESPACE + "/secrets")) {
+                respond(exchange, 200, list("v1", "SecretList", SECRET));
+            } else if (method.equals("GET") && path.equals("/api/v1/namespaces/" + NAMESPACE + "/configmaps")) {
+                respond(exchange, 200, list("v1", "ConfigMapList", CONFIG_MAP));
+            } else if (method.equals("GET") && path.equals("/apis/apps/v1/namespaces/" + NAMESPACE + "/deployments")) {
+                respond(exchange, 200, list("apps/v1", "DeploymentList", DEPLOYMENT));
+            } else if (method.equals("PATCH") && path.startsWith("/apis/apps/v1/namespaces/" + NAMESPACE + "/deployments/")) {
+                respond(exchange, 200, DEPLOYMENT);
+            } else if (path.startsWith("/apis/coordination.k8s.io/v1/namespaces/" + NAMESPACE + "/leases")) {
+                handleLease(exchange, method, path, requestBody);
+            } else if (method.equals("POST") || method.equals("PATCH")) {
+                // Events
+                respond(exchange, 201, requestBody.isEmpty() ? "{}" : requestBody);
+            } else {
+                respond(exchange, 404, "{\"apiVersion\":\"v1\",\"kind\":\"Status\",\"status\":\"Failure\",\"reason\":\"NotFound\",\"code\":404}");
+            }
+        }
+    }
+
+    private static void handleLease(HttpExchange exchange, String method, String path, String requestBody) throws IOException {
+        switch (method) {
+            case "GET": {
+                String lease = LEASES.get(path);
+                if (lease == null) {
+                    respond(exchange, 404, "{\"apiVersion\":\"v1\",\"kind\":\"Status\",\"status\":\"Failure\",\"reason\":\"NotFound\",\"code\":404}");
+                } else {
+                    respond(exchange, 200, lease);
+                }
+                break;
+            }
+            case "POST": {
+                String name = requestBody.replaceAll("(?s).*\"name\"\\s*:\\s*\"([^\"]+)\".*", "$1");
+                LEASES.put(path + "/" + name, requestBody);
+                respond(exchange, 201, requestBody);
+                break;
+            }
+            default:
+                LEASES.put(path, requestBody);
+                respond(exchange, 200, requestBody);
+        }
+    }
+
+    private static String list(String apiVersion, String kind, String item) {
+        return "{\"apiVersion\":\"" + apiVersion + "\",\"kind\":\"" + kind + "\",\"metadata\":{\"resourceVersion\":\"1\"},\"items\":[" + item + "]}";
+    }
+
+    private static void respondWatch(HttpExchange exchange) throws IOException {
+        exchange.getResponseHeaders().set("Content-Type", "application/json");
+        exchange.sendResponseHeaders(200, 0);
+        try {
+            Thread.sleep(5000);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static void respond(HttpExchange exchange, int status, String body) throws IOException {
+        byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", "application/json");
+        exchange.sendResponseHeaders(status, bytes.length);
+        try (OutputStream outputStream = exchange.getResponseBody()) {
+            outputStream.write(bytes);
+        }
+    }
+}
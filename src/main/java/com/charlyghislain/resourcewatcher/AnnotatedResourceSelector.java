@@ -0,0 +1,31 @@
+package com.charlyghislain.resourcewatcher;
+
+import com.charlyghislain.resourcewatcher.config.ResourceActionSpec;
+
+/**
+ * The label and field selectors of the resources annotated by an action, compiled once at startup.
+ */
+public class AnnotatedResourceSelector {
+
+    private final LabelSelector labelSelector;
+    private final FieldSelector fieldSelector;
+
+    private AnnotatedResourceSelector(LabelSelector labelSelector, FieldSelector fieldSelector) {
+        this.labelSelector = labelSelector;
+        this.fieldSelector = fieldSelector;
+    }
+
+    public static AnnotatedResourceSelector compile(ResourceActionSpec actionSpec) {
+        LabelSelector labelSelector = LabelSelector.parse(actionSpec.getAnnotatedResourceLabelsSelectors());
+        FieldSelector fieldSelector = FieldSelector.parse(actionSpec.getAnnotatedResourceFieldSelectors());
+        return new AnnotatedResourceSelector(labelSelector, fieldSelector);
+    }
+
+    public LabelSelector getLabelSelector() {
+        return labelSelector;
+    }
+
+    public FieldSelector getFieldSelector() {
+        return fieldSelector;
+    }
+}
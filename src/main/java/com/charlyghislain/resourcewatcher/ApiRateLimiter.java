@@ -0,0 +1,169 @@
+package com.charlyghislain.resourcewatcher;
+
+import io.kubernetes.client.openapi.ApiException;
+import okhttp3.Interceptor;
+import okhttp3.Request;
+import okhttp3.Response;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Client side rate limiting of the api calls, installed as an interceptor of the shared http client.
+ * <p>
+ * Reads and writes each draw from a token bucket refilled at a fixed rate, up to a burst size. Calls wait for their
+ * token in order. When the api server throttles a call (429, including priority and fairness rejections), further
+ * calls of the same bucket wait for the Retry-After delay, or for an exponential backoff when it is missing.
+ * <p>
+ * Leader election and shard leases use a distinct client without this interceptor, so that lock renewals, including
+ * endpoints locks, do not wait behind actions.
+ */
+public class ApiRateLimiter implements Interceptor {
+
+    public static final int TOO_MANY_REQUESTS = 429;
+    private static final Duration DEFAULT_RETRY_AFTER = Duration.ofSeconds(1);
+    private static final Duration MAX_BACKOFF = Duration.ofSeconds(30);
+
+    private final TokenBucket readBucket;
+    private final TokenBucket writeBucket;
+
+    /**
+     * A rate of 0 disables the limit of a bucket, throttling responses still delay its calls.
+     */
+    public ApiRateLimiter(double readQps, int readBurst, double writeQps, int writeBurst) {
+        this.readBucket = new TokenBucket("read", readQps, readBurst);
+        this.writeBucket = new TokenBucket("write", writeQps, writeBurst);
+    }
+
+    @Override
+    public Response intercept(Chain chain) throws IOException {
+        Request request = chain.request();
+        TokenBucket bucket = isRead(request) ? readBucket : writeBucket;
+        bucket.acquire();
+        Response response = chain.proceed(request);
+        if (response.code() == TOO_MANY_REQUESTS) {
+            Duration retryAfter = parseRetryAfter(response.header("Retry-After")).orElse(null);
+            Duration backoff = bucket.backoff(retryAfter);
+            ResourceWatcherLog.warning("Api server throttled {0} {1}, delaying {2} calls for {3}ms",
+                    request.method(), request.url().encodedPath(), bucket.name, backoff.toMillis());
+        } else {
+            bucket.resetBackoff();
+        }
+        return response;
+    }
+
+    /**
+     * Whether the api server throttled this call, or the call causing this exception.
+     */
+    public static Optional<ApiException> findThrottlingException(Throwable throwable) {
+        for (Throwable cause = throwable; cause != null; cause = cause.getCause()) {
+            if (cause instanceof ApiException && ((ApiException) cause).getCode() == TOO_MANY_REQUESTS) {
+                return Optional.of((ApiException) cause);
+            }
+        }
+        return Optional.empty();
+    }
+
+    /**
+     * The delay requested by the api server before retrying a throttled call.
+     */
+    public static Duration getRetryAfter(ApiException apiException) {
+        Map<String, List<String>> responseHeaders = Optional.ofNullable(apiException.getResponseHeaders())
+                .orElse(Map.of());
+        // Header names may have been lowercased
+        return responseHeaders.entrySet().stream()
+                .filter(e -> "Retry-After".equalsIgnoreCase(e.getKey()))
+                .flatMap(e -> e.getValue().stream())
+                .findFirst()
+                .flatMap(ApiRateLimiter::parseRetryAfter)
+                .orElse(DEFAULT_RETRY_AFTER);
+    }
+
+    private static boolean isRead(Request request) {
+        String method = request.method();
+        return method.equals("GET") || method.equals("HEAD");
+    }
+
+    private static Optional<Duration> parseRetryAfter(String retryAfterHeader) {
+        // The api server always sends a delay in seconds
+        try {
+            return Optional.ofNullable(retryAfterHeader)
+                    .map(String::trim)
+                    .map(Long::parseLong)
+                    .filter(seconds -> seconds >= 0)
+                    .map(Duration::ofSeconds);
+        } catch (NumberFormatException e) {
+            return Optional.empty();
+        }
+    }
+
+    // Package private, for tests
+    static class TokenBucket {
+        private final String name;
+        private final double qps;
+        private final double burst;
+        private double tokens;
+        private long lastRefillNanos;
+        private long backoffEndNanos;
+        private int consecutiveThrottles;
+
+        TokenBucket(String name, double qps, int burst) {
+            this.name = name;
+            this.qps = qps;
+            this.burst = Math.max(1, burst);
+            this.tokens = this.burst;
+            this.lastRefillNanos = System.nanoTime();
+        }
+
+        private void acquire() throws InterruptedIOException {
+            long waitNanos = reserve(System.nanoTime());
+            if (waitNanos <= 0) {
+                return;
+            }
+            ResourceWatcherMetrics.API_RATE_LIMIT_WAIT.labels(name).observe(waitNanos / 1e9);
+            try {
+                TimeUnit.NANOSECONDS.sleep(waitNanos);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while waiting for the api rate limiter");
+            }
+        }
+
+        /**
+         * Takes a token, possibly in advance, returning the time to wait before using it.
+         */
+        synchronized long reserve(long nowNanos) {
+            long backoffWaitNanos = Math.max(0, backoffEndNanos - nowNanos);
+            if (qps <= 0) {
+                return backoffWaitNanos;
+            }
+            tokens = Math.min(burst, tokens + (nowNanos - lastRefillNanos) * qps / 1e9);
+            lastRefillNanos = nowNanos;
+            // Tokens taken in advance leave a debt, so that waiting calls are served in order
+            tokens -= 1;
+            long tokenWaitNanos = tokens >= 0 ? 0 : (long) (-tokens / qps * 1e9);
+            return Math.max(tokenWaitNanos, backoffWaitNanos);
+        }
+
+        synchronized Duration backoff(Duration retryAfter) {
+            consecutiveThrottles++;
+            ResourceWatcherMetrics.API_THROTTLED.labels(name).inc();
+            Duration backoff = Optional.ofNullable(retryAfter)
+                    .orElseGet(() -> DEFAULT_RETRY_AFTER.multipliedBy(1L << Math.min(consecutiveThrottles - 1, 5)));
+            if (backoff.compareTo(MAX_BACKOFF) > 0) {
+                backoff = MAX_BACKOFF;
+            }
+            backoffEndNanos = Math.max(backoffEndNanos, System.nanoTime() + backoff.toNanos());
+            return backoff;
+        }
+
+        synchronized void resetBackoff() {
+            consecutiveThrottles = 0;
+        }
+    }
+}
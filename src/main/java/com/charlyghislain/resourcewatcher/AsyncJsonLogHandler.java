@@ -0,0 +1,263 @@
+package com.charlyghislain.resourcewatcher;
+
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.ErrorManager;
+import java.util.logging.Handler;
+import java.util.logging.Level;
+import java.util.logging.LogManager;
+import java.util.logging.LogRecord;
+
+/**
+ * Log handler writing json lines to the standard error, from a background thread.
+ * <p>
+ * Records are put in a bounded ring buffer, and never wait for the writer: when the buffer is full, they are dropped
+ * and counted. Messages are formatted by the writer, only substituting their {0}-style parameters.
+ * <p>
+ * Configured in the logging properties: the level, and the buffer capacity (default 8192), as
+ * com.charlyghislain.resourcewatcher.AsyncJsonLogHandler.capacity.
+ */
+public class AsyncJsonLogHandler extends Handler {
+
+    private static final int DEFAULT_CAPACITY = 8192;
+    private static final int MAX_BATCH_SIZE = 256;
+    private static final long CLOSE_TIMEOUT_MS = 1000;
+
+    private final BlockingQueue<QueuedRecord> ringBuffer;
+    private final Writer writer = new OutputStreamWriter(System.err, StandardCharsets.UTF_8);
+    private final StringBuilder lineBuilder = new StringBuilder(256);
+    private final Thread writerThread;
+    private final AtomicLong droppedCount = new AtomicLong();
+    // Dropped count last written, by the writer thread
+    private long reportedDroppedCount;
+    private volatile boolean closed;
+
+    public AsyncJsonLogHandler() {
+        LogManager logManager = LogManager.getLogManager();
+        String propertyPrefix = getClass().getName();
+        this.ringBuffer = new ArrayBlockingQueue<>(getIntProperty(logManager, propertyPrefix + ".capacity", DEFAULT_CAPACITY));
+        String levelName = logManager.getProperty(propertyPrefix + ".level");
+        setLevel(levelName == null ? Level.ALL : Level.parse(levelName.trim()));
+        this.writerThread = new Thread(this::drain, "resourcewatcher-log-writer");
+        this.writerThread.setDaemon(true);
+        this.writerThread.start();
+    }
+
+    @Override
+    public void publish(LogRecord logRecord) {
+        if (closed || !isLoggable(logRecord)) {
+            return;
+        }
+        // LogRecord.getThreadID is deprecated, and truncates thread ids to an int
+        if (!ringBuffer.offer(new QueuedRecord(logRecord, Thread.currentThread().getId()))) {
+            droppedCount.incrementAndGet();
+            ResourceWatcherMetrics.LOG_RECORDS_DROPPED.inc();
+        }
+    }
+
+    @Override
+    public void flush() {
+        // Records are flushed by the writer once the buffer is empty
+    }
+
+    @Override
+    public void close() {
+        closed = true;
+        writerThread.interrupt();
+        try {
+            writerThread.join(CLOSE_TIMEOUT_MS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void drain() {
+        List<QueuedRecord> batch = new ArrayList<>(MAX_BATCH_SIZE);
+        while (true) {
+            try {
+                if (closed) {
+                    ringBuffer.drainTo(batch);
+                    if (batch.isEmpty()) {
+                        break;
+                    }
+                } else {
+                    QueuedRecord firstRecord = ringBuffer.poll(1, TimeUnit.SECONDS);
+                    if (firstRecord == null) {
+                        continue;
+                    }
+                    batch.add(firstRecord);
+                    ringBuffer.drainTo(batch, MAX_BATCH_SIZE - 1);
+                }
+            } catch (InterruptedException e) {
+                // Closing, write the remaining records
+                continue;
+            }
+            for (QueuedRecord queuedRecord : batch) {
+                writeRecord(queuedRecord.logRecord, queuedRecord.threadId);
+            }
+            batch.clear();
+            writeDroppedCount();
+            try {
+                writer.flush();
+            } catch (IOException e) {
+                reportError(null, e, ErrorManager.FLUSH_FAILURE);
+            }
+        }
+        try {
+            writer.flush();
+        } catch (IOException e) {
+            reportError(null, e, ErrorManager.FLUSH_FAILURE);
+        }
+    }
+
+    private void writeRecord(LogRecord logRecord, long threadId) {
+        StringBuilder line = lineBuilder;
+        line.setLength(0);
+        line.append("{\"time\":\"");
+        DateTimeFormatter.ISO_INSTANT.formatTo(logRecord.getInstant(), line);
+        line.append("\",\"level\":\"").append(logRecord.getLevel().getName());
+        line.append("\",\"logger\":");
+        appendJsonString(line, logRecord.getLoggerName());
+        line.append(",\"thread\":").append(threadId);
+        line.append(",\"message\":\"");
+        appendMessage(line, logRecord.getMessage(), logRecord.getParameters());
+        line.append('"');
+        Throwable thrown = logRecord.getThrown();
+        if (thrown != null) {
+            StringWriter stackTraceWriter = new StringWriter();
+            thrown.printStackTrace(new PrintWriter(stackTraceWriter));
+            line.append(",\"exception\":");
+            appendJsonString(line, stackTraceWriter.toString());
+        }
+        line.append("}\n");
+        write(line);
+    }
+
+    private void writeDroppedCount() {
+        long dropped = droppedCount.get();
+        if (dropped == reportedDroppedCount) {
+            return;
+        }
+        StringBuilder line = lineBuilder;
+        line.setLength(0);
+        line.append("{\"time\":\"");
+        DateTimeFormatter.ISO_INSTANT.formatTo(Instant.now(), line);
+        line.append("\",\"level\":\"WARNING\",\"logger\":\"").append(getClass().getSimpleName())
+                .append("\",\"message\":\"Dropped ").append(dropped - reportedDroppedCount)
+                .append(" log records, the log buffer was full\"}\n");
+        reportedDroppedCount = dropped;
+        write(line);
+    }
+
+    private void write(StringBuilder line) {
+        try {
+            writer.append(line);
+        } catch (IOException e) {
+            reportError(null, e, ErrorManager.WRITE_FAILURE);
+        }
+    }
+
+    /**
+     * Appends the message with its {n} placeholders replaced, json escaped, without the surrounding quotes.
+     */
+    private static void appendMessage(StringBuilder line, String message, Object[] params) {
+        if (message == null) {
+            return;
+        }
+        if (params == null || params.length == 0) {
+            appendJsonEscaped(line, message);
+            return;
+        }
+        int length = message.length();
+        int index = 0;
+        while (index < length) {
+            char c = message.charAt(index);
+            if (c == '{' && index + 2 < length && Character.isDigit(message.charAt(index + 1)) && message.charAt(index + 2) == '}') {
+                int paramIndex = message.charAt(index + 1) - '0';
+                if (paramIndex < params.length) {
+                    appendJsonEscaped(line, String.valueOf(params[paramIndex]));
+                    index += 3;
+                    continue;
+                }
+            }
+            appendJsonEscaped(line, c);
+            index++;
+        }
+    }
+
+    private static void appendJsonString(StringBuilder line, String value) {
+        if (value == null) {
+            line.append("null");
+            return;
+        }
+        line.append('"');
+        appendJsonEscaped(line, value);
+        line.append('"');
+    }
+
+    private static void appendJsonEscaped(StringBuilder line, String value) {
+        for (int i = 0; i < value.length(); i++) {
+            appendJsonEscaped(line, value.charAt(i));
+        }
+    }
+
+    private static void appendJsonEscaped(StringBuilder line, char c) {
+        switch (c) {
+            case '"':
+                line.append("\\\"");
+                break;
+            case '\\':
+                line.append("\\\\");
+                break;
+            case '\n':
+                line.append("\\n");
+                break;
+            case '\r':
+                line.append("\\r");
+                break;
+            case '\t':
+                line.append("\\t");
+                break;
+            default:
+                if (c < 0x20) {
+                    line.append(String.format("\\u%04x", (int) c));
+                } else {
+                    line.append(c);
+                }
+        }
+    }
+
+    private static int getIntProperty(LogManager logManager, String name, int defaultValue) {
+        String value = logManager.getProperty(name);
+        if (value == null) {
+            return defaultValue;
+        }
+        try {
+            return Math.max(1, Integer.parseInt(value.trim()));
+        } catch (NumberFormatException e) {
+            return defaultValue;
+        }
+    }
+
+    private static class QueuedRecord {
+        private final LogRecord logRecord;
+        private final long threadId;
+
+        private QueuedRecord(LogRecord logRecord, long threadId) {
+            this.logRecord = logRecord;
+            this.threadId = threadId;
+        }
+    }
+}
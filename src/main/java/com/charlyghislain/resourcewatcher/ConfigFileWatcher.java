@@ -0,0 +1,121 @@
+package com.charlyghislain.resourcewatcher;
+
+import com.charlyghislain.resourcewatcher.config.ResourceWatcherConfig;
+
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.function.Consumer;
+
+/**
+ * Watches the config file, and reloads it when its content changes.
+ * <p>
+ * The parent directory is watched rather than the file, so that atomic replacements and the symlink swaps of
+ * mounted config maps are noticed as well. Events are coalesced, and the content compared to the last loaded one.
+ */
+public class ConfigFileWatcher {
+
+    // Let the writer complete, and coalesce the events of a single update
+    private static final Duration SETTLE_DELAY = Duration.ofMillis(500);
+
+    private final Path configPath;
+    private final Consumer<ResourceWatcherConfig> configListener;
+    private byte[] loadedContent;
+    private WatchService watchService;
+
+    public ConfigFileWatcher(Path configPath, Consumer<ResourceWatcherConfig> configListener) {
+        this.configPath = configPath.toAbsolutePath();
+        this.configListener = configListener;
+    }
+
+    public synchronized void start() throws IOException {
+        if (watchService != null) {
+            return;
+        }
+        loadedContent = Files.readAllBytes(configPath);
+        watchService = FileSystems.getDefault().newWatchService();
+        configPath.getParent().register(watchService,
+                StandardWatchEventKinds.ENTRY_CREATE,
+                StandardWatchEventKinds.ENTRY_MODIFY,
+                StandardWatchEventKinds.ENTRY_DELETE);
+        Thread watcherThread = new Thread(() -> watch(watchService), "resourcewatcher-config-watcher");
+        watcherThread.setDaemon(true);
+        watcherThread.start();
+        ResourceWatcherLog.fine("Watching config file {0}", configPath);
+    }
+
+    public synchronized void stop() {
+        if (watchService == null) {
+            return;
+        }
+        try {
+            watchService.close();
+        } catch (IOException e) {
+            ResourceWatcherLog.fine("Unable to close config watch service: {0}", e.getMessage());
+        }
+        watchService = null;
+    }
+
+    private void watch(WatchService watchService) {
+        try {
+            while (true) {
+                WatchKey watchKey = watchService.take();
+                Thread.sleep(SETTLE_DELAY.toMillis());
+                boolean valid = resetKey(watchKey);
+                WatchKey nextKey;
+                while ((nextKey = watchService.poll()) != null) {
+                    valid = resetKey(nextKey);
+                }
+                reloadIfChanged();
+                if (!valid) {
+                    ResourceWatcherLog.warning("Config directory {0} is not accessible anymore, stop watching it", configPath.getParent());
+                    return;
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (ClosedWatchServiceException e) {
+            // Stopped
+        }
+    }
+
+    private static boolean resetKey(WatchKey watchKey) {
+        watchKey.pollEvents();
+        return watchKey.reset();
+    }
+
+    private void reloadIfChanged() {
+        byte[] content;
+        try {
+            content = Files.readAllBytes(configPath);
+        } catch (IOException e) {
+            // Being replaced, a following event will notify the new file
+            ResourceWatcherLog.fine("Unable to read config file {0}: {1}", configPath, e.getMessage());
+            return;
+        }
+        if (Arrays.equals(content, loadedContent)) {
+            return;
+        }
+        ResourceWatcherConfig config;
+        try {
+            config = ResourceWatcherConfigFactory.fromYamlFile(configPath);
+        } catch (Exception e) {
+            ResourceWatcherLog.severe(e, "Config at {0} cannot be read, keeping the current one: {1}", configPath, e.getMessage());
+            return;
+        }
+        loadedContent = content;
+        ResourceWatcherLog.info("Reloading config file {0}", configPath);
+        try {
+            configListener.accept(config);
+        } catch (RuntimeException e) {
+            ResourceWatcherLog.severe(e, "Unable to apply reloaded config: {0}", e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,150 @@
+package com.charlyghislain.resourcewatcher;
+
+import io.kubernetes.client.openapi.ApiException;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * Coalesces annotation writes targeting the same deployment.
+ * <p>
+ * The first trigger for a deployment opens a window. Triggers received within the window are merged and delay the
+ * write until the window elapsed without new triggers, or until the max delay since the first trigger is reached.
+ * A single annotation write is then performed. With an empty window, annotations are written immediately. Writes are
+ * then subject to the rollout concurrency limits.
+ */
+public class DeploymentAnnotationCoalescer {
+
+    private final RolloutScheduler rolloutScheduler;
+    private final Duration coalescingWindow;
+    private final Duration maxDelay;
+    private final ScheduledExecutorService scheduler;
+    private final Map<String, PendingAnnotations> pendingAnnotationsByTarget = new HashMap<>();
+
+    public DeploymentAnnotationCoalescer(RolloutScheduler rolloutScheduler,
+                                         Duration coalescingWindow, Duration maxDelay,
+                                         ScheduledExecutorService scheduler) {
+        this.rolloutScheduler = rolloutScheduler;
+        this.coalescingWindow = coalescingWindow;
+        this.maxDelay = maxDelay;
+        this.scheduler = scheduler;
+    }
+
+    /**
+     * Annotates the deployment pod template and records the ledger entries, or schedules it if a coalescing window is
+     * configured. The future completes once written, or once scheduled. The failure of a scheduled write is reported
+     * to the listener, after throttled writes were retried.
+     */
+    public CompletableFuture<Void> annotate(String deploymentNamespace, String deploymentName,
+                                            String annotationName, String annotationValue, Map<String, String> ledgerEntries,
+                                            Consumer<Throwable> deferredFailureListener) {
+        if (coalescingWindow.isZero() || coalescingWindow.isNegative()) {
+            return rolloutScheduler.annotate(deploymentNamespace, deploymentName, Map.of(annotationName, annotationValue), ledgerEntries,
+                    deferredFailureListener);
+        }
+
+        String targetKey = deploymentNamespace + "/" + deploymentName;
+        long nowNanos = System.nanoTime();
+        synchronized (this) {
+            PendingAnnotations pendingAnnotations = pendingAnnotationsByTarget.get(targetKey);
+            if (pendingAnnotations == null) {
+                pendingAnnotations = new PendingAnnotations(deploymentNamespace, deploymentName, nowNanos);
+                pendingAnnotationsByTarget.put(targetKey, pendingAnnotations);
+            } else {
+                pendingAnnotations.flushFuture.cancel(false);
+            }
+            pendingAnnotations.annotations.put(annotationName, annotationValue);
+            pendingAnnotations.ledgerEntries.putAll(ledgerEntries);
+            pendingAnnotations.failureListeners.add(deferredFailureListener);
+            pendingAnnotations.triggerCount++;
+
+            long windowEndNanos = nowNanos + coalescingWindow.toNanos();
+            long maxDelayEndNanos = pendingAnnotations.firstTriggerNanos + maxDelay.toNanos();
+            long flushDelayNanos = Math.max(0, Math.min(windowEndNanos, maxDelayEndNanos) - nowNanos);
+            pendingAnnotations.flushFuture = scheduler.schedule(() -> flush(targetKey), flushDelayNanos, TimeUnit.NANOSECONDS);
+        }
+        ResourceWatcherLog.fine("Scheduled pod spec annotations on deployment {0} in namespace {1}", deploymentName, deploymentNamespace);
+        return CompletableFuture.completedFuture(null);
+    }
+
+    private void flush(String targetKey) {
+        PendingAnnotations pendingAnnotations;
+        synchronized (this) {
+            pendingAnnotations = pendingAnnotationsByTarget.remove(targetKey);
+        }
+        if (pendingAnnotations == null) {
+            return;
+        }
+        String deploymentName = pendingAnnotations.deploymentName;
+        String deploymentNamespace = pendingAnnotations.deploymentNamespace;
+        ResourceWatcherLog.fine("Writing pod spec annotations on deployment {0} in namespace {1} for {2} triggers",
+                deploymentName, deploymentNamespace, pendingAnnotations.triggerCount);
+        Consumer<Throwable> failureListener = cause -> pendingAnnotations.failureListeners.forEach(listener -> listener.accept(cause));
+        rolloutScheduler.annotate(deploymentNamespace, deploymentName, pendingAnnotations.annotations, pendingAnnotations.ledgerEntries,
+                        failureListener)
+                .whenComplete((v, error) -> {
+                    if (error == null) {
+                        return;
+                    }
+                    Throwable cause = error instanceof CompletionException ? error.getCause() : error;
+                    if (cause instanceof ApiException) {
+                        ApiException apiException = (ApiException) cause;
+                        if (apiException.getCode() == ApiRateLimiter.TOO_MANY_REQUESTS) {
+                            retryFlush(targetKey, pendingAnnotations, ApiRateLimiter.getRetryAfter(apiException));
+                            return;
+                        }
+                        ResourceWatcherLog.severe(apiException, "Unable to update pod spec annotations on deployment {0} in namespace {1}: Api error {2}: {3}",
+                                deploymentName, deploymentNamespace, apiException.getCode(), apiException.getResponseBody());
+                    } else {
+                        ResourceWatcherLog.severe(cause, "Unable to update pod spec annotations on deployment {0} in namespace {1}: {2}", deploymentName, deploymentNamespace, cause.getMessage());
+                    }
+                    // The triggers are retried by their reconcilers
+                    failureListener.accept(cause);
+                });
+    }
+
+    /**
+     * Writes throttled annotations again after the delay, merged with the annotations triggered in the meantime.
+     */
+    private synchronized void retryFlush(String targetKey, PendingAnnotations throttledAnnotations, Duration retryAfter) {
+        ResourceWatcherLog.warning("Api server throttled pod spec annotations on deployment {0}, retrying in {1}ms", targetKey, retryAfter.toMillis());
+        PendingAnnotations pendingAnnotations = pendingAnnotationsByTarget.get(targetKey);
+        if (pendingAnnotations == null) {
+            pendingAnnotationsByTarget.put(targetKey, throttledAnnotations);
+        } else {
+            pendingAnnotations.flushFuture.cancel(false);
+            throttledAnnotations.annotations.forEach(pendingAnnotations.annotations::putIfAbsent);
+            throttledAnnotations.ledgerEntries.forEach(pendingAnnotations.ledgerEntries::putIfAbsent);
+            pendingAnnotations.failureListeners.addAll(throttledAnnotations.failureListeners);
+            pendingAnnotations.triggerCount += throttledAnnotations.triggerCount;
+        }
+        pendingAnnotationsByTarget.get(targetKey).flushFuture = scheduler.schedule(() -> flush(targetKey),
+                retryAfter.toNanos(), TimeUnit.NANOSECONDS);
+    }
+
+    private static class PendingAnnotations {
+        private final String deploymentNamespace;
+        private final String deploymentName;
+        private final long firstTriggerNanos;
+        private final Map<String, String> annotations = new HashMap<>();
+        private final Map<String, String> ledgerEntries = new HashMap<>();
+        private final List<Consumer<Throwable>> failureListeners = new ArrayList<>();
+        private int triggerCount;
+        private ScheduledFuture<?> flushFuture;
+
+        private PendingAnnotations(String deploymentNamespace, String deploymentName, long firstTriggerNanos) {
+            this.deploymentNamespace = deploymentNamespace;
+            this.deploymentName = deploymentName;
+            this.firstTriggerNanos = firstTriggerNanos;
+        }
+    }
+}
@@ -0,0 +1,113 @@
+package com.charlyghislain.resourcewatcher;
+
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import io.kubernetes.client.custom.V1Patch;
+import io.kubernetes.client.openapi.ApiCallback;
+import io.kubernetes.client.openapi.ApiClient;
+import io.kubernetes.client.openapi.ApiException;
+import io.kubernetes.client.openapi.apis.AppsV1Api;
+import io.kubernetes.client.openapi.models.V1Deployment;
+import io.kubernetes.client.util.ProxyContentTypeRequestBody;
+import okhttp3.Call;
+import okhttp3.Request;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Semaphore;
+
+/**
+ * Writes pod template annotations on deployments using a strategic merge patch. Trigger ledger entries are written
+ * in the same patch, as deployment annotations.
+ * <p>
+ * Patches are sent asynchronously. Callers wait for a permit when the max number of patches are in flight.
+ */
+public class DeploymentAnnotator {
+
+    // Null annotations remove stale ledger entries
+    private static final Gson PATCH_GSON = new GsonBuilder().serializeNulls().create();
+
+    private final AppsV1Api appsV1Api;
+    private final Semaphore inFlightPermits;
+
+    public DeploymentAnnotator(AppsV1Api appsV1Api, int maxInFlightWrites) {
+        this.appsV1Api = appsV1Api;
+        this.inFlightPermits = new Semaphore(Math.max(1, maxInFlightWrites), true);
+    }
+
+    /**
+     * Sends the patch, completing with the patched deployment, or with the api error.
+     */
+    public CompletableFuture<V1Deployment> annotatePodTemplate(String deploymentNamespace, String deploymentName, Map<String, String> annotations,
+                                                               Map<String, String> ledgerEntries) {
+        ApiClient apiClient = appsV1Api.getApiClient();
+        V1Patch patch = createPodTemplateAnnotationsPatch(annotations, ledgerEntries);
+        CompletableFuture<V1Deployment> patchFuture = new CompletableFuture<>();
+        try {
+            inFlightPermits.acquire();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            patchFuture.completeExceptionally(e);
+            return patchFuture;
+        }
+
+        long startNanos = System.nanoTime();
+        TriggerTracing.ApiCallEvent apiCallEvent = TriggerTracing.beginApiCall("patch_deployment");
+        try {
+            Call call = createStrategicMergePatchCall(apiClient,
+                    appsV1Api.patchNamespacedDeploymentCall(deploymentName, deploymentNamespace, patch, null, null, null, null, null));
+            apiClient.executeAsync(call, V1Deployment.class, new ApiCallback<V1Deployment>() {
+                @Override
+                public void onFailure(ApiException e, int statusCode, Map<String, List<String>> responseHeaders) {
+                    inFlightPermits.release();
+                    String status = statusCode == 0 ? "error" : String.valueOf(statusCode);
+                    ResourceWatcherMetrics.recordApiCall("patch_deployment", status, startNanos);
+                    TriggerTracing.endApiCall(apiCallEvent, status);
+                    patchFuture.completeExceptionally(e);
+                }
+
+                @Override
+                public void onSuccess(V1Deployment deployment, int statusCode, Map<String, List<String>> responseHeaders) {
+                    inFlightPermits.release();
+                    ResourceWatcherMetrics.recordApiCall("patch_deployment", String.valueOf(statusCode), startNanos);
+                    TriggerTracing.endApiCall(apiCallEvent, String.valueOf(statusCode));
+                    ResourceWatcherLog.fine("Updated pod spec annotations on deployment {0} in namespace {1}", deploymentName, deploymentNamespace);
+                    patchFuture.complete(deployment);
+                }
+
+                @Override
+                public void onUploadProgress(long bytesWritten, long contentLength, boolean done) {
+                }
+
+                @Override
+                public void onDownloadProgress(long bytesRead, long contentLength, boolean done) {
+                }
+            });
+        } catch (ApiException | RuntimeException e) {
+            inFlightPermits.release();
+            patchFuture.completeExceptionally(e);
+        }
+        return patchFuture;
+    }
+
+    static V1Patch createPodTemplateAnnotationsPatch(Map<String, String> annotations, Map<String, String> ledgerEntries) {
+        // Only the annotations are sent, no resourceVersion to conflict on
+        Map<String, Object> specPatch = Map.of("template",
+                Map.of("metadata",
+                        Map.of("annotations", annotations)));
+        Map<String, Object> patchBody = ledgerEntries.isEmpty()
+                ? Map.of("spec", specPatch)
+                : Map.of("metadata", Map.of("annotations", ledgerEntries), "spec", specPatch);
+        return new V1Patch(PATCH_GSON.toJson(patchBody));
+    }
+
+    private static Call createStrategicMergePatchCall(ApiClient apiClient, Call call) {
+        // As PatchUtils, which only supports blocking calls
+        Request request = call.request();
+        Request patchRequest = request.newBuilder()
+                .patch(new ProxyContentTypeRequestBody(request.body(), V1Patch.PATCH_FORMAT_STRATEGIC_MERGE_PATCH))
+                .build();
+        return apiClient.getHttpClient().newCall(patchRequest);
+    }
+}
@@ -0,0 +1,162 @@
+package com.charlyghislain.resourcewatcher;
+
+import com.charlyghislain.resourcewatcher.config.WatchedResourceKind;
+import io.kubernetes.client.informer.ResourceEventHandler;
+import io.kubernetes.client.informer.SharedIndexInformer;
+import io.kubernetes.client.informer.cache.Caches;
+import io.kubernetes.client.openapi.ApiException;
+import io.kubernetes.client.openapi.apis.AppsV1Api;
+import io.kubernetes.client.openapi.models.V1Deployment;
+import io.kubernetes.client.openapi.models.V1DeploymentList;
+import io.kubernetes.client.openapi.models.V1ObjectMeta;
+import io.kubernetes.client.util.CallGeneratorParams;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.stream.Collectors;
+
+/**
+ * Resolves the deployments targeted by actions from an in-memory cache.
+ * <p>
+ * A deployment informer is kept for each annotated namespace, indexed by namespace and label, and by the secrets and
+ * config maps referenced in the pod templates. Lookups only hit the api server while the informer has not synced yet.
+ */
+public class DeploymentTargetCache {
+
+    public static final String NAMESPACE_LABEL_INDEX = "namespace-label";
+    public static final String REFERENCE_INDEX = "reference";
+
+    private final ResourceInformerFactory informerFactory;
+    private final AppsV1Api appsV1Api;
+    // Receives the updates of the cached deployments, such as their rollout status
+    private final ResourceEventHandler<V1Deployment> deploymentEventHandler;
+    private final Map<String, SharedIndexInformer<V1Deployment>> informersByNamespace = new LinkedHashMap<>();
+    private final Map<String, Integer> watchCountsByNamespace = new LinkedHashMap<>();
+
+    public DeploymentTargetCache(ResourceInformerFactory informerFactory, AppsV1Api appsV1Api,
+                                 ResourceEventHandler<V1Deployment> deploymentEventHandler) {
+        this.informerFactory = informerFactory;
+        this.appsV1Api = appsV1Api;
+        this.deploymentEventHandler = deploymentEventHandler;
+    }
+
+    public synchronized void watchNamespace(String namespace) {
+        watchCountsByNamespace.merge(namespace, 1, Integer::sum);
+        if (informersByNamespace.containsKey(namespace)) {
+            return;
+        }
+        SharedIndexInformer<V1Deployment> informer = informerFactory.createInformer((CallGeneratorParams params) -> appsV1Api.listNamespacedDeploymentCall(
+                        namespace,
+                        null,
+                        null,
+                        null,
+                        null,
+                        null,
+                        null,
+                        params.resourceVersion,
+                        null,
+                        params.timeoutSeconds,
+                        params.watch,
+                        null),
+                V1Deployment.class,
+                V1DeploymentList.class,
+                ProtobufResourceCodec.DEPLOYMENT);
+        informer.addIndexers(Map.of(
+                NAMESPACE_LABEL_INDEX, DeploymentTargetCache::getNamespaceLabelIndexKeys,
+                REFERENCE_INDEX, PodTemplateReferences::getReferenceKeys));
+        informer.addEventHandler(deploymentEventHandler);
+        informersByNamespace.put(namespace, informer);
+        ResourceWatcherLog.fine("Created deployment informer in namespace {0}", namespace);
+    }
+
+    /**
+     * Releases a namespace watched by an action, returning its informer once no action targets it anymore. The
+     * informer is then forgotten, and should be stopped.
+     */
+    public synchronized SharedIndexInformer<V1Deployment> unwatchNamespace(String namespace) {
+        if (!watchCountsByNamespace.containsKey(namespace)) {
+            return null;
+        }
+        Integer watchCount = watchCountsByNamespace.computeIfPresent(namespace, (n, count) -> count > 1 ? count - 1 : null);
+        if (watchCount != null) {
+            return null;
+        }
+        ResourceWatcherLog.fine("Removed deployment informer in namespace {0}", namespace);
+        return informersByNamespace.remove(namespace);
+    }
+
+    public synchronized List<SharedIndexInformer<V1Deployment>> getAllInformers() {
+        return new ArrayList<>(informersByNamespace.values());
+    }
+
+    public List<V1Deployment> findDeployments(String namespace, AnnotatedResourceSelector resourceSelector) throws ApiException {
+        LabelSelector labelSelector = resourceSelector.getLabelSelector();
+        FieldSelector fieldSelector = resourceSelector.getFieldSelector();
+        SharedIndexInformer<V1Deployment> informer;
+        synchronized (this) {
+            informer = informersByNamespace.get(namespace);
+        }
+        if (informer == null || !informer.hasSynced()) {
+            return listDeployments(namespace, fieldSelector, labelSelector);
+        }
+
+        List<V1Deployment> candidates = labelSelector.getEqualityRequirement()
+                .map(labelRequirement -> informer.getIndexer().byIndex(NAMESPACE_LABEL_INDEX, namespace + "/" + labelRequirement))
+                .orElseGet(() -> informer.getIndexer().byIndex(Caches.NAMESPACE_INDEX, namespace));
+        return candidates.stream()
+                .filter(deployment -> labelSelector.matches(deployment.getMetadata().getLabels()))
+                .filter(fieldSelector::matches)
+                .collect(Collectors.toList());
+    }
+
+    /**
+     * The deployments whose pod template references a secret or config map, also matching the selector.
+     */
+    public List<V1Deployment> findReferencingDeployments(WatchedResourceKind referencedKind, String namespace, String referencedName,
+                                                         AnnotatedResourceSelector resourceSelector) throws ApiException {
+        LabelSelector labelSelector = resourceSelector.getLabelSelector();
+        FieldSelector fieldSelector = resourceSelector.getFieldSelector();
+        String referenceKey = PodTemplateReferences.getReferenceKey(referencedKind, namespace, referencedName);
+        SharedIndexInformer<V1Deployment> informer;
+        synchronized (this) {
+            informer = informersByNamespace.get(namespace);
+        }
+        List<V1Deployment> candidates;
+        if (informer == null || !informer.hasSynced()) {
+            candidates = listDeployments(namespace, fieldSelector, labelSelector).stream()
+                    .filter(deployment -> PodTemplateReferences.getReferenceKeys(deployment).contains(referenceKey))
+                    .collect(Collectors.toList());
+        } else {
+            candidates = informer.getIndexer().byIndex(REFERENCE_INDEX, referenceKey);
+        }
+        return candidates.stream()
+                .filter(deployment -> labelSelector.matches(deployment.getMetadata().getLabels()))
+                .filter(fieldSelector::matches)
+                .collect(Collectors.toList());
+    }
+
+    private List<V1Deployment> listDeployments(String namespace, FieldSelector fieldSelector, LabelSelector labelSelector) throws ApiException {
+        ResourceWatcherLog.fine("Deployment cache not synced for namespace {0}, listing deployments", namespace);
+        V1DeploymentList deploymentList = ResourceWatcherMetrics.timeApiCall("list_deployments", () -> appsV1Api.listNamespacedDeployment(namespace,
+                null, null, null,
+                fieldSelector.getSelectorString(),
+                labelSelector.getSelectorString(),
+                null, null, null, null, null
+        ));
+        return deploymentList.getItems();
+    }
+
+    private static List<String> getNamespaceLabelIndexKeys(V1Deployment deployment) {
+        V1ObjectMeta metadata = deployment.getMetadata();
+        String namespace = metadata.getNamespace();
+        return Optional.ofNullable(metadata.getLabels())
+                .orElse(Map.of())
+                .entrySet()
+                .stream()
+                .map(e -> namespace + "/" + e.getKey() + "=" + e.getValue())
+                .collect(Collectors.toList());
+    }
+}
@@ -0,0 +1,177 @@
+package com.charlyghislain.resourcewatcher;
+
+import io.kubernetes.client.extended.workqueue.RateLimitingQueue;
+import io.kubernetes.client.extended.workqueue.ratelimiter.RateLimiter;
+import io.prometheus.client.Gauge;
+import io.prometheus.client.Histogram;
+
+import java.time.Duration;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+
+/**
+ * Rate limiting work queue serving its tenants in turn.
+ * <p>
+ * Each tenant, such as a namespace, has its own fifo sub-queue. Tenants with queued items are served round-robin, up
+ * to their weight of items per turn, so that a tenant flooding the queue does not delay the others. As the default
+ * work queue, an item is queued at most once, and an item added while processed is queued again once done.
+ */
+public class FairWorkQueue<T> implements RateLimitingQueue<T> {
+
+    private final Function<T, String> tenantFunction;
+    private final Map<String, Integer> tenantWeights;
+    private final RateLimiter<T> rateLimiter;
+    private final ScheduledExecutorService delayExecutor;
+
+    private final Map<String, TenantQueue<T>> tenantQueues = new HashMap<>();
+    // Tenants with queued items, in serving order
+    private final Deque<TenantQueue<T>> activeTenants = new ArrayDeque<>();
+    // Queued items, or items added again while processed, with the time they were added
+    private final Map<T, Long> dirtyItems = new HashMap<>();
+    private final Set<T> processingItems = new HashSet<>();
+    private int length;
+    private boolean shuttingDown;
+
+    /**
+     * Tenants missing from the weights have a weight of 1.
+     */
+    public FairWorkQueue(Function<T, String> tenantFunction, Map<String, Integer> tenantWeights,
+                         RateLimiter<T> rateLimiter, ScheduledExecutorService delayExecutor) {
+        this.tenantFunction = tenantFunction;
+        this.tenantWeights = tenantWeights;
+        this.rateLimiter = rateLimiter;
+        this.delayExecutor = delayExecutor;
+    }
+
+    @Override
+    public synchronized void add(T item) {
+        if (shuttingDown || dirtyItems.containsKey(item)) {
+            return;
+        }
+        dirtyItems.put(item, System.nanoTime());
+        if (processingItems.contains(item)) {
+            return;
+        }
+        enqueue(item);
+    }
+
+    @Override
+    public synchronized int length() {
+        return length;
+    }
+
+    @Override
+    public synchronized T get() throws InterruptedException {
+        while (activeTenants.isEmpty() && !shuttingDown) {
+            wait();
+        }
+        if (activeTenants.isEmpty()) {
+            return null;
+        }
+        TenantQueue<T> tenantQueue = activeTenants.peekFirst();
+        T item = tenantQueue.items.pollFirst();
+        length--;
+        tenantQueue.servedInTurn++;
+        tenantQueue.depth.set(tenantQueue.items.size());
+        if (tenantQueue.items.isEmpty()) {
+            activeTenants.pollFirst();
+            tenantQueues.remove(tenantQueue.tenant);
+        } else if (tenantQueue.servedInTurn >= tenantQueue.weight) {
+            tenantQueue.servedInTurn = 0;
+            activeTenants.addLast(activeTenants.pollFirst());
+        }
+
+        Long addedNanos = dirtyItems.remove(item);
+        if (addedNanos != null) {
+            tenantQueue.waitTime.observe((System.nanoTime() - addedNanos) / 1e9);
+        }
+        processingItems.add(item);
+        return item;
+    }
+
+    @Override
+    public synchronized void done(T item) {
+        processingItems.remove(item);
+        if (dirtyItems.containsKey(item)) {
+            enqueue(item);
+        }
+    }
+
+    @Override
+    public synchronized void shutDown() {
+        shuttingDown = true;
+        notifyAll();
+        delayExecutor.shutdownNow();
+    }
+
+    @Override
+    public synchronized boolean isShuttingDown() {
+        return shuttingDown;
+    }
+
+    @Override
+    public void addAfter(T item, Duration duration) {
+        if (duration.isZero() || duration.isNegative()) {
+            add(item);
+            return;
+        }
+        synchronized (this) {
+            if (shuttingDown) {
+                return;
+            }
+            delayExecutor.schedule(() -> add(item), duration.toNanos(), TimeUnit.NANOSECONDS);
+        }
+    }
+
+    @Override
+    public void addRateLimited(T item) {
+        addAfter(item, rateLimiter.when(item));
+    }
+
+    @Override
+    public void forget(T item) {
+        rateLimiter.forget(item);
+    }
+
+    @Override
+    public int numRequeues(T item) {
+        return rateLimiter.numRequeues(item);
+    }
+
+    private void enqueue(T item) {
+        String tenant = tenantFunction.apply(item);
+        TenantQueue<T> tenantQueue = tenantQueues.computeIfAbsent(tenant,
+                t -> new TenantQueue<>(t, Math.max(1, tenantWeights.getOrDefault(t, 1))));
+        if (tenantQueue.items.isEmpty()) {
+            tenantQueue.servedInTurn = 0;
+            activeTenants.addLast(tenantQueue);
+        }
+        tenantQueue.items.addLast(item);
+        tenantQueue.depth.set(tenantQueue.items.size());
+        length++;
+        notify();
+    }
+
+    private static class TenantQueue<T> {
+        private final String tenant;
+        private final int weight;
+        private final Deque<T> items = new ArrayDeque<>();
+        private final Gauge.Child depth;
+        private final Histogram.Child waitTime;
+        private int servedInTurn;
+
+        private TenantQueue(String tenant, int weight) {
+            this.tenant = tenant;
+            this.weight = weight;
+            this.depth = ResourceWatcherMetrics.WORK_QUEUE_TENANT_DEPTH.labels(tenant);
+            this.waitTime = ResourceWatcherMetrics.WORK_QUEUE_WAIT.labels(tenant);
+        }
+    }
+}
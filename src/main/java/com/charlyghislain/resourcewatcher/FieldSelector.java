@@ -0,0 +1,150 @@
+package com.charlyghislain.resourcewatcher;
+
+import io.kubernetes.client.common.KubernetesObject;
+import io.kubernetes.client.openapi.models.V1Pod;
+import io.kubernetes.client.openapi.models.V1PodSpec;
+import io.kubernetes.client.openapi.models.V1PodStatus;
+import io.kubernetes.client.openapi.models.V1Secret;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Function;
+
+/**
+ * A field selector compiled once, supporting equality-based (=, ==, !=) requirements on the fields the api server
+ * supports for the watched kinds. Matching does not allocate.
+ */
+public class FieldSelector {
+
+    private static final FieldSelector EMPTY = new FieldSelector("", new Requirement[0]);
+    private static final Map<String, Function<KubernetesObject, String>> FIELD_ACCESSORS = Map.of(
+            "metadata.name", o -> o.getMetadata().getName(),
+            "metadata.namespace", o -> o.getMetadata().getNamespace(),
+            "type", o -> o instanceof V1Secret ? ((V1Secret) o).getType() : null,
+            "spec.nodeName", o -> getPodSpecField(o, V1PodSpec::getNodeName),
+            "spec.restartPolicy", o -> getPodSpecField(o, V1PodSpec::getRestartPolicy),
+            "spec.schedulerName", o -> getPodSpecField(o, V1PodSpec::getSchedulerName),
+            "spec.serviceAccountName", o -> getPodSpecField(o, V1PodSpec::getServiceAccountName),
+            "status.phase", o -> getPodStatusField(o, V1PodStatus::getPhase),
+            "status.podIP", o -> getPodStatusField(o, V1PodStatus::getPodIP),
+            "status.nominatedNodeName", o -> getPodStatusField(o, V1PodStatus::getNominatedNodeName)
+    );
+
+    private final String selectorString;
+    private final Requirement[] requirements;
+
+    private FieldSelector(String selectorString, Requirement[] requirements) {
+        this.selectorString = selectorString;
+        this.requirements = requirements;
+    }
+
+    public static FieldSelector parse(List<String> selectors) {
+        List<Requirement> requirementList = new ArrayList<>();
+        for (String selector : selectors) {
+            for (String requirementString : selector.split(",")) {
+                if (requirementString.isBlank()) {
+                    continue;
+                }
+                requirementList.add(parseRequirement(requirementString.trim()));
+            }
+        }
+        if (requirementList.isEmpty()) {
+            return EMPTY;
+        }
+        String selectorString = String.join(",", selectors);
+        return new FieldSelector(selectorString, requirementList.toArray(new Requirement[0]));
+    }
+
+    public boolean matches(KubernetesObject kubernetesObject) {
+        for (Requirement requirement : requirements) {
+            String fieldValue = requirement.fieldAccessor.apply(kubernetesObject);
+            boolean equal = requirement.value.equals(fieldValue);
+            if (equal == requirement.negated) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    public boolean isEmpty() {
+        return requirements.length == 0;
+    }
+
+    /**
+     * Whether all requirements apply to metadata fields.
+     */
+    public boolean isMetadataSelector() {
+        for (Requirement requirement : requirements) {
+            if (!requirement.field.startsWith("metadata.")) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    public String getSelectorString() {
+        return selectorString;
+    }
+
+    @Override
+    public String toString() {
+        return selectorString;
+    }
+
+    private static Requirement parseRequirement(String requirementString) {
+        boolean negated;
+        String field;
+        String value;
+        int notEqualsIndex = requirementString.indexOf("!=");
+        if (notEqualsIndex > 0) {
+            negated = true;
+            field = requirementString.substring(0, notEqualsIndex).trim();
+            value = requirementString.substring(notEqualsIndex + 2).trim();
+        } else {
+            int equalsIndex = requirementString.indexOf('=');
+            if (equalsIndex <= 0) {
+                throw new IllegalArgumentException("Invalid field selector requirement: " + requirementString);
+            }
+            negated = false;
+            field = requirementString.substring(0, equalsIndex).trim();
+            int valueIndex = requirementString.startsWith("==", equalsIndex) ? equalsIndex + 2 : equalsIndex + 1;
+            value = requirementString.substring(valueIndex).trim();
+        }
+        Function<KubernetesObject, String> fieldAccessor = FIELD_ACCESSORS.get(field);
+        if (fieldAccessor == null) {
+            throw new IllegalArgumentException("Unsupported field selector: " + field);
+        }
+        return new Requirement(field, fieldAccessor, negated, value);
+    }
+
+    private static String getPodSpecField(KubernetesObject kubernetesObject, Function<V1PodSpec, String> getter) {
+        if (!(kubernetesObject instanceof V1Pod)) {
+            return null;
+        }
+        V1PodSpec podSpec = ((V1Pod) kubernetesObject).getSpec();
+        return podSpec == null ? null : getter.apply(podSpec);
+    }
+
+    private static String getPodStatusField(KubernetesObject kubernetesObject, Function<V1PodStatus, String> getter) {
+        if (!(kubernetesObject instanceof V1Pod)) {
+            return null;
+        }
+        V1PodStatus podStatus = ((V1Pod) kubernetesObject).getStatus();
+        return podStatus == null ? null : getter.apply(podStatus);
+    }
+
+    private static class Requirement {
+        private final String field;
+        private final Function<KubernetesObject, String> fieldAccessor;
+        private final boolean negated;
+        private final String value;
+
+        private Requirement(String field, Function<KubernetesObject, String> fieldAccessor, boolean negated, String value) {
+            this.field = field;
+            this.fieldAccessor = fieldAccessor;
+            this.negated = negated;
+            this.value = value;
+        }
+    }
+}
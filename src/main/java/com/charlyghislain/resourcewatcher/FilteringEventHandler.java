@@ -0,0 +1,74 @@
+package com.charlyghislain.resourcewatcher;
+
+import io.kubernetes.client.common.KubernetesObject;
+import io.kubernetes.client.extended.controller.reconciler.Request;
+import io.kubernetes.client.informer.ResourceEventHandler;
+import io.kubernetes.client.openapi.models.V1ObjectMeta;
+
+import java.util.function.BiPredicate;
+import java.util.function.BooleanSupplier;
+import java.util.function.Predicate;
+
+/**
+ * Enqueues a reconcile request, keyed by namespace and name, for the informer events accepted by the filters of a
+ * watched resource.
+ * <p>
+ * As the controller watches of the client, but only adding to the controller queue, which the reconcile engine
+ * consumes.
+ */
+public class FilteringEventHandler<T extends KubernetesObject> implements ResourceEventHandler<T> {
+
+    private final ReconcileEngine.ControllerQueue controllerQueue;
+    private final Predicate<T> onAddFilter;
+    private final UpdateFilter<T> onUpdateFilter;
+    private final BiPredicate<T, Boolean> onDeleteFilter;
+
+    public FilteringEventHandler(ReconcileEngine.ControllerQueue controllerQueue, Predicate<T> onAddFilter,
+                                 UpdateFilter<T> onUpdateFilter, BiPredicate<T, Boolean> onDeleteFilter) {
+        this.controllerQueue = controllerQueue;
+        this.onAddFilter = onAddFilter;
+        this.onUpdateFilter = onUpdateFilter;
+        this.onDeleteFilter = onDeleteFilter;
+    }
+
+    @Override
+    public void onAdd(T obj) {
+        if (onAddFilter.test(obj)) {
+            controllerQueue.add(getRequest(obj));
+        }
+    }
+
+    @Override
+    public void onUpdate(T oldObj, T newObj) {
+        onUpdate(oldObj, newObj, () -> !ResourceDigests.computeDigest(oldObj).equals(ResourceDigests.computeDigest(newObj)));
+    }
+
+    /**
+     * Handles an update, given whether the payload of the resource changed, shared by the handlers of the informer.
+     */
+    public void onUpdate(T oldObj, T newObj, BooleanSupplier contentChanged) {
+        if (onUpdateFilter.test(oldObj, newObj, contentChanged)) {
+            controllerQueue.add(getRequest(newObj));
+        }
+    }
+
+    @Override
+    public void onDelete(T obj, boolean deletedFinalStateUnknown) {
+        if (onDeleteFilter.test(obj, deletedFinalStateUnknown)) {
+            controllerQueue.add(getRequest(obj));
+        }
+    }
+
+    /**
+     * Filters an update. Whether the payload changed is only computed when needed.
+     */
+    public interface UpdateFilter<T> {
+
+        boolean test(T oldObj, T newObj, BooleanSupplier contentChanged);
+    }
+
+    private static Request getRequest(KubernetesObject kubernetesObject) {
+        V1ObjectMeta metadata = kubernetesObject.getMetadata();
+        return new Request(metadata.getNamespace(), metadata.getName());
+    }
+}
@@ -0,0 +1,46 @@
+package com.charlyghislain.resourcewatcher;
+
+import com.google.gson.reflect.TypeToken;
+import io.kubernetes.client.common.KubernetesListObject;
+import io.kubernetes.client.common.KubernetesObject;
+import io.kubernetes.client.informer.ListerWatcher;
+import io.kubernetes.client.openapi.ApiClient;
+import io.kubernetes.client.openapi.ApiException;
+import io.kubernetes.client.util.CallGenerator;
+import io.kubernetes.client.util.CallGeneratorParams;
+import io.kubernetes.client.util.Watch;
+import io.kubernetes.client.util.Watchable;
+
+import java.lang.reflect.Type;
+
+/**
+ * Lists and watches resources in json, as the informer factory does for call generators.
+ */
+public class JsonListerWatcher<T extends KubernetesObject, L extends KubernetesListObject> implements ListerWatcher<T, L> {
+
+    private final ApiClient apiClient;
+    private final CallGenerator callGenerator;
+    private final Class<L> apiListTypeClass;
+    private final Type watchType;
+
+    public JsonListerWatcher(ApiClient apiClient, CallGenerator callGenerator, Class<T> apiTypeClass, Class<L> apiListTypeClass) {
+        this.apiClient = apiClient;
+        this.callGenerator = callGenerator;
+        this.apiListTypeClass = apiListTypeClass;
+        this.watchType = TypeToken.getParameterized(Watch.Response.class, apiTypeClass).getType();
+    }
+
+    public Class<L> getApiListTypeClass() {
+        return apiListTypeClass;
+    }
+
+    @Override
+    public L list(CallGeneratorParams params) throws ApiException {
+        return apiClient.<L>execute(callGenerator.generate(params), apiListTypeClass).getData();
+    }
+
+    @Override
+    public Watchable<T> watch(CallGeneratorParams params) throws ApiException {
+        return Watch.createWatch(apiClient, callGenerator.generate(params), watchType);
+    }
+}
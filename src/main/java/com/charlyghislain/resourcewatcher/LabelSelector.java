@@ -0,0 +1,185 @@
+package com.charlyghislain.resourcewatcher;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * A label selector compiled once, supporting equality-based (=, ==, !=) and set-based (in, notin, exists, !exists)
+ * requirements. Matching does not allocate.
+ */
+public class LabelSelector {
+
+    private static final LabelSelector EMPTY = new LabelSelector("", new Requirement[0]);
+    private static final Pattern SET_REQUIREMENT_PATTERN = Pattern.compile("^([^\\s!=()]+)\\s+(in|notin)\\s*\\((.*)\\)$");
+    private static final Pattern KEY_PATTERN = Pattern.compile("^[^\\s!=(),]+$");
+
+    private enum Operator {
+        EQUALS,
+        NOT_EQUALS,
+        IN,
+        NOT_IN,
+        EXISTS,
+        DOES_NOT_EXIST,
+    }
+
+    private final String selectorString;
+    private final Requirement[] requirements;
+
+    private LabelSelector(String selectorString, Requirement[] requirements) {
+        this.selectorString = selectorString;
+        this.requirements = requirements;
+    }
+
+    public static LabelSelector parse(List<String> selectors) {
+        List<Requirement> requirementList = new ArrayList<>();
+        for (String selector : selectors) {
+            for (String requirementString : splitRequirements(selector)) {
+                requirementList.add(parseRequirement(requirementString));
+            }
+        }
+        if (requirementList.isEmpty()) {
+            return EMPTY;
+        }
+        String selectorString = String.join(",", selectors);
+        return new LabelSelector(selectorString, requirementList.toArray(new Requirement[0]));
+    }
+
+    public boolean matches(Map<String, String> labels) {
+        for (Requirement requirement : requirements) {
+            if (!requirement.matches(labels)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    public boolean isEmpty() {
+        return requirements.length == 0;
+    }
+
+    public String getSelectorString() {
+        return selectorString;
+    }
+
+    /**
+     * The first equality requirement, normalized as 'key=value', usable as index key.
+     */
+    public Optional<String> getEqualityRequirement() {
+        for (Requirement requirement : requirements) {
+            if (requirement.operator == Operator.EQUALS) {
+                return Optional.of(requirement.key + "=" + requirement.value);
+            }
+        }
+        return Optional.empty();
+    }
+
+    @Override
+    public String toString() {
+        return selectorString;
+    }
+
+    private static List<String> splitRequirements(String selector) {
+        // Commas within parenthesis separate values of set-based requirements
+        List<String> requirementStrings = new ArrayList<>();
+        int depth = 0;
+        int start = 0;
+        for (int i = 0; i < selector.length(); i++) {
+            char c = selector.charAt(i);
+            if (c == '(') {
+                depth++;
+            } else if (c == ')') {
+                depth--;
+            } else if (c == ',' && depth == 0) {
+                requirementStrings.add(selector.substring(start, i));
+                start = i + 1;
+            }
+        }
+        if (depth != 0) {
+            throw new IllegalArgumentException("Unbalanced parenthesis in label selector: " + selector);
+        }
+        requirementStrings.add(selector.substring(start));
+        requirementStrings.removeIf(String::isBlank);
+        requirementStrings.replaceAll(String::trim);
+        return requirementStrings;
+    }
+
+    private static Requirement parseRequirement(String requirementString) {
+        Matcher setMatcher = SET_REQUIREMENT_PATTERN.matcher(requirementString);
+        if (setMatcher.matches()) {
+            String key = setMatcher.group(1);
+            Operator operator = setMatcher.group(2).equals("in") ? Operator.IN : Operator.NOT_IN;
+            Set<String> values = new HashSet<>();
+            Arrays.stream(setMatcher.group(3).split(","))
+                    .map(String::trim)
+                    .forEach(values::add);
+            return new Requirement(key, operator, null, values);
+        }
+        if (requirementString.startsWith("!")) {
+            String key = checkKey(requirementString.substring(1).trim(), requirementString);
+            return new Requirement(key, Operator.DOES_NOT_EXIST, null, null);
+        }
+        int notEqualsIndex = requirementString.indexOf("!=");
+        if (notEqualsIndex > 0) {
+            String key = checkKey(requirementString.substring(0, notEqualsIndex).trim(), requirementString);
+            String value = requirementString.substring(notEqualsIndex + 2).trim();
+            return new Requirement(key, Operator.NOT_EQUALS, value, null);
+        }
+        int equalsIndex = requirementString.indexOf('=');
+        if (equalsIndex > 0) {
+            String key = checkKey(requirementString.substring(0, equalsIndex).trim(), requirementString);
+            int valueIndex = requirementString.startsWith("==", equalsIndex) ? equalsIndex + 2 : equalsIndex + 1;
+            String value = requirementString.substring(valueIndex).trim();
+            return new Requirement(key, Operator.EQUALS, value, null);
+        }
+        String key = checkKey(requirementString, requirementString);
+        return new Requirement(key, Operator.EXISTS, null, null);
+    }
+
+    private static String checkKey(String key, String requirementString) {
+        if (!KEY_PATTERN.matcher(key).matches()) {
+            throw new IllegalArgumentException("Invalid label selector requirement: " + requirementString);
+        }
+        return key;
+    }
+
+    private static class Requirement {
+        private final String key;
+        private final Operator operator;
+        private final String value;
+        private final Set<String> values;
+
+        private Requirement(String key, Operator operator, String value, Set<String> values) {
+            this.key = key;
+            this.operator = operator;
+            this.value = value;
+            this.values = values;
+        }
+
+        private boolean matches(Map<String, String> labels) {
+            String labelValue = labels == null ? null : labels.get(key);
+            switch (operator) {
+                case EQUALS:
+                    return value.equals(labelValue);
+                case NOT_EQUALS:
+                    return !value.equals(labelValue);
+                case IN:
+                    return labelValue != null && values.contains(labelValue);
+                case NOT_IN:
+                    return labelValue == null || !values.contains(labelValue);
+                case EXISTS:
+                    return labels != null && labels.containsKey(key);
+                case DOES_NOT_EXIST:
+                    return labels == null || !labels.containsKey(key);
+                default:
+                    return false;
+            }
+        }
+    }
+}
@@ -0,0 +1,59 @@
+package com.charlyghislain.resourcewatcher;
+
+import com.google.gson.reflect.TypeToken;
+import io.kubernetes.client.common.KubernetesListObject;
+import io.kubernetes.client.common.KubernetesObject;
+import io.kubernetes.client.informer.ListerWatcher;
+import io.kubernetes.client.openapi.ApiClient;
+import io.kubernetes.client.openapi.ApiException;
+import io.kubernetes.client.util.CallGenerator;
+import io.kubernetes.client.util.CallGeneratorParams;
+import io.kubernetes.client.util.Watch;
+import io.kubernetes.client.util.Watchable;
+import okhttp3.Call;
+import okhttp3.Request;
+
+import java.lang.reflect.Type;
+
+/**
+ * Lists and watches the metadata of resources, as PartialObjectMetadata.
+ * <p>
+ * Objects are deserialized into the typed models with their metadata only. The api server ignores the accepted
+ * representation for kinds it cannot serve as PartialObjectMetadata, and answers with the full objects.
+ */
+public class MetadataListerWatcher<T extends KubernetesObject, L extends KubernetesListObject> implements ListerWatcher<T, L> {
+
+    private static final String LIST_ACCEPT_HEADER = "application/json;as=PartialObjectMetadataList;g=meta.k8s.io;v=v1, application/json";
+    private static final String WATCH_ACCEPT_HEADER = "application/json;as=PartialObjectMetadata;g=meta.k8s.io;v=v1, application/json";
+
+    private final ApiClient apiClient;
+    private final CallGenerator callGenerator;
+    private final Class<L> apiListTypeClass;
+    private final Type watchType;
+
+    public MetadataListerWatcher(ApiClient apiClient, CallGenerator callGenerator, Class<T> apiTypeClass, Class<L> apiListTypeClass) {
+        this.apiClient = apiClient;
+        this.callGenerator = callGenerator;
+        this.apiListTypeClass = apiListTypeClass;
+        this.watchType = TypeToken.getParameterized(Watch.Response.class, apiTypeClass).getType();
+    }
+
+    @Override
+    public L list(CallGeneratorParams params) throws ApiException {
+        Call call = createMetadataCall(callGenerator.generate(params), LIST_ACCEPT_HEADER);
+        return apiClient.<L>execute(call, apiListTypeClass).getData();
+    }
+
+    @Override
+    public Watchable<T> watch(CallGeneratorParams params) throws ApiException {
+        Call call = createMetadataCall(callGenerator.generate(params), WATCH_ACCEPT_HEADER);
+        return Watch.createWatch(apiClient, call, watchType);
+    }
+
+    private Call createMetadataCall(Call call, String acceptHeader) {
+        Request request = call.request().newBuilder()
+                .header("Accept", acceptHeader)
+                .build();
+        return apiClient.getHttpClient().newCall(request);
+    }
+}
@@ -0,0 +1,98 @@
+package com.charlyghislain.resourcewatcher;
+
+import io.kubernetes.client.common.KubernetesObject;
+import io.kubernetes.client.informer.ResourceEventHandler;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.BooleanSupplier;
+
+/**
+ * Dispatches the events of an informer to several handlers.
+ * <p>
+ * Each handler registered on an informer gets its own listener thread. Registering this handler once per informer
+ * keeps a single listener thread, regardless of the number of controllers sharing the informer.
+ * <p>
+ * Whether the payload of an updated resource changed is computed at most once per event, when the first filtering
+ * handler needs it, and passed to the others.
+ */
+public class MultiplexingEventHandler<T extends KubernetesObject> implements ResourceEventHandler<T> {
+
+    private final ResourceDigestCache<? extends KubernetesObject> digestCache;
+    private final List<ResourceEventHandler<T>> eventHandlers = new CopyOnWriteArrayList<>();
+
+    public MultiplexingEventHandler(ResourceDigestCache<? extends KubernetesObject> digestCache) {
+        this.digestCache = digestCache;
+    }
+
+    public void addEventHandler(ResourceEventHandler<T> eventHandler) {
+        eventHandlers.add(eventHandler);
+    }
+
+    public void removeEventHandler(ResourceEventHandler<T> eventHandler) {
+        eventHandlers.remove(eventHandler);
+    }
+
+    @Override
+    public void onAdd(T obj) {
+        for (ResourceEventHandler<T> eventHandler : eventHandlers) {
+            try {
+                eventHandler.onAdd(obj);
+            } catch (Exception e) {
+                ResourceWatcherLog.severe(e, "Unable to handle add event: {0}", e.getMessage());
+            }
+        }
+    }
+
+    @Override
+    public void onUpdate(T oldObj, T newObj) {
+        ContentChange contentChange = new ContentChange(digestCache, oldObj, newObj);
+        for (ResourceEventHandler<T> eventHandler : eventHandlers) {
+            try {
+                if (eventHandler instanceof FilteringEventHandler) {
+                    ((FilteringEventHandler<T>) eventHandler).onUpdate(oldObj, newObj, contentChange);
+                } else {
+                    eventHandler.onUpdate(oldObj, newObj);
+                }
+            } catch (Exception e) {
+                ResourceWatcherLog.severe(e, "Unable to handle update event: {0}", e.getMessage());
+            }
+        }
+    }
+
+    @Override
+    public void onDelete(T obj, boolean deletedFinalStateUnknown) {
+        digestCache.evict(obj);
+        for (ResourceEventHandler<T> eventHandler : eventHandlers) {
+            try {
+                eventHandler.onDelete(obj, deletedFinalStateUnknown);
+            } catch (Exception e) {
+                ResourceWatcherLog.severe(e, "Unable to handle delete event: {0}", e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Whether the payload digest differs between both versions, computed on first use.
+     */
+    private static class ContentChange implements BooleanSupplier {
+        private final ResourceDigestCache<? extends KubernetesObject> digestCache;
+        private final KubernetesObject oldObject;
+        private final KubernetesObject newObject;
+        private Boolean changed;
+
+        private ContentChange(ResourceDigestCache<? extends KubernetesObject> digestCache, KubernetesObject oldObject, KubernetesObject newObject) {
+            this.digestCache = digestCache;
+            this.oldObject = oldObject;
+            this.newObject = newObject;
+        }
+
+        @Override
+        public boolean getAsBoolean() {
+            if (changed == null) {
+                changed = digestCache.hasDigestChanged(oldObject, newObject);
+            }
+            return changed;
+        }
+    }
+}
@@ -0,0 +1,68 @@
+package com.charlyghislain.resourcewatcher;
+
+import io.kubernetes.client.extended.leaderelection.LeaderElectionRecord;
+import io.kubernetes.client.extended.leaderelection.Lock;
+import io.kubernetes.client.openapi.ApiException;
+
+import java.util.Objects;
+
+/**
+ * Leader election lock remembering when the renewals of another holder were last observed.
+ * <p>
+ * Renewals are timed on the local clock, as the leader elector does, so that the takeover latency does not depend on
+ * the clock skew between replicas.
+ */
+public class ObservingLeaderLock implements Lock {
+
+    private final Lock delegate;
+    private LeaderElectionRecord lastForeignRecord;
+    private long lastForeignRenewalNanos;
+
+    public ObservingLeaderLock(Lock delegate) {
+        this.delegate = delegate;
+    }
+
+    @Override
+    public LeaderElectionRecord get() throws ApiException {
+        LeaderElectionRecord record = delegate.get();
+        if (record != null && !Objects.equals(record.getHolderIdentity(), identity())) {
+            synchronized (this) {
+                if (!record.equals(lastForeignRecord)) {
+                    lastForeignRecord = record;
+                    lastForeignRenewalNanos = System.nanoTime();
+                }
+            }
+        }
+        return record;
+    }
+
+    @Override
+    public boolean create(LeaderElectionRecord record) {
+        return delegate.create(record);
+    }
+
+    @Override
+    public boolean update(LeaderElectionRecord record) {
+        return delegate.update(record);
+    }
+
+    @Override
+    public String identity() {
+        return delegate.identity();
+    }
+
+    @Override
+    public String describe() {
+        return delegate.describe();
+    }
+
+    /**
+     * Nanoseconds since the last observed renewal of another holder, or -1 if none was observed.
+     */
+    public synchronized long getNanosSinceForeignRenewal() {
+        if (lastForeignRecord == null) {
+            return -1;
+        }
+        return System.nanoTime() - lastForeignRenewalNanos;
+    }
+}
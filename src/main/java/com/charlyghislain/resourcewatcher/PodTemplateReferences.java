@@ -0,0 +1,106 @@
+package com.charlyghislain.resourcewatcher;
+
+import com.charlyghislain.resourcewatcher.config.WatchedResourceKind;
+import io.kubernetes.client.openapi.models.V1ConfigMapEnvSource;
+import io.kubernetes.client.openapi.models.V1ConfigMapKeySelector;
+import io.kubernetes.client.openapi.models.V1ConfigMapProjection;
+import io.kubernetes.client.openapi.models.V1ConfigMapVolumeSource;
+import io.kubernetes.client.openapi.models.V1Container;
+import io.kubernetes.client.openapi.models.V1Deployment;
+import io.kubernetes.client.openapi.models.V1DeploymentSpec;
+import io.kubernetes.client.openapi.models.V1EnvFromSource;
+import io.kubernetes.client.openapi.models.V1EnvVar;
+import io.kubernetes.client.openapi.models.V1EnvVarSource;
+import io.kubernetes.client.openapi.models.V1PodSpec;
+import io.kubernetes.client.openapi.models.V1PodTemplateSpec;
+import io.kubernetes.client.openapi.models.V1ProjectedVolumeSource;
+import io.kubernetes.client.openapi.models.V1SecretEnvSource;
+import io.kubernetes.client.openapi.models.V1SecretKeySelector;
+import io.kubernetes.client.openapi.models.V1SecretProjection;
+import io.kubernetes.client.openapi.models.V1SecretVolumeSource;
+import io.kubernetes.client.openapi.models.V1Volume;
+import io.kubernetes.client.openapi.models.V1VolumeProjection;
+
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Optional;
+import java.util.Set;
+
+/**
+ * The secrets and config maps referenced by a pod template, through volumes, projected volumes, envFrom and env
+ * values, of containers and init containers.
+ * <p>
+ * References are keyed by kind, namespace and name, so that they can index the deployments referencing a watched
+ * resource.
+ */
+public class PodTemplateReferences {
+
+    public static String getReferenceKey(WatchedResourceKind resourceKind, String namespace, String name) {
+        return resourceKind.getStringValue() + "/" + namespace + "/" + name;
+    }
+
+    public static List<String> getReferenceKeys(V1Deployment deployment) {
+        String namespace = deployment.getMetadata().getNamespace();
+        V1PodSpec podSpec = Optional.ofNullable(deployment.getSpec())
+                .map(V1DeploymentSpec::getTemplate)
+                .map(V1PodTemplateSpec::getSpec)
+                .orElse(null);
+        if (podSpec == null) {
+            return List.of();
+        }
+        Set<String> referenceKeys = new LinkedHashSet<>();
+        for (V1Volume volume : Optional.ofNullable(podSpec.getVolumes()).orElse(List.of())) {
+            addVolumeReferences(referenceKeys, namespace, volume);
+        }
+        List<V1Container> containers = new ArrayList<>(Optional.ofNullable(podSpec.getContainers()).orElse(List.of()));
+        containers.addAll(Optional.ofNullable(podSpec.getInitContainers()).orElse(List.of()));
+        for (V1Container container : containers) {
+            addContainerReferences(referenceKeys, namespace, container);
+        }
+        return new ArrayList<>(referenceKeys);
+    }
+
+    private static void addVolumeReferences(Set<String> referenceKeys, String namespace, V1Volume volume) {
+        Optional.ofNullable(volume.getSecret())
+                .map(V1SecretVolumeSource::getSecretName)
+                .ifPresent(name -> referenceKeys.add(getReferenceKey(WatchedResourceKind.SECRET, namespace, name)));
+        Optional.ofNullable(volume.getConfigMap())
+                .map(V1ConfigMapVolumeSource::getName)
+                .ifPresent(name -> referenceKeys.add(getReferenceKey(WatchedResourceKind.CONFIGMAP, namespace, name)));
+        List<V1VolumeProjection> projections = Optional.ofNullable(volume.getProjected())
+                .map(V1ProjectedVolumeSource::getSources)
+                .orElse(List.of());
+        for (V1VolumeProjection projection : projections) {
+            Optional.ofNullable(projection.getSecret())
+                    .map(V1SecretProjection::getName)
+                    .ifPresent(name -> referenceKeys.add(getReferenceKey(WatchedResourceKind.SECRET, namespace, name)));
+            Optional.ofNullable(projection.getConfigMap())
+                    .map(V1ConfigMapProjection::getName)
+                    .ifPresent(name -> referenceKeys.add(getReferenceKey(WatchedResourceKind.CONFIGMAP, namespace, name)));
+        }
+    }
+
+    private static void addContainerReferences(Set<String> referenceKeys, String namespace, V1Container container) {
+        for (V1EnvFromSource envFromSource : Optional.ofNullable(container.getEnvFrom()).orElse(List.of())) {
+            Optional.ofNullable(envFromSource.getSecretRef())
+                    .map(V1SecretEnvSource::getName)
+                    .ifPresent(name -> referenceKeys.add(getReferenceKey(WatchedResourceKind.SECRET, namespace, name)));
+            Optional.ofNullable(envFromSource.getConfigMapRef())
+                    .map(V1ConfigMapEnvSource::getName)
+                    .ifPresent(name -> referenceKeys.add(getReferenceKey(WatchedResourceKind.CONFIGMAP, namespace, name)));
+        }
+        for (V1EnvVar envVar : Optional.ofNullable(container.getEnv()).orElse(List.of())) {
+            V1EnvVarSource valueFrom = envVar.getValueFrom();
+            if (valueFrom == null) {
+                continue;
+            }
+            Optional.ofNullable(valueFrom.getSecretKeyRef())
+                    .map(V1SecretKeySelector::getName)
+                    .ifPresent(name -> referenceKeys.add(getReferenceKey(WatchedResourceKind.SECRET, namespace, name)));
+            Optional.ofNullable(valueFrom.getConfigMapKeyRef())
+                    .map(V1ConfigMapKeySelector::getName)
+                    .ifPresent(name -> referenceKeys.add(getReferenceKey(WatchedResourceKind.CONFIGMAP, namespace, name)));
+        }
+    }
+}
@@ -0,0 +1,78 @@
+package com.charlyghislain.resourcewatcher;
+
+import io.kubernetes.client.common.KubernetesListObject;
+import io.kubernetes.client.common.KubernetesObject;
+import io.kubernetes.client.informer.ListerWatcher;
+import io.kubernetes.client.openapi.ApiException;
+import io.kubernetes.client.util.CallGeneratorParams;
+import io.kubernetes.client.util.Watch;
+import io.kubernetes.client.util.Watchable;
+
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.List;
+import java.util.function.UnaryOperator;
+
+/**
+ * Replaces listed and watched objects by their projection before they reach the informer cache.
+ */
+public class ProjectingListerWatcher<T extends KubernetesObject, L extends KubernetesListObject> implements ListerWatcher<T, L> {
+
+    private final ListerWatcher<T, L> delegate;
+    private final UnaryOperator<T> projection;
+
+    public ProjectingListerWatcher(ListerWatcher<T, L> delegate, UnaryOperator<T> projection) {
+        this.delegate = delegate;
+        this.projection = projection;
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public L list(CallGeneratorParams params) throws ApiException {
+        L list = delegate.list(params);
+        List<T> items = (List<T>) list.getItems();
+        if (items != null) {
+            items.replaceAll(projection);
+        }
+        return list;
+    }
+
+    @Override
+    public Watchable<T> watch(CallGeneratorParams params) throws ApiException {
+        Watchable<T> watchable = delegate.watch(params);
+        return new ProjectingWatch(watchable);
+    }
+
+    private class ProjectingWatch implements Watchable<T> {
+
+        private final Watchable<T> delegateWatch;
+
+        private ProjectingWatch(Watchable<T> delegateWatch) {
+            this.delegateWatch = delegateWatch;
+        }
+
+        @Override
+        public boolean hasNext() {
+            return delegateWatch.hasNext();
+        }
+
+        @Override
+        public Watch.Response<T> next() {
+            Watch.Response<T> response = delegateWatch.next();
+            if (response.object != null) {
+                response.object = projection.apply(response.object);
+            }
+            return response;
+        }
+
+        @Override
+        public Iterator<Watch.Response<T>> iterator() {
+            return this;
+        }
+
+        @Override
+        public void close() throws IOException {
+            delegateWatch.close();
+        }
+    }
+}
@@ -0,0 +1,120 @@
+package com.charlyghislain.resourcewatcher;
+
+import com.google.gson.reflect.TypeToken;
+import io.kubernetes.client.common.KubernetesListObject;
+import io.kubernetes.client.common.KubernetesObject;
+import io.kubernetes.client.informer.ListerWatcher;
+import io.kubernetes.client.openapi.ApiClient;
+import io.kubernetes.client.openapi.ApiException;
+import io.kubernetes.client.util.CallGenerator;
+import io.kubernetes.client.util.CallGeneratorParams;
+import io.kubernetes.client.util.Watch;
+import io.kubernetes.client.util.Watchable;
+import okhttp3.Call;
+import okhttp3.Request;
+import okhttp3.Response;
+import okhttp3.ResponseBody;
+
+import java.io.IOException;
+import java.lang.reflect.Type;
+
+/**
+ * Lists and watches resources using the protobuf wire format.
+ * <p>
+ * Requests accept both protobuf and json. Once the server answers with json, for kinds it cannot serve as protobuf,
+ * this lister watcher keeps using json.
+ */
+public class ProtobufListerWatcher<T extends KubernetesObject, L extends KubernetesListObject> implements ListerWatcher<T, L> {
+
+    private static final String ACCEPT_HEADER = ProtobufResourceCodec.MEDIA_TYPE + ", application/json";
+
+    private final ApiClient apiClient;
+    private final CallGenerator callGenerator;
+    private final Type watchType;
+    private final JsonListerWatcher<T, L> jsonListerWatcher;
+    private final ProtobufResourceCodec<T, L> codec;
+    private volatile boolean jsonFallback;
+
+    public ProtobufListerWatcher(ApiClient apiClient, CallGenerator callGenerator, Class<T> apiTypeClass, Class<L> apiListTypeClass,
+                                 ProtobufResourceCodec<T, L> codec) {
+        this.apiClient = apiClient;
+        this.callGenerator = callGenerator;
+        this.watchType = TypeToken.getParameterized(Watch.Response.class, apiTypeClass).getType();
+        this.codec = codec;
+        this.jsonListerWatcher = new JsonListerWatcher<>(apiClient, callGenerator, apiTypeClass, apiListTypeClass);
+    }
+
+    @Override
+    public L list(CallGeneratorParams params) throws ApiException {
+        if (jsonFallback) {
+            return jsonListerWatcher.list(params);
+        }
+        Call call = callGenerator.generate(params);
+        try (Response response = executeAcceptingProtobuf(call)) {
+            ResponseBody responseBody = response.body();
+            if (responseBody == null) {
+                throw new ApiException(response.message(), response.code(), response.headers().toMultimap(), null);
+            }
+            if (!ProtobufResourceCodec.isProtobufContentType(response.header("Content-Type"))) {
+                enableJsonFallback(call);
+                return apiClient.getJSON().deserialize(responseBody.string(), jsonListerWatcher.getApiListTypeClass());
+            }
+            return codec.decodeList(responseBody.bytes());
+        } catch (IOException e) {
+            throw new ApiException(e);
+        }
+    }
+
+    @Override
+    public Watchable<T> watch(CallGeneratorParams params) throws ApiException {
+        if (jsonFallback) {
+            return jsonListerWatcher.watch(params);
+        }
+        Call call = callGenerator.generate(params);
+        Call protobufCall = apiClient.getHttpClient().newCall(createProtobufRequest(call));
+        Response response = executeChecked(protobufCall);
+        if (!ProtobufResourceCodec.isProtobufContentType(response.header("Content-Type"))) {
+            enableJsonFallback(call);
+            return new Watch<>(apiClient.getJSON(), response.body(), watchType, protobufCall) {
+            };
+        }
+        return new ProtobufWatch<>(response.body(), protobufCall, codec);
+    }
+
+    private void enableJsonFallback(Call call) {
+        jsonFallback = true;
+        ResourceWatcherLog.warning("Protobuf is not served for {0}, falling back to json", call.request().url().encodedPath());
+    }
+
+    private Response executeAcceptingProtobuf(Call call) throws ApiException {
+        Call protobufCall = apiClient.getHttpClient().newCall(createProtobufRequest(call));
+        return executeChecked(protobufCall);
+    }
+
+    private static Request createProtobufRequest(Call call) {
+        return call.request().newBuilder()
+                .header("Accept", ACCEPT_HEADER)
+                .build();
+    }
+
+    private static Response executeChecked(Call call) throws ApiException {
+        Response response;
+        try {
+            response = call.execute();
+        } catch (IOException e) {
+            throw new ApiException(e);
+        }
+        if (!response.isSuccessful()) {
+            String responseBody = null;
+            try (ResponseBody body = response.body()) {
+                if (body != null && !ProtobufResourceCodec.isProtobufContentType(response.header("Content-Type"))) {
+                    responseBody = body.string();
+                }
+            } catch (IOException e) {
+                ResourceWatcherLog.fine("Unable to read error response: {0}", e.getMessage());
+            }
+            throw new ApiException(response.message(), response.code(), response.headers().toMultimap(), responseBody);
+        }
+        return response;
+    }
+}
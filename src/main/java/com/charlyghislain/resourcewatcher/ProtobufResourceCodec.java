@@ -0,0 +1,343 @@
+package com.charlyghislain.resourcewatcher;
+
+import com.google.protobuf.ByteString;
+import com.google.protobuf.CodedInputStream;
+import com.google.protobuf.InvalidProtocolBufferException;
+import io.kubernetes.client.common.KubernetesListObject;
+import io.kubernetes.client.common.KubernetesObject;
+import io.kubernetes.client.openapi.models.V1ConfigMap;
+import io.kubernetes.client.openapi.models.V1ConfigMapEnvSource;
+import io.kubernetes.client.openapi.models.V1ConfigMapKeySelector;
+import io.kubernetes.client.openapi.models.V1ConfigMapList;
+import io.kubernetes.client.openapi.models.V1ConfigMapProjection;
+import io.kubernetes.client.openapi.models.V1ConfigMapVolumeSource;
+import io.kubernetes.client.openapi.models.V1Container;
+import io.kubernetes.client.openapi.models.V1ContainerStatus;
+import io.kubernetes.client.openapi.models.V1Deployment;
+import io.kubernetes.client.openapi.models.V1DeploymentList;
+import io.kubernetes.client.openapi.models.V1DeploymentSpec;
+import io.kubernetes.client.openapi.models.V1DeploymentStatus;
+import io.kubernetes.client.openapi.models.V1EnvFromSource;
+import io.kubernetes.client.openapi.models.V1EnvVar;
+import io.kubernetes.client.openapi.models.V1EnvVarSource;
+import io.kubernetes.client.openapi.models.V1ListMeta;
+import io.kubernetes.client.openapi.models.V1ObjectMeta;
+import io.kubernetes.client.openapi.models.V1Pod;
+import io.kubernetes.client.openapi.models.V1PodList;
+import io.kubernetes.client.openapi.models.V1PodSpec;
+import io.kubernetes.client.openapi.models.V1PodStatus;
+import io.kubernetes.client.openapi.models.V1PodTemplateSpec;
+import io.kubernetes.client.openapi.models.V1ProjectedVolumeSource;
+import io.kubernetes.client.openapi.models.V1Secret;
+import io.kubernetes.client.openapi.models.V1SecretEnvSource;
+import io.kubernetes.client.openapi.models.V1SecretKeySelector;
+import io.kubernetes.client.openapi.models.V1SecretList;
+import io.kubernetes.client.openapi.models.V1SecretProjection;
+import io.kubernetes.client.openapi.models.V1SecretVolumeSource;
+import io.kubernetes.client.openapi.models.V1Status;
+import io.kubernetes.client.openapi.models.V1Volume;
+import io.kubernetes.client.openapi.models.V1VolumeProjection;
+import io.kubernetes.client.proto.Meta;
+import io.kubernetes.client.proto.Runtime;
+import io.kubernetes.client.proto.V1;
+import io.kubernetes.client.proto.V1Apps;
+
+import java.io.IOException;
+import java.time.Instant;
+import java.time.OffsetDateTime;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Function;
+
+/**
+ * Decodes kubernetes protobuf payloads into the api models cached by the informers.
+ * <p>
+ * Only the fields read by the resource watcher are decoded: metadata, the content of secrets and config maps, the pod
+ * fields supported by field selectors or hashed in digests, and the deployment pod template metadata, its references to
+ * secrets and config maps, and the deployment status.
+ */
+public class ProtobufResourceCodec<T extends KubernetesObject, L extends KubernetesListObject> {
+
+    public static final String MEDIA_TYPE = "application/vnd.kubernetes.protobuf";
+
+    public static final ProtobufResourceCodec<V1Secret, V1SecretList> SECRET = new ProtobufResourceCodec<>(
+            raw -> toSecret(V1.Secret.parseFrom(raw)),
+            raw -> {
+                V1.SecretList secretList = V1.SecretList.parseFrom(raw);
+                return new V1SecretList()
+                        .metadata(toListMeta(secretList.getMetadata()))
+                        .items(toList(secretList.getItemsList(), ProtobufResourceCodec::toSecret));
+            });
+    public static final ProtobufResourceCodec<V1ConfigMap, V1ConfigMapList> CONFIGMAP = new ProtobufResourceCodec<>(
+            raw -> toConfigMap(V1.ConfigMap.parseFrom(raw)),
+            raw -> {
+                V1.ConfigMapList configMapList = V1.ConfigMapList.parseFrom(raw);
+                return new V1ConfigMapList()
+                        .metadata(toListMeta(configMapList.getMetadata()))
+                        .items(toList(configMapList.getItemsList(), ProtobufResourceCodec::toConfigMap));
+            });
+    public static final ProtobufResourceCodec<V1Pod, V1PodList> POD = new ProtobufResourceCodec<>(
+            raw -> toPod(V1.Pod.parseFrom(raw)),
+            raw -> {
+                V1.PodList podList = V1.PodList.parseFrom(raw);
+                return new V1PodList()
+                        .metadata(toListMeta(podList.getMetadata()))
+                        .items(toList(podList.getItemsList(), ProtobufResourceCodec::toPod));
+            });
+    public static final ProtobufResourceCodec<V1Deployment, V1DeploymentList> DEPLOYMENT = new ProtobufResourceCodec<>(
+            raw -> toDeployment(V1Apps.Deployment.parseFrom(raw)),
+            raw -> {
+                V1Apps.DeploymentList deploymentList = V1Apps.DeploymentList.parseFrom(raw);
+                return new V1DeploymentList()
+                        .metadata(toListMeta(deploymentList.getMetadata()))
+                        .items(toList(deploymentList.getItemsList(), ProtobufResourceCodec::toDeployment));
+            });
+
+    // Protobuf payloads are prefixed by 'k8s' and a null byte, followed by a runtime.Unknown envelope
+    private static final byte[] ENVELOPE_MAGIC = {0x6b, 0x38, 0x73, 0x00};
+
+    @FunctionalInterface
+    private interface Decoder<R> {
+        R decode(ByteString raw) throws InvalidProtocolBufferException;
+    }
+
+    private final Decoder<T> objectDecoder;
+    private final Decoder<L> listDecoder;
+
+    private ProtobufResourceCodec(Decoder<T> objectDecoder, Decoder<L> listDecoder) {
+        this.objectDecoder = objectDecoder;
+        this.listDecoder = listDecoder;
+    }
+
+    public static boolean isProtobufContentType(String contentType) {
+        return contentType != null && contentType.startsWith(MEDIA_TYPE);
+    }
+
+    /**
+     * Decodes an object from a payload wrapped in the protobuf envelope.
+     */
+    public T decodeObject(byte[] payload) throws IOException {
+        return objectDecoder.decode(unwrapEnvelope(payload));
+    }
+
+    /**
+     * Decodes a list from a payload wrapped in the protobuf envelope.
+     */
+    public L decodeList(byte[] payload) throws IOException {
+        return listDecoder.decode(unwrapEnvelope(payload));
+    }
+
+    public static V1Status decodeStatus(byte[] payload) throws IOException {
+        Meta.Status status = Meta.Status.parseFrom(unwrapEnvelope(payload));
+        return new V1Status()
+                .status(status.hasStatus() ? status.getStatus() : null)
+                .message(status.hasMessage() ? status.getMessage() : null)
+                .reason(status.hasReason() ? status.getReason() : null)
+                .code(status.hasCode() ? status.getCode() : null);
+    }
+
+    static ByteString unwrapEnvelope(byte[] payload) throws IOException {
+        if (payload.length < ENVELOPE_MAGIC.length) {
+            throw new InvalidProtocolBufferException("Truncated protobuf payload");
+        }
+        for (int i = 0; i < ENVELOPE_MAGIC.length; i++) {
+            if (payload[i] != ENVELOPE_MAGIC[i]) {
+                throw new InvalidProtocolBufferException("Missing protobuf envelope prefix");
+            }
+        }
+        CodedInputStream envelopeInput = CodedInputStream.newInstance(payload, ENVELOPE_MAGIC.length, payload.length - ENVELOPE_MAGIC.length);
+        Runtime.Unknown envelope = Runtime.Unknown.parseFrom(envelopeInput);
+        return envelope.getRaw();
+    }
+
+    private static V1Secret toSecret(V1.Secret secret) {
+        Map<String, byte[]> data = new HashMap<>();
+        secret.getDataMap().forEach((key, value) -> data.put(key, value.toByteArray()));
+        return new V1Secret()
+                .apiVersion("v1")
+                .kind("Secret")
+                .metadata(toObjectMeta(secret.getMetadata()))
+                .type(secret.hasType() ? secret.getType() : null)
+                .data(data);
+    }
+
+    private static V1ConfigMap toConfigMap(V1.ConfigMap configMap) {
+        Map<String, byte[]> binaryData = new HashMap<>();
+        configMap.getBinaryDataMap().forEach((key, value) -> binaryData.put(key, value.toByteArray()));
+        return new V1ConfigMap()
+                .apiVersion("v1")
+                .kind("ConfigMap")
+                .metadata(toObjectMeta(configMap.getMetadata()))
+                .data(new HashMap<>(configMap.getDataMap()))
+                .binaryData(binaryData);
+    }
+
+    private static V1Pod toPod(V1.Pod pod) {
+        V1.PodSpec spec = pod.getSpec();
+        V1.PodStatus status = pod.getStatus();
+        return new V1Pod()
+                .apiVersion("v1")
+                .kind("Pod")
+                .metadata(toObjectMeta(pod.getMetadata()))
+                .spec(new V1PodSpec()
+                        .nodeName(spec.hasNodeName() ? spec.getNodeName() : null)
+                        .restartPolicy(spec.hasRestartPolicy() ? spec.getRestartPolicy() : null)
+                        .schedulerName(spec.hasSchedulerName() ? spec.getSchedulerName() : null)
+                        .serviceAccountName(spec.hasServiceAccountName() ? spec.getServiceAccountName() : null))
+                .status(new V1PodStatus()
+                        .phase(status.hasPhase() ? status.getPhase() : null)
+                        .podIP(status.hasPodIP() ? status.getPodIP() : null)
+                        .nominatedNodeName(status.hasNominatedNodeName() ? status.getNominatedNodeName() : null)
+                        .containerStatuses(toList(status.getContainerStatusesList(), ProtobufResourceCodec::toContainerStatus)));
+    }
+
+    private static V1ContainerStatus toContainerStatus(V1.ContainerStatus containerStatus) {
+        return new V1ContainerStatus()
+                .name(containerStatus.getName())
+                .imageID(containerStatus.getImageID())
+                .ready(containerStatus.getReady())
+                .restartCount(containerStatus.getRestartCount());
+    }
+
+    private static V1Deployment toDeployment(V1Apps.Deployment deployment) {
+        V1Apps.DeploymentSpec spec = deployment.getSpec();
+        V1Apps.DeploymentStatus status = deployment.getStatus();
+        return new V1Deployment()
+                .apiVersion("apps/v1")
+                .kind("Deployment")
+                .metadata(toObjectMeta(deployment.getMetadata()))
+                .spec(new V1DeploymentSpec()
+                        .replicas(spec.hasReplicas() ? spec.getReplicas() : null)
+                        .template(new V1PodTemplateSpec()
+                                .metadata(toObjectMeta(spec.getTemplate().getMetadata()))
+                                .spec(toPodSpecReferences(spec.getTemplate().getSpec()))))
+                .status(new V1DeploymentStatus()
+                        .observedGeneration(status.hasObservedGeneration() ? status.getObservedGeneration() : null)
+                        .replicas(status.hasReplicas() ? status.getReplicas() : null)
+                        .updatedReplicas(status.hasUpdatedReplicas() ? status.getUpdatedReplicas() : null)
+                        .readyReplicas(status.hasReadyReplicas() ? status.getReadyReplicas() : null)
+                        .availableReplicas(status.hasAvailableReplicas() ? status.getAvailableReplicas() : null)
+                        .unavailableReplicas(status.hasUnavailableReplicas() ? status.getUnavailableReplicas() : null));
+    }
+
+    /**
+     * The volumes and containers of a pod spec, with their secret and config map references only.
+     */
+    private static V1PodSpec toPodSpecReferences(V1.PodSpec podSpec) {
+        return new V1PodSpec()
+                .volumes(toList(podSpec.getVolumesList(), ProtobufResourceCodec::toVolumeReferences))
+                .containers(toList(podSpec.getContainersList(), ProtobufResourceCodec::toContainerReferences))
+                .initContainers(toList(podSpec.getInitContainersList(), ProtobufResourceCodec::toContainerReferences));
+    }
+
+    private static V1Volume toVolumeReferences(V1.Volume volume) {
+        V1Volume volumeReferences = new V1Volume()
+                .name(volume.getName());
+        V1.VolumeSource volumeSource = volume.getVolumeSource();
+        if (volumeSource.hasSecret()) {
+            volumeReferences.secret(new V1SecretVolumeSource()
+                    .secretName(volumeSource.getSecret().hasSecretName() ? volumeSource.getSecret().getSecretName() : null));
+        }
+        if (volumeSource.hasConfigMap()) {
+            volumeReferences.configMap(new V1ConfigMapVolumeSource()
+                    .name(toReferenceName(volumeSource.getConfigMap().getLocalObjectReference())));
+        }
+        if (volumeSource.hasProjected()) {
+            volumeReferences.projected(new V1ProjectedVolumeSource()
+                    .sources(toList(volumeSource.getProjected().getSourcesList(), ProtobufResourceCodec::toProjectionReferences)));
+        }
+        return volumeReferences;
+    }
+
+    private static V1VolumeProjection toProjectionReferences(V1.VolumeProjection projection) {
+        V1VolumeProjection projectionReferences = new V1VolumeProjection();
+        if (projection.hasSecret()) {
+            projectionReferences.secret(new V1SecretProjection()
+                    .name(toReferenceName(projection.getSecret().getLocalObjectReference())));
+        }
+        if (projection.hasConfigMap()) {
+            projectionReferences.configMap(new V1ConfigMapProjection()
+                    .name(toReferenceName(projection.getConfigMap().getLocalObjectReference())));
+        }
+        return projectionReferences;
+    }
+
+    private static V1Container toContainerReferences(V1.Container container) {
+        List<V1EnvVar> envReferences = new ArrayList<>();
+        for (V1.EnvVar envVar : container.getEnvList()) {
+            if (!envVar.hasValueFrom()) {
+                continue;
+            }
+            V1.EnvVarSource valueFrom = envVar.getValueFrom();
+            V1EnvVarSource valueFromReferences = new V1EnvVarSource();
+            if (valueFrom.hasSecretKeyRef()) {
+                valueFromReferences.secretKeyRef(new V1SecretKeySelector()
+                        .name(toReferenceName(valueFrom.getSecretKeyRef().getLocalObjectReference()))
+                        .key(valueFrom.getSecretKeyRef().getKey()));
+            }
+            if (valueFrom.hasConfigMapKeyRef()) {
+                valueFromReferences.configMapKeyRef(new V1ConfigMapKeySelector()
+                        .name(toReferenceName(valueFrom.getConfigMapKeyRef().getLocalObjectReference()))
+                        .key(valueFrom.getConfigMapKeyRef().getKey()));
+            }
+            envReferences.add(new V1EnvVar()
+                    .name(envVar.getName())
+                    .valueFrom(valueFromReferences));
+        }
+        return new V1Container()
+                .name(container.getName())
+                .envFrom(toList(container.getEnvFromList(), ProtobufResourceCodec::toEnvFromReferences))
+                .env(envReferences);
+    }
+
+    private static V1EnvFromSource toEnvFromReferences(V1.EnvFromSource envFromSource) {
+        V1EnvFromSource envFromReferences = new V1EnvFromSource();
+        if (envFromSource.hasSecretRef()) {
+            envFromReferences.secretRef(new V1SecretEnvSource()
+                    .name(toReferenceName(envFromSource.getSecretRef().getLocalObjectReference())));
+        }
+        if (envFromSource.hasConfigMapRef()) {
+            envFromReferences.configMapRef(new V1ConfigMapEnvSource()
+                    .name(toReferenceName(envFromSource.getConfigMapRef().getLocalObjectReference())));
+        }
+        return envFromReferences;
+    }
+
+    private static String toReferenceName(V1.LocalObjectReference localObjectReference) {
+        return localObjectReference.hasName() ? localObjectReference.getName() : null;
+    }
+
+    private static V1ObjectMeta toObjectMeta(Meta.ObjectMeta objectMeta) {
+        return new V1ObjectMeta()
+                .name(objectMeta.hasName() ? objectMeta.getName() : null)
+                .namespace(objectMeta.hasNamespace() ? objectMeta.getNamespace() : null)
+                .uid(objectMeta.hasUid() ? objectMeta.getUid() : null)
+                .resourceVersion(objectMeta.hasResourceVersion() ? objectMeta.getResourceVersion() : null)
+                .generation(objectMeta.hasGeneration() ? objectMeta.getGeneration() : null)
+                .creationTimestamp(objectMeta.hasCreationTimestamp() ? toDateTime(objectMeta.getCreationTimestamp()) : null)
+                .deletionTimestamp(objectMeta.hasDeletionTimestamp() ? toDateTime(objectMeta.getDeletionTimestamp()) : null)
+                .labels(objectMeta.getLabelsCount() == 0 ? null : new HashMap<>(objectMeta.getLabelsMap()))
+                .annotations(objectMeta.getAnnotationsCount() == 0 ? null : new HashMap<>(objectMeta.getAnnotationsMap()));
+    }
+
+    private static V1ListMeta toListMeta(Meta.ListMeta listMeta) {
+        return new V1ListMeta()
+                .resourceVersion(listMeta.hasResourceVersion() ? listMeta.getResourceVersion() : null)
+                ._continue(listMeta.hasContinue() ? listMeta.getContinue() : null);
+    }
+
+    private static OffsetDateTime toDateTime(Meta.Time time) {
+        return OffsetDateTime.ofInstant(Instant.ofEpochSecond(time.getSeconds(), time.getNanos()), ZoneOffset.UTC);
+    }
+
+    private static <P, M> List<M> toList(List<P> protoList, Function<P, M> converter) {
+        List<M> modelList = new ArrayList<>(protoList.size());
+        for (P protoItem : protoList) {
+            modelList.add(converter.apply(protoItem));
+        }
+        return modelList;
+    }
+}
@@ -0,0 +1,72 @@
+package com.charlyghislain.resourcewatcher;
+
+import io.kubernetes.client.common.KubernetesObject;
+import io.kubernetes.client.proto.Meta;
+import io.kubernetes.client.util.Watch;
+import io.kubernetes.client.util.Watchable;
+import okhttp3.Call;
+import okhttp3.ResponseBody;
+import okio.BufferedSource;
+
+import java.io.IOException;
+import java.util.Iterator;
+
+/**
+ * A watch stream using the protobuf wire format: each event is a length-prefixed WatchEvent frame.
+ */
+public class ProtobufWatch<T extends KubernetesObject> implements Watchable<T> {
+
+    private static final String ERROR_EVENT_TYPE = "ERROR";
+
+    private final ResponseBody response;
+    private final Call call;
+    private final ProtobufResourceCodec<T, ?> codec;
+
+    public ProtobufWatch(ResponseBody response, Call call, ProtobufResourceCodec<T, ?> codec) {
+        this.response = response;
+        this.call = call;
+        this.codec = codec;
+    }
+
+    @Override
+    public boolean hasNext() {
+        try {
+            return !response.source().exhausted();
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    @Override
+    public Watch.Response<T> next() {
+        try {
+            BufferedSource source = response.source();
+            int frameLength = source.readInt();
+            Meta.WatchEvent watchEvent = Meta.WatchEvent.parseFrom(source.readByteArray(frameLength));
+            String eventType = watchEvent.getType();
+            byte[] objectPayload = watchEvent.getObject().getRaw().toByteArray();
+            if (ERROR_EVENT_TYPE.equals(eventType)) {
+                return new Watch.Response<>(eventType, ProtobufResourceCodec.decodeStatus(objectPayload));
+            }
+            return new Watch.Response<>(eventType, codec.decodeObject(objectPayload));
+        } catch (IOException e) {
+            throw new RuntimeException("IO Exception during next method.", e);
+        }
+    }
+
+    @Override
+    public Iterator<Watch.Response<T>> iterator() {
+        return this;
+    }
+
+    @Override
+    public void remove() {
+        throw new UnsupportedOperationException("remove");
+    }
+
+    @Override
+    public void close() throws IOException {
+        call.cancel();
+        response.close();
+    }
+}
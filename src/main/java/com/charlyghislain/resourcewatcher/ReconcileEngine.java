@@ -0,0 +1,313 @@
+package com.charlyghislain.resourcewatcher;
+
+import com.charlyghislain.resourcewatcher.config.WorkQueueFairness;
+import io.kubernetes.client.common.KubernetesObject;
+import io.kubernetes.client.extended.controller.Controller;
+import io.kubernetes.client.extended.controller.reconciler.Reconciler;
+import io.kubernetes.client.extended.controller.reconciler.Request;
+import io.kubernetes.client.extended.controller.reconciler.Result;
+import io.kubernetes.client.extended.workqueue.RateLimitingQueue;
+import io.kubernetes.client.extended.workqueue.ratelimiter.ItemExponentialFailureRateLimiter;
+
+import java.lang.reflect.Method;
+import java.time.Duration;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+/**
+ * Runs the reconcilers of all controllers on a shared, bounded execution model.
+ * <p>
+ * All controllers feed a single rate limiting work queue, whose delayed entries are handled by a single timer
+ * thread. The queue serves its tenants, namespaces or watched resources, in turn. A fixed number of workers,
+ * optionally virtual threads, consume the queue and dispatch each request to the reconciler of its controller. The
+ * thread count does not depend on the number of watched resources.
+ */
+public class ReconcileEngine implements Controller {
+
+    private static final Duration READY_CHECK_INTERVAL = Duration.ofSeconds(1);
+
+    private final RateLimitingQueue<ReconcileTask> workQueue;
+    private final int workerCount;
+    private final boolean virtualThreadWorkers;
+    private final Map<String, ControllerRegistration> registrations = new ConcurrentHashMap<>();
+    private final AtomicBoolean firstReconcileCompleted = new AtomicBoolean();
+    private volatile Runnable firstReconcileListener = () -> {
+    };
+    private ExecutorService workerPool;
+
+    /**
+     * Requests requeued without delay are retried after an exponential backoff, per request, between these delays.
+     * Tenants are served up to their weight of requests per turn.
+     */
+    public ReconcileEngine(int workerCount, boolean virtualThreadWorkers, Duration retryBaseDelay, Duration retryMaxDelay,
+                           WorkQueueFairness fairness, Map<String, Integer> tenantWeights) {
+        this.workerCount = Math.max(1, workerCount);
+        this.virtualThreadWorkers = virtualThreadWorkers;
+        ScheduledExecutorService queueTimerExecutor = Executors.newSingleThreadScheduledExecutor(createThreadFactory("resourcewatcher-queue-timer"));
+        this.workQueue = new FairWorkQueue<>(task -> getTenant(fairness, task), tenantWeights,
+                new ItemExponentialFailureRateLimiter<>(retryBaseDelay, retryMaxDelay), queueTimerExecutor);
+    }
+
+    /**
+     * Registers a controller, returning the queue its event handlers should feed.
+     */
+    public ControllerQueue registerController(String controllerName, Reconciler reconciler, Supplier<Boolean> readyFunc,
+                                                 Function<Request, KubernetesObject> objectLookup, WatchedResourceMetrics metrics) {
+        ControllerRegistration registration = new ControllerRegistration(controllerName, reconciler, readyFunc, objectLookup, metrics);
+        registrations.put(controllerName, registration);
+        return new ControllerWorkQueue(registration);
+    }
+
+    /**
+     * Requeues a request of a controller after its backoff, as when its reconciler requests it. Requests of
+     * unregistered controllers are dropped.
+     */
+    public void requeueRateLimited(String controllerName, Request request) {
+        ControllerRegistration registration = registrations.get(controllerName);
+        if (registration == null) {
+            return;
+        }
+        registration.metrics.recordWorkQueueRetry();
+        workQueue.addRateLimited(new ReconcileTask(registration, request));
+    }
+
+    /**
+     * Runs the listener once the first reconcile completed.
+     */
+    public void onFirstReconcile(Runnable listener) {
+        this.firstReconcileListener = listener;
+    }
+
+    /**
+     * Unregisters a controller. Its requests still queued are dropped once dequeued.
+     */
+    public void unregisterController(String controllerName) {
+        registrations.remove(controllerName);
+    }
+
+    @Override
+    public void run() {
+        CountDownLatch latch;
+        synchronized (this) {
+            if (workerPool != null) {
+                ResourceWatcherLog.warning("Reconcile engine already running");
+                return;
+            }
+            workerPool = Executors.newFixedThreadPool(workerCount, createWorkerThreadFactory());
+            latch = new CountDownLatch(workerCount);
+            for (int i = 0; i < workerCount; i++) {
+                workerPool.submit(() -> {
+                    try {
+                        worker();
+                    } finally {
+                        latch.countDown();
+                    }
+                });
+            }
+        }
+        ResourceWatcherLog.fine("Started {0} reconcile workers for {1} controllers", workerCount, registrations.size());
+        try {
+            latch.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    @Override
+    public void shutdown() {
+        synchronized (this) {
+            if (workerPool == null) {
+                return;
+            }
+            workerPool.shutdownNow();
+            workerPool = null;
+        }
+        ResourceWatcherLog.fine("Stopped reconcile workers");
+    }
+
+    private void worker() {
+        while (!Thread.currentThread().isInterrupted() && !workQueue.isShuttingDown()) {
+            ReconcileTask task;
+            try {
+                task = workQueue.get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+            if (task == null) {
+                return;
+            }
+            try {
+                processTask(task);
+            } finally {
+                workQueue.done(task);
+                ResourceWatcherMetrics.WORK_QUEUE_DEPTH.set(workQueue.length());
+            }
+        }
+    }
+
+    private void processTask(ReconcileTask task) {
+        ControllerRegistration registration = task.registration;
+        if (registrations.get(registration.controllerName) != registration) {
+            workQueue.forget(task);
+            return;
+        }
+        if (!registration.readyFunc.get()) {
+            // Wait for the informer cache to sync
+            workQueue.addAfter(task, READY_CHECK_INTERVAL);
+            return;
+        }
+
+        TriggerTracing.traceDequeue(registration.metrics.getWatchedResourceName(), task.request, registration.objectLookup);
+        Result result;
+        long startNanos = System.nanoTime();
+        try {
+            result = registration.reconciler.reconcile(task.request);
+        } catch (Throwable e) {
+            ResourceWatcherLog.severe(e, "Reconciler of {0} aborted: {1}", registration.controllerName, e.getMessage());
+            result = new Result(true);
+        }
+        registration.metrics.recordReconcileDuration(System.nanoTime() - startNanos);
+        if (firstReconcileCompleted.compareAndSet(false, true)) {
+            long uptimeMillis = ResourceWatcherMetrics.recordFirstReconcile();
+            ResourceWatcherLog.info("First reconcile completed {0}ms after the jvm start", uptimeMillis);
+            firstReconcileListener.run();
+        }
+
+        if (result == null || !result.isRequeue()) {
+            workQueue.forget(task);
+            return;
+        }
+        registration.metrics.recordWorkQueueRetry();
+        if (result.getRequeueAfter() == null) {
+            workQueue.addRateLimited(task);
+        } else {
+            workQueue.addAfter(task, result.getRequeueAfter());
+        }
+    }
+
+    private static String getTenant(WorkQueueFairness fairness, ReconcileTask task) {
+        switch (fairness) {
+            case NAMESPACE:
+                return Optional.ofNullable(task.request.getNamespace()).orElse("");
+            case WATCHED_RESOURCE:
+                return task.registration.metrics.getWatchedResourceName();
+            case NONE:
+            default:
+                return "all";
+        }
+    }
+
+    private ThreadFactory createWorkerThreadFactory() {
+        if (virtualThreadWorkers) {
+            ThreadFactory virtualThreadFactory = createVirtualThreadFactory();
+            if (virtualThreadFactory != null) {
+                return virtualThreadFactory;
+            }
+            ResourceWatcherLog.warning("Virtual threads are not available in this runtime, using platform threads");
+        }
+        return createThreadFactory("resourcewatcher-worker");
+    }
+
+    private static ThreadFactory createVirtualThreadFactory() {
+        // Virtual threads are looked up at runtime, as we still compile against older jdks
+        try {
+            Method ofVirtualMethod = Thread.class.getMethod("ofVirtual");
+            Object threadBuilder = ofVirtualMethod.invoke(null);
+            Method factoryMethod = Class.forName("java.lang.Thread$Builder").getMethod("factory");
+            return (ThreadFactory) factoryMethod.invoke(threadBuilder);
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            return null;
+        }
+    }
+
+    private static ThreadFactory createThreadFactory(String namePrefix) {
+        AtomicInteger threadIndex = new AtomicInteger();
+        return runnable -> {
+            Thread thread = new Thread(runnable, namePrefix + "-" + threadIndex.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+
+    private static class ControllerRegistration {
+        private final String controllerName;
+        private final Reconciler reconciler;
+        private final Supplier<Boolean> readyFunc;
+        // The cached watched resource of a request, for tracing
+        private final Function<Request, KubernetesObject> objectLookup;
+        private final WatchedResourceMetrics metrics;
+
+        private ControllerRegistration(String controllerName, Reconciler reconciler, Supplier<Boolean> readyFunc,
+                                       Function<Request, KubernetesObject> objectLookup, WatchedResourceMetrics metrics) {
+            this.controllerName = controllerName;
+            this.reconciler = reconciler;
+            this.readyFunc = readyFunc;
+            this.objectLookup = objectLookup;
+            this.metrics = metrics;
+        }
+    }
+
+    private static class ReconcileTask {
+        private final ControllerRegistration registration;
+        private final Request request;
+
+        private ReconcileTask(ControllerRegistration registration, Request request) {
+            this.registration = registration;
+            this.request = request;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (o == null || getClass() != o.getClass()) return false;
+            ReconcileTask that = (ReconcileTask) o;
+            return registration == that.registration && request.equals(that.request);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(registration.controllerName, request);
+        }
+    }
+
+    /**
+     * Queue of the requests of a controller. Requests are consumed by the reconcile engine, its event handlers only
+     * add to it.
+     */
+    public interface ControllerQueue {
+
+        void add(Request request);
+    }
+
+    /**
+     * Enqueues the requests of a controller into the shared queue.
+     */
+    private class ControllerWorkQueue implements ControllerQueue {
+
+        private final ControllerRegistration registration;
+
+        private ControllerWorkQueue(ControllerRegistration registration) {
+            this.registration = registration;
+        }
+
+        @Override
+        public void add(Request request) {
+            workQueue.add(new ReconcileTask(registration, request));
+            registration.metrics.recordWorkQueueAdd();
+            TriggerTracing.traceEnqueue(registration.metrics.getWatchedResourceName(), request, registration.objectLookup);
+            ResourceWatcherMetrics.WORK_QUEUE_DEPTH.set(workQueue.length());
+        }
+    }
+}
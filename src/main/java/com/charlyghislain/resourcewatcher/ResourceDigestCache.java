@@ -0,0 +1,69 @@
+package com.charlyghislain.resourcewatcher;
+
+import io.kubernetes.client.common.KubernetesObject;
+import io.kubernetes.client.informer.SharedIndexInformer;
+import io.kubernetes.client.informer.cache.Caches;
+import io.kubernetes.client.openapi.models.V1ObjectMeta;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Keeps the payload digest of the latest version of the resources cached by an informer, one entry per uid.
+ * <p>
+ * Update events compare both versions once in the multiplexing event handler, leaving the digest of the new version
+ * cached for the reconcilers of all controllers sharing the informer.
+ */
+public class ResourceDigestCache<T extends KubernetesObject> {
+
+    private final SharedIndexInformer<T> indexInformer;
+    private final Map<String, DigestEntry> digestEntriesByUid = new ConcurrentHashMap<>();
+
+    public ResourceDigestCache(SharedIndexInformer<T> indexInformer) {
+        this.indexInformer = indexInformer;
+    }
+
+    public String getDigest(KubernetesObject kubernetesObject) {
+        V1ObjectMeta metadata = kubernetesObject.getMetadata();
+        String uid = metadata.getUid();
+        String resourceVersion = metadata.getResourceVersion();
+        DigestEntry digestEntry = uid == null ? null : digestEntriesByUid.get(uid);
+        if (digestEntry != null && digestEntry.resourceVersion.equals(resourceVersion)) {
+            return digestEntry.digest;
+        }
+
+        String digest = ResourceDigests.computeDigest(kubernetesObject);
+        // Do not keep entries for resources that have been removed from the informer cache meanwhile
+        if (uid != null && resourceVersion != null
+                && indexInformer.getIndexer().getByKey(Caches.metaNamespaceKeyFunc(kubernetesObject)) != null) {
+            digestEntriesByUid.put(uid, new DigestEntry(resourceVersion, digest));
+        }
+        return digest;
+    }
+
+    public void evict(KubernetesObject kubernetesObject) {
+        String uid = kubernetesObject.getMetadata().getUid();
+        if (uid != null) {
+            digestEntriesByUid.remove(uid);
+        }
+    }
+
+    /**
+     * Whether the payload digest differs between both versions of a resource.
+     */
+    public boolean hasDigestChanged(KubernetesObject oldObject, KubernetesObject newObject) {
+        String oldDigest = getDigest(oldObject);
+        String newDigest = getDigest(newObject);
+        return !newDigest.equals(oldDigest);
+    }
+
+    private static class DigestEntry {
+        private final String resourceVersion;
+        private final String digest;
+
+        private DigestEntry(String resourceVersion, String digest) {
+            this.resourceVersion = resourceVersion;
+            this.digest = digest;
+        }
+    }
+}
@@ -0,0 +1,164 @@
+package com.charlyghislain.resourcewatcher;
+
+import io.kubernetes.client.common.KubernetesObject;
+import io.kubernetes.client.openapi.models.V1ConfigMap;
+import io.kubernetes.client.openapi.models.V1ContainerStatus;
+import io.kubernetes.client.openapi.models.V1ObjectMeta;
+import io.kubernetes.client.openapi.models.V1Pod;
+import io.kubernetes.client.openapi.models.V1PodSpec;
+import io.kubernetes.client.openapi.models.V1PodStatus;
+import io.kubernetes.client.openapi.models.V1Secret;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.TreeMap;
+
+/**
+ * Computes a digest of the payload of watched resources.
+ * <p>
+ * Only the relevant content is digested: data and binaryData for secrets and config maps, and a few spec and status
+ * fields for pods. Metadata, status and managedFields updates do not change the digest.
+ */
+public class ResourceDigests {
+
+    private static final String DIGEST_ALGORITHM = "SHA-256";
+    private static final char[] HEX_CHARS = "0123456789abcdef".toCharArray();
+
+    public static String computeDigest(KubernetesObject kubernetesObject) {
+        // Projected resources no longer hold their payload, but its digest computed on ingest
+        String projectedDigest = ResourceProjections.getContentDigest(kubernetesObject);
+        if (projectedDigest != null) {
+            return projectedDigest;
+        }
+        MessageDigest messageDigest = createMessageDigest();
+        if (kubernetesObject instanceof V1Secret) {
+            V1Secret secret = (V1Secret) kubernetesObject;
+            updateDigest(messageDigest, secret.getType());
+            updateDigestWithBinaryMap(messageDigest, secret.getData());
+        } else if (kubernetesObject instanceof V1ConfigMap) {
+            V1ConfigMap configMap = (V1ConfigMap) kubernetesObject;
+            updateDigestWithStringMap(messageDigest, configMap.getData());
+            updateDigestWithBinaryMap(messageDigest, configMap.getBinaryData());
+        } else if (kubernetesObject instanceof V1Pod) {
+            V1Pod pod = (V1Pod) kubernetesObject;
+            updateDigestWithPod(messageDigest, pod);
+        } else {
+            updateDigest(messageDigest, kubernetesObject.getMetadata().getResourceVersion());
+        }
+        return toHexString(messageDigest.digest());
+    }
+
+    /**
+     * A digest of the resource version, for secrets and config maps whose payload is not available.
+     */
+    public static String computeResourceVersionDigest(KubernetesObject kubernetesObject) {
+        MessageDigest messageDigest = createMessageDigest();
+        updateDigest(messageDigest, kubernetesObject.getMetadata().getResourceVersion());
+        return toHexString(messageDigest.digest());
+    }
+
+    /**
+     * A digest of the name and labels, for pods whose spec and status are not available. Status updates, which change
+     * the resource version, do not change it.
+     */
+    public static String computePodMetadataDigest(V1Pod pod) {
+        MessageDigest messageDigest = createMessageDigest();
+        V1ObjectMeta metadata = pod.getMetadata();
+        updateDigest(messageDigest, metadata.getNamespace());
+        updateDigest(messageDigest, metadata.getName());
+        updateDigestWithStringMap(messageDigest, metadata.getLabels());
+        return toHexString(messageDigest.digest());
+    }
+
+    /**
+     * A digest of a string, to derive fixed length keys.
+     */
+    public static String computeStringDigest(String value) {
+        MessageDigest messageDigest = createMessageDigest();
+        messageDigest.update(value.getBytes(StandardCharsets.UTF_8));
+        return toHexString(messageDigest.digest());
+    }
+
+    private static void updateDigestWithPod(MessageDigest messageDigest, V1Pod pod) {
+        updateDigestWithStringMap(messageDigest, pod.getMetadata().getLabels());
+        Optional<V1PodSpec> podSpec = Optional.ofNullable(pod.getSpec());
+        updateDigest(messageDigest, podSpec.map(V1PodSpec::getNodeName).orElse(null));
+
+        Optional<V1PodStatus> podStatus = Optional.ofNullable(pod.getStatus());
+        updateDigest(messageDigest, podStatus.map(V1PodStatus::getPhase).orElse(null));
+        updateDigest(messageDigest, podStatus.map(V1PodStatus::getPodIP).orElse(null));
+        List<V1ContainerStatus> containerStatuses = podStatus.map(V1PodStatus::getContainerStatuses).orElse(List.of());
+        for (V1ContainerStatus containerStatus : containerStatuses) {
+            updateDigest(messageDigest, containerStatus.getName());
+            updateDigest(messageDigest, containerStatus.getImageID());
+            updateDigest(messageDigest, String.valueOf(containerStatus.getReady()));
+            updateDigest(messageDigest, String.valueOf(containerStatus.getRestartCount()));
+        }
+    }
+
+    private static void updateDigestWithStringMap(MessageDigest messageDigest, Map<String, String> values) {
+        if (values == null) {
+            updateDigestLength(messageDigest, -1);
+            return;
+        }
+        updateDigestLength(messageDigest, values.size());
+        new TreeMap<>(values).forEach((key, value) -> {
+            updateDigest(messageDigest, key);
+            updateDigest(messageDigest, value);
+        });
+    }
+
+    private static void updateDigestWithBinaryMap(MessageDigest messageDigest, Map<String, byte[]> values) {
+        if (values == null) {
+            updateDigestLength(messageDigest, -1);
+            return;
+        }
+        updateDigestLength(messageDigest, values.size());
+        new TreeMap<>(values).forEach((key, value) -> {
+            updateDigest(messageDigest, key);
+            updateDigest(messageDigest, value);
+        });
+    }
+
+    private static void updateDigest(MessageDigest messageDigest, String value) {
+        updateDigest(messageDigest, value == null ? null : value.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static void updateDigest(MessageDigest messageDigest, byte[] value) {
+        // Length-prefixed, so that distinct entries cannot produce the same byte stream
+        if (value == null) {
+            updateDigestLength(messageDigest, -1);
+            return;
+        }
+        updateDigestLength(messageDigest, value.length);
+        messageDigest.update(value);
+    }
+
+    private static void updateDigestLength(MessageDigest messageDigest, int length) {
+        messageDigest.update((byte) (length >>> 24));
+        messageDigest.update((byte) (length >>> 16));
+        messageDigest.update((byte) (length >>> 8));
+        messageDigest.update((byte) length);
+    }
+
+    private static MessageDigest createMessageDigest() {
+        try {
+            return MessageDigest.getInstance(DIGEST_ALGORITHM);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("Digest algorithm not available: " + DIGEST_ALGORITHM, e);
+        }
+    }
+
+    private static String toHexString(byte[] bytes) {
+        char[] chars = new char[bytes.length * 2];
+        for (int i = 0; i < bytes.length; i++) {
+            chars[i * 2] = HEX_CHARS[(bytes[i] >> 4) & 0xF];
+            chars[i * 2 + 1] = HEX_CHARS[bytes[i] & 0xF];
+        }
+        return new String(chars);
+    }
+}
@@ -0,0 +1,60 @@
+package com.charlyghislain.resourcewatcher;
+
+import io.kubernetes.client.common.KubernetesListObject;
+import io.kubernetes.client.common.KubernetesObject;
+import io.kubernetes.client.informer.ListerWatcher;
+import io.kubernetes.client.informer.SharedIndexInformer;
+import io.kubernetes.client.informer.SharedInformerFactory;
+import io.kubernetes.client.openapi.ApiClient;
+import io.kubernetes.client.util.CallGenerator;
+
+import java.util.function.UnaryOperator;
+
+/**
+ * Creates the informers of the resource watcher, listing and watching either in json or in protobuf.
+ */
+public class ResourceInformerFactory {
+
+    private final SharedInformerFactory informerFactory;
+    private final ApiClient apiClient;
+    private final boolean protobufWireFormat;
+
+    public ResourceInformerFactory(SharedInformerFactory informerFactory, ApiClient apiClient, boolean protobufWireFormat) {
+        this.informerFactory = informerFactory;
+        this.apiClient = apiClient;
+        this.protobufWireFormat = protobufWireFormat;
+    }
+
+    public <T extends KubernetesObject, L extends KubernetesListObject> SharedIndexInformer<T> createInformer(
+            CallGenerator callGenerator, Class<T> apiTypeClass, Class<L> apiListTypeClass, ProtobufResourceCodec<T, L> codec) {
+        return createInformer(callGenerator, apiTypeClass, apiListTypeClass, codec, null);
+    }
+
+    /**
+     * Creates an informer caching the projection of the listed and watched objects.
+     */
+    public <T extends KubernetesObject, L extends KubernetesListObject> SharedIndexInformer<T> createInformer(
+            CallGenerator callGenerator, Class<T> apiTypeClass, Class<L> apiListTypeClass, ProtobufResourceCodec<T, L> codec,
+            UnaryOperator<T> projection) {
+        ListerWatcher<T, L> listerWatcher;
+        if (protobufWireFormat) {
+            listerWatcher = new ProtobufListerWatcher<>(apiClient, callGenerator, apiTypeClass, apiListTypeClass, codec);
+        } else {
+            listerWatcher = new JsonListerWatcher<>(apiClient, callGenerator, apiTypeClass, apiListTypeClass);
+        }
+        if (projection != null) {
+            listerWatcher = new ProjectingListerWatcher<>(listerWatcher, projection);
+        }
+        return informerFactory.sharedIndexInformerFor(listerWatcher, apiTypeClass, 0);
+    }
+
+    /**
+     * Creates an informer caching the projection of the metadata of the listed and watched objects.
+     */
+    public <T extends KubernetesObject, L extends KubernetesListObject> SharedIndexInformer<T> createMetadataInformer(
+            CallGenerator callGenerator, Class<T> apiTypeClass, Class<L> apiListTypeClass, UnaryOperator<T> projection) {
+        ListerWatcher<T, L> listerWatcher = new MetadataListerWatcher<>(apiClient, callGenerator, apiTypeClass, apiListTypeClass);
+        listerWatcher = new ProjectingListerWatcher<>(listerWatcher, projection);
+        return informerFactory.sharedIndexInformerFor(listerWatcher, apiTypeClass, 0);
+    }
+}
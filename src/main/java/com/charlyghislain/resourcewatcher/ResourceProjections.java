@@ -0,0 +1,169 @@
+package com.charlyghislain.resourcewatcher;
+
+import io.kubernetes.client.common.KubernetesObject;
+import io.kubernetes.client.openapi.models.V1ConfigMap;
+import io.kubernetes.client.openapi.models.V1ObjectMeta;
+import io.kubernetes.client.openapi.models.V1Pod;
+import io.kubernetes.client.openapi.models.V1PodSpec;
+import io.kubernetes.client.openapi.models.V1PodStatus;
+import io.kubernetes.client.openapi.models.V1Secret;
+
+/**
+ * Compact projections of the watched resources, kept in the informer caches in place of the full objects.
+ * <p>
+ * Projections keep the metadata used by selectors, the fields supported by field selectors and the payload digest
+ * computed on ingest. Payloads, annotations and managedFields are dropped, so that secret content is not retained in
+ * memory.
+ */
+public class ResourceProjections {
+
+    /**
+     * A projected resource, carrying the digest of the payload it was projected from.
+     */
+    public interface ProjectedResource {
+        String getContentDigest();
+    }
+
+    public static V1Secret projectSecret(V1Secret secret) {
+        if (secret instanceof ProjectedResource) {
+            return secret;
+        }
+        return projectSecret(secret, ResourceDigests.computeDigest(secret));
+    }
+
+    public static V1ConfigMap projectConfigMap(V1ConfigMap configMap) {
+        if (configMap instanceof ProjectedResource) {
+            return configMap;
+        }
+        return projectConfigMap(configMap, ResourceDigests.computeDigest(configMap));
+    }
+
+    public static V1Pod projectPod(V1Pod pod) {
+        if (pod instanceof ProjectedResource) {
+            return pod;
+        }
+        return projectPod(pod, ResourceDigests.computeDigest(pod));
+    }
+
+    /**
+     * Projects a secret received from the metadata api, whose digest only depends on its resource version.
+     */
+    public static V1Secret projectSecretMetadata(V1Secret secret) {
+        return projectSecret(secret, ResourceDigests.computeResourceVersionDigest(secret));
+    }
+
+    public static V1ConfigMap projectConfigMapMetadata(V1ConfigMap configMap) {
+        return projectConfigMap(configMap, ResourceDigests.computeResourceVersionDigest(configMap));
+    }
+
+    /**
+     * Projects a pod received from the metadata api, whose digest only depends on its name and labels.
+     */
+    public static V1Pod projectPodMetadata(V1Pod pod) {
+        return projectPod(pod, ResourceDigests.computePodMetadataDigest(pod));
+    }
+
+    private static V1Secret projectSecret(V1Secret secret, String contentDigest) {
+        ProjectedSecret projectedSecret = new ProjectedSecret(contentDigest);
+        projectedSecret.apiVersion(secret.getApiVersion())
+                .kind(secret.getKind())
+                .metadata(projectMetadata(secret.getMetadata()))
+                .type(secret.getType());
+        return projectedSecret;
+    }
+
+    private static V1ConfigMap projectConfigMap(V1ConfigMap configMap, String contentDigest) {
+        ProjectedConfigMap projectedConfigMap = new ProjectedConfigMap(contentDigest);
+        projectedConfigMap.apiVersion(configMap.getApiVersion())
+                .kind(configMap.getKind())
+                .metadata(projectMetadata(configMap.getMetadata()));
+        return projectedConfigMap;
+    }
+
+    private static V1Pod projectPod(V1Pod pod, String contentDigest) {
+        ProjectedPod projectedPod = new ProjectedPod(contentDigest);
+        projectedPod.apiVersion(pod.getApiVersion())
+                .kind(pod.getKind())
+                .metadata(projectMetadata(pod.getMetadata()));
+        V1PodSpec spec = pod.getSpec();
+        if (spec != null) {
+            projectedPod.spec(new V1PodSpec()
+                    .nodeName(spec.getNodeName())
+                    .restartPolicy(spec.getRestartPolicy())
+                    .schedulerName(spec.getSchedulerName())
+                    .serviceAccountName(spec.getServiceAccountName()));
+        }
+        V1PodStatus status = pod.getStatus();
+        if (status != null) {
+            projectedPod.status(new V1PodStatus()
+                    .phase(status.getPhase())
+                    .podIP(status.getPodIP())
+                    .nominatedNodeName(status.getNominatedNodeName()));
+        }
+        return projectedPod;
+    }
+
+    /**
+     * The digest computed on ingest for projected resources, otherwise null.
+     */
+    public static String getContentDigest(KubernetesObject kubernetesObject) {
+        if (kubernetesObject instanceof ProjectedResource) {
+            return ((ProjectedResource) kubernetesObject).getContentDigest();
+        }
+        return null;
+    }
+
+    private static V1ObjectMeta projectMetadata(V1ObjectMeta metadata) {
+        if (metadata == null) {
+            return null;
+        }
+        return new V1ObjectMeta()
+                .name(metadata.getName())
+                .namespace(metadata.getNamespace())
+                .uid(metadata.getUid())
+                .resourceVersion(metadata.getResourceVersion())
+                .generation(metadata.getGeneration())
+                .creationTimestamp(metadata.getCreationTimestamp())
+                .deletionTimestamp(metadata.getDeletionTimestamp())
+                .labels(metadata.getLabels());
+    }
+
+    private static class ProjectedSecret extends V1Secret implements ProjectedResource {
+        private final String contentDigest;
+
+        private ProjectedSecret(String contentDigest) {
+            this.contentDigest = contentDigest;
+        }
+
+        @Override
+        public String getContentDigest() {
+            return contentDigest;
+        }
+    }
+
+    private static class ProjectedConfigMap extends V1ConfigMap implements ProjectedResource {
+        private final String contentDigest;
+
+        private ProjectedConfigMap(String contentDigest) {
+            this.contentDigest = contentDigest;
+        }
+
+        @Override
+        public String getContentDigest() {
+            return contentDigest;
+        }
+    }
+
+    private static class ProjectedPod extends V1Pod implements ProjectedResource {
+        private final String contentDigest;
+
+        private ProjectedPod(String contentDigest) {
+            this.contentDigest = contentDigest;
+        }
+
+        @Override
+        public String getContentDigest() {
+            return contentDigest;
+        }
+    }
+}
@@ -4,52 +4,44 @@ import com.charlyghislain.resourcewatcher.config.ResourceWatcherConfig;
 import com.charlyghislain.resourcewatcher.config.WatchedResource;
 import com.charlyghislain.resourcewatcher.config.WatchedResourceKind;
 import io.kubernetes.client.common.KubernetesObject;
-import io.kubernetes.client.extended.controller.Controller;
-import io.kubernetes.client.extended.controller.ControllerManager;
-import io.kubernetes.client.extended.controller.DefaultControllerWatch;
-import io.kubernetes.client.extended.controller.LeaderElectingController;
-import io.kubernetes.client.extended.controller.builder.ControllerBuilder;
-import io.kubernetes.client.extended.controller.builder.ControllerManagerBuilder;
-import io.kubernetes.client.extended.controller.reconciler.Request;
 import io.kubernetes.client.extended.event.legacy.EventBroadcaster;
 import io.kubernetes.client.extended.event.legacy.LegacyEventBroadcaster;
 import io.kubernetes.client.extended.leaderelection.LeaderElectionConfig;
 import io.kubernetes.client.extended.leaderelection.LeaderElector;
+import io.kubernetes.client.extended.leaderelection.Lock;
 import io.kubernetes.client.extended.leaderelection.resourcelock.EndpointsLock;
-import io.kubernetes.client.extended.workqueue.DefaultRateLimitingQueue;
-import io.kubernetes.client.extended.workqueue.WorkQueue;
+import io.kubernetes.client.extended.leaderelection.resourcelock.LeaseLock;
+import io.kubernetes.client.informer.ResourceEventHandler;
 import io.kubernetes.client.informer.SharedIndexInformer;
-import io.kubernetes.client.informer.SharedInformer;
 import io.kubernetes.client.informer.SharedInformerFactory;
 import io.kubernetes.client.openapi.ApiClient;
 import io.kubernetes.client.openapi.Configuration;
 import io.kubernetes.client.openapi.apis.AppsV1Api;
+import io.kubernetes.client.openapi.apis.CoordinationV1Api;
 import io.kubernetes.client.openapi.apis.CoreV1Api;
-import io.kubernetes.client.openapi.models.V1ConfigMap;
-import io.kubernetes.client.openapi.models.V1ConfigMapList;
 import io.kubernetes.client.openapi.models.V1EventSource;
-import io.kubernetes.client.openapi.models.V1ObjectMeta;
-import io.kubernetes.client.openapi.models.V1Pod;
-import io.kubernetes.client.openapi.models.V1PodList;
-import io.kubernetes.client.openapi.models.V1Secret;
-import io.kubernetes.client.openapi.models.V1SecretList;
-import io.kubernetes.client.util.CallGeneratorParams;
 import io.kubernetes.client.util.ClientBuilder;
 import io.kubernetes.client.util.Yaml;
+import io.prometheus.client.exporter.HTTPServer;
+import okhttp3.Dispatcher;
 
 import java.io.IOException;
 import java.io.InputStream;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
-import java.text.MessageFormat;
 import java.time.Duration;
-import java.util.ArrayList;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Locale;
 import java.util.Map;
 import java.util.Optional;
-import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.BooleanSupplier;
+import java.util.function.IntFunction;
 import java.util.logging.Level;
 import java.util.logging.LogManager;
 import java.util.logging.Logger;
@@ -59,17 +51,18 @@ public class ResourceWatcher {
 
     public final static Logger LOG = Logger.getLogger(ResourceWatcher.class.getSimpleName());
     public static final String COMPONENT_NAME = "resource-watcher";
+    private static final Duration CACHE_SYNC_CHECK_INTERVAL = Duration.ofMillis(100);
 
     public static void main(String[] args) {
-        LOG.fine("Starting ResourceWatcher");
+        ResourceWatcherLog.fine("Starting ResourceWatcher");
         String configFilePath = Optional.ofNullable(System.getenv("RESOURCE_WATCHER_CONFIG_PATH"))
                 .filter(s -> !s.isBlank())
                 .orElse("/var/run/config/resourcewatcher.yaml");
-        LOG.fine("Config file path: " + configFilePath);
+        ResourceWatcherLog.fine("Config file path: {0}", configFilePath);
 
         Path configPath = Paths.get(configFilePath);
         if (!Files.exists(configPath)) {
-            LOG.severe("No config found at " + configPath);
+            ResourceWatcherLog.severe("No config found at {0}", configPath);
             System.exit(1);
             return;
         }
@@ -78,27 +71,42 @@ public class ResourceWatcher {
         try {
             config = ResourceWatcherConfigFactory.fromYamlFile(configPath);
         } catch (Exception e) {
-            LOG.log(Level.SEVERE, "Config at " + configPath + " cannot be read: " + e.getMessage(), e);
+            ResourceWatcherLog.severe(e, "Config at {0} cannot be read: {1}", configPath, e.getMessage());
             System.exit(1);
             return;
         }
 
         boolean debug = Optional.ofNullable(config.getDebug()).orElse(false);
         tryReadLoggingConfig(debug);
-        if (debug) {
-            String configString = Yaml.dump(config);
-            LOG.log(Level.INFO, "Configuration: \n" + configString);
+        if (LOG.isLoggable(Level.CONFIG)) {
+            LOG.log(Level.CONFIG, "Configuration: \n{0}", Yaml.dump(config));
         }
 
         ApiClient apiClient;
+        ApiClient leaseApiClient;
         try {
-            apiClient = ClientBuilder.cluster().build();
+            // The KUBECONFIG file when set, the in-cluster service account otherwise
+            apiClient = ClientBuilder.standard().build();
+            // Leader election and shard leases are not rate limited, so that renewals do not wait behind actions
+            leaseApiClient = ClientBuilder.standard().build();
         } catch (IOException e) {
-            LOG.log(Level.SEVERE, "Unable to create lubernetes cluter client: " + e.getMessage(), e);
+            ResourceWatcherLog.severe(e, "Unable to create lubernetes cluter client: {0}", e.getMessage());
             System.exit(1);
             return;
         }
 
+        // All other api calls share the same rate limits
+        ApiRateLimiter apiRateLimiter = new ApiRateLimiter(config.getApiReadQps(), config.getApiReadBurst(),
+                config.getApiWriteQps(), config.getApiWriteBurst());
+        // Deployment patches are the only asynchronous calls, their concurrency is bounded by the annotator
+        Dispatcher dispatcher = new Dispatcher();
+        dispatcher.setMaxRequests(Math.max(dispatcher.getMaxRequests(), config.getMaxInFlightWrites()));
+        dispatcher.setMaxRequestsPerHost(Math.max(dispatcher.getMaxRequestsPerHost(), config.getMaxInFlightWrites()));
+        apiClient.setHttpClient(apiClient.getHttpClient().newBuilder()
+                .addInterceptor(apiRateLimiter)
+                .dispatcher(dispatcher)
+                .build());
+
         // Cannot debug client using watch.
 //        if (debug) {
 //            apiClient.CsetDebugging(true);
@@ -110,9 +118,32 @@ public class ResourceWatcher {
         CoreV1Api coreV1Api = new CoreV1Api(apiClient);
         AppsV1Api appsV1Api = new AppsV1Api(apiClient);
 
+        HTTPServer metricsServer = null;
+        if (config.getMetricsPort() > 0) {
+            try {
+                metricsServer = ResourceWatcherMetrics.startMetricsServer(config.getMetricsPort());
+            } catch (IOException e) {
+                ResourceWatcherLog.severe(e, "Unable to expose metrics on port {0}: {1}", config.getMetricsPort(), e.getMessage());
+            }
+        }
+
         EventBroadcaster eventBroadcaster = new LegacyEventBroadcaster(coreV1Api);
-        SharedInformerFactory informerFactory = new SharedInformerFactory();
-        ControllerManagerBuilder controllerManagerBuilder = ControllerBuilder.controllerManagerBuilder(informerFactory);
+        SharedInformerFactory sharedInformerFactory = new SharedInformerFactory();
+        ResourceInformerFactory informerFactory = new ResourceInformerFactory(sharedInformerFactory, apiClient, config.isProtobufWireFormat());
+        // All controllers share the same work queue and workers
+        ReconcileEngine reconcileEngine = new ReconcileEngine(config.getWorkerThreads(), config.isVirtualThreadWorkers(),
+                Duration.ofMillis(config.getRetryBaseDelayMs()), Duration.ofMillis(config.getRetryMaxDelayMs()),
+                config.getWorkQueueFairness(), config.getWorkQueueWeights());
+        boolean trainingRun = Optional.ofNullable(System.getenv("RESOURCE_WATCHER_TRAINING_RUN"))
+                .map(Boolean::parseBoolean)
+                .orElse(false);
+        if (trainingRun) {
+            // The classes loaded until now are dumped in the class data sharing archive on exit
+            reconcileEngine.onFirstReconcile(() -> {
+                ResourceWatcherLog.info("Training run completed");
+                System.exit(0);
+            });
+        }
 
         List<WatchedResource> watchedResourceList = config.getWatchedResourceList();
         // We need a single cache (informers) for each api type
@@ -126,250 +157,270 @@ public class ResourceWatcher {
                     return watchedResourceKind;
                 }));
 
-        List<SharedIndexInformer<? extends KubernetesObject>> allInformers = new ArrayList<>();
-        for (WatchedResource watchedResource : watchedResourceList) {
-            String resourceKindName = watchedResource.getKind();
-            WatchedResourceKind watchedResourceKind = WatchedResourceKind.parseName(resourceKindName)
-                    .orElse(null);
-            if (watchedResourceKind == null) {
-                LOG.log(Level.SEVERE, "Ignoring unhandled watched resource kind: " + resourceKindName);
-                continue;
-            }
-            String resourceLabel = watchedResource.getKind() + " in namespace " + watchedResource.getNamespace();
-
-            // We create an informer for each of our watched resources. We prefilled the global cache with cluster-wide informers
-            SharedIndexInformer<? extends KubernetesObject> indexInformer = createNewWatchedResourceIndexer(
-                    informerFactory, eventBroadcaster, coreV1Api, appsV1Api, watchedResourceKind, watchedResource
-            );
-            allInformers.add(indexInformer);
-            LOG.fine("Created watcher for " + resourceLabel);
+        // Triggers targeting the same deployment within the coalescing window result in a single write
+        ScheduledExecutorService coalescingScheduler = Executors.newSingleThreadScheduledExecutor();
+        // Writes then wait for a rollout slot
+        RolloutScheduler rolloutScheduler = new RolloutScheduler(new DeploymentAnnotator(appsV1Api, config.getMaxInFlightWrites()),
+                config.getMaxConcurrentRollouts(),
+                config.getMaxConcurrentRolloutsPerNamespace(),
+                Duration.ofMillis(config.getRolloutTimeoutMs()),
+                coalescingScheduler);
+        DeploymentAnnotationCoalescer annotationCoalescer = new DeploymentAnnotationCoalescer(
+                rolloutScheduler,
+                Duration.ofMillis(config.getTriggerCoalescingWindowMs()),
+                Duration.ofMillis(config.getTriggerCoalescingMaxDelayMs()),
+                coalescingScheduler
+        );
 
-            try {
-                Controller controller = createController(coreV1Api, appsV1Api, indexInformer, eventBroadcaster, watchedResourceKind, watchedResource);
-                controllerManagerBuilder.addController(controller);
-                LOG.fine("Created controller for " + resourceLabel);
-            } catch (Exception e) {
-                LOG.log(Level.SEVERE, "Unable to create controller for " + resourceLabel + " : " + e.getMessage(), e);
-                throw new RuntimeException(e);
+        String controllerNamespace = config.getNamespace();
+        String leaseName = config.getLeaseName();
+        String identity = getLeaderElectionIdentity();
+        int shardCount = config.getShardCount();
+        if (shardCount > 0) {
+            // Selectors are compiled once the shard is acquired, invalid ones fail at startup nevertheless
+            watchedResourceList.forEach(WatchedResourceFilter::compile);
+            AtomicReference<List<WatchedResource>> watchedResourceListReference = new AtomicReference<>(watchedResourceList);
+            IntFunction<WatchedResourceControllers> shardControllersFactory = shard -> {
+                WatchedResourceControllers shardControllers = new WatchedResourceControllers(
+                        informerFactory, reconcileEngine, coreV1Api, appsV1Api, annotationCoalescer, rolloutScheduler, eventBroadcaster);
+                shardControllers.updateWatchedResources(getShardWatchedResources(watchedResourceListReference.get(), shard, shardCount));
+                return shardControllers;
+            };
+            ShardCoordinator shardCoordinator = new ShardCoordinator(new CoordinationV1Api(leaseApiClient), controllerNamespace, leaseName, identity,
+                    shardCount,
+                    Duration.ofMillis(config.getLeaseDurationMs()),
+                    Duration.ofMillis(config.getLeaseRenewDeadlineMs()),
+                    shardControllersFactory);
+            ConfigFileWatcher configFileWatcher = new ConfigFileWatcher(configPath, reloadedConfig -> {
+                List<WatchedResource> reloadedWatchedResourceList = getReloadedWatchedResourceList(config, reloadedConfig);
+                watchedResourceListReference.set(reloadedWatchedResourceList);
+                shardCoordinator.forEachOwnedShard((shard, shardControllers) -> shardControllers.updateWatchedResources(
+                        getShardWatchedResources(reloadedWatchedResourceList, shard, shardCount)));
+            });
+            startConfigFileWatcher(config, configFileWatcher);
+            runSharded(config, shardCoordinator, identity, reconcileEngine);
+            configFileWatcher.stop();
+        } else {
+            WatchedResourceControllers controllers = new WatchedResourceControllers(
+                    informerFactory, reconcileEngine, coreV1Api, appsV1Api, annotationCoalescer, rolloutScheduler, eventBroadcaster);
+            for (int watchedResourceIndex = 0; watchedResourceIndex < watchedResourceList.size(); watchedResourceIndex++) {
+                controllers.addWatchedResource(watchedResourceIndex, watchedResourceList.get(watchedResourceIndex));
             }
-
+            controllers.start();
+            // Changes of the watched resources are applied on all replicas, so that standby caches stay warm
+            ConfigFileWatcher configFileWatcher = new ConfigFileWatcher(configPath, reloadedConfig -> controllers.updateWatchedResources(
+                    getShardWatchedResources(getReloadedWatchedResourceList(config, reloadedConfig), 0, 1)));
+            startConfigFileWatcher(config, configFileWatcher);
+            // Standby replicas keep their caches synced, and only wait for the lock to start reconciling
+            waitForCacheSync(controllers);
+            runLeaderElected(config, leaseApiClient, controllerNamespace, leaseName, identity, reconcileEngine);
+            configFileWatcher.stop();
+            controllers.stop();
         }
 
-        // Start all informer manually, as only 1 per api type is stored in cache
-        ExecutorService executorService = Executors.newCachedThreadPool();
-        allInformers.forEach(i -> executorService.submit(i::run));
-//        informerFactory.startAllRegisteredInformers();
-        ControllerManager controllerManager = controllerManagerBuilder.build();
+        ResourceWatcherLog.fine("ResourceWatcher completed");
+        coalescingScheduler.shutdown();
+        if (metricsServer != null) {
+            metricsServer.stop();
+        }
+    }
 
-        String controllerNamespace = config.getNamespace();
-        String leaseName = config.getLeaseName();
+    private static void runLeaderElected(ResourceWatcherConfig config, ApiClient leaseApiClient, String controllerNamespace, String leaseName,
+                                         String identity, ReconcileEngine reconcileEngine) {
+        ObservingLeaderLock leaderLock = new ObservingLeaderLock(createLeaderLock(config, leaseApiClient, controllerNamespace, leaseName, identity));
         LeaderElectionConfig leaderElectionConfig = new LeaderElectionConfig(
-                new EndpointsLock(controllerNamespace, leaseName, "resourcewatcher"),
-                Duration.ofMillis(10000),
-                Duration.ofMillis(8000),
-                Duration.ofMillis(5000)
+                leaderLock,
+                Duration.ofMillis(config.getLeaseDurationMs()),
+                Duration.ofMillis(config.getLeaseRenewDeadlineMs()),
+                Duration.ofMillis(config.getLeaseRetryPeriodMs())
         );
-        LeaderElectingController leaderElectingController = new LeaderElectingController(
-                new LeaderElector(leaderElectionConfig),
-                controllerManager
-        );
-        leaderElectingController.run();
-
-        LOG.fine("ResourceWatcher completed");
-        allInformers.forEach(SharedInformer::stop);
-        executorService.shutdown();
+        ResourceWatcherLog.fine("Running for leader election as {0} using {1}", identity, leaderLock.describe());
+        LeaderElector leaderElector = new LeaderElector(leaderElectionConfig);
+        leaderElector.run(() -> {
+            long nanosSinceForeignRenewal = leaderLock.getNanosSinceForeignRenewal();
+            ResourceWatcherMetrics.recordLeadershipAcquired(nanosSinceForeignRenewal);
+            if (nanosSinceForeignRenewal >= 0) {
+                ResourceWatcherLog.info("Acquired leadership as {0}, {1}ms after the last renewal of the previous leader",
+                        identity, nanosSinceForeignRenewal / 1000000);
+            } else {
+                ResourceWatcherLog.info("Acquired leadership as {0}", identity);
+            }
+            reconcileEngine.run();
+        }, () -> {
+            ResourceWatcherMetrics.recordLeadershipLost();
+            ResourceWatcherLog.info("Lost leadership as {0}", identity);
+            reconcileEngine.shutdown();
+        });
     }
 
-
-    private static <T extends KubernetesObject> Controller createController(CoreV1Api coreV1Api, AppsV1Api appsV1Api,
-                                                                            SharedIndexInformer<T> indexInformer,
-                                                                            EventBroadcaster eventBroadcaster,
-                                                                            WatchedResourceKind watchedResourceKind,
-                                                                            WatchedResource watchedResource) {
-        String namespace = watchedResource.getNamespace();
-        String kind = watchedResource.getKind();
-        String randomString = StringUtils.getRandomAlphanumericString(8);
-        String controllerName = MessageFormat.format("resource-watcher-{0}-{1}-{2}", namespace, kind, randomString);
-
-        WatchedResourceReconcilier<T> reconcilier = new WatchedResourceReconcilier<>(
-                coreV1Api, appsV1Api, watchedResource, indexInformer,
-                eventBroadcaster.newRecorder(new V1EventSource().host("localhost").component(COMPONENT_NAME)));
-
-        DefaultRateLimitingQueue<Request> rateLimitingQueue = new DefaultRateLimitingQueue<>(Executors.newSingleThreadExecutor());
-        // We want to use the passed in instance which might not be the one cached
-        Controller controller = ControllerBuilder.defaultBuilder(null)
-                .withName(controllerName)
-                .withReconciler(reconcilier)
-                .withWorkQueue(rateLimitingQueue)
-                .withWorkerCount(2) // optional, set worker thread count
-                .withReadyFunc(indexInformer::hasSynced) // optional, only starts controller when the
-                // cache has synced up
-                .build();
-        // Mimick ControlerBuilder::watch to use our informer rather than the gloabl one for this resource kind
-        DefaultControllerWatch<T> controllerWatch = (DefaultControllerWatch<T>) createWatchedResourceControllerWatch(rateLimitingQueue, watchedResourceKind, watchedResource, indexInformer);
-        indexInformer.addEventHandlerWithResyncPeriod(controllerWatch.getResourceEventHandler(), controllerWatch.getResyncPeriod().toMillis());
-
-        return controller;
+    private static void runSharded(ResourceWatcherConfig config, ShardCoordinator shardCoordinator, String identity,
+                                   ReconcileEngine reconcileEngine) {
+        ScheduledExecutorService shardScheduler = Executors.newSingleThreadScheduledExecutor();
+        shardScheduler.scheduleWithFixedDelay(() -> {
+            try {
+                shardCoordinator.runRound();
+            } catch (RuntimeException e) {
+                ResourceWatcherLog.severe(e, "Shard coordination failed: {0}", e.getMessage());
+            }
+        }, 0, config.getLeaseRetryPeriodMs(), TimeUnit.MILLISECONDS);
+        // Release the shards on termination, so that other replicas do not wait for their leases to expire
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            shardScheduler.shutdownNow();
+            shardCoordinator.close();
+            reconcileEngine.shutdown();
+        }));
+        ResourceWatcherLog.fine("Running {0} shards as {1}", config.getShardCount(), identity);
+        // Workers run on all replicas, and only reconcile the shards they own
+        reconcileEngine.run();
     }
 
-    private static DefaultControllerWatch<? extends KubernetesObject> createWatchedResourceControllerWatch(
-            WorkQueue<Request> requestWorkQueue, WatchedResourceKind watchedResourceKind, WatchedResource watchedResource,
-            SharedIndexInformer<? extends KubernetesObject> indexInformer) {
-        switch (watchedResourceKind) {
-            case SECRET: {
-                return buildSecretController(watchedResource, requestWorkQueue, (SharedIndexInformer<V1Secret>) indexInformer);
-            }
-            case CONFIGMAP: {
-                return buildConfigMapController(watchedResource, requestWorkQueue, (SharedIndexInformer<V1ConfigMap>) indexInformer);
+    /**
+     * The watched resources of a shard, by index in the config list.
+     */
+    private static Map<Integer, WatchedResource> getShardWatchedResources(List<WatchedResource> watchedResourceList, int shard, int shardCount) {
+        Map<Integer, WatchedResource> watchedResourcesByIndex = new LinkedHashMap<>();
+        for (int watchedResourceIndex = 0; watchedResourceIndex < watchedResourceList.size(); watchedResourceIndex++) {
+            WatchedResource watchedResource = watchedResourceList.get(watchedResourceIndex);
+            if (shardCount == 1 || ShardCoordinator.getShard(watchedResource.getNamespace(), shardCount) == shard) {
+                watchedResourcesByIndex.put(watchedResourceIndex, watchedResource);
             }
-            case POD: {
-                return buildPodController(watchedResource, requestWorkQueue, (SharedIndexInformer<V1Pod>) indexInformer);
-            }
-            default:
-                throw new IllegalArgumentException("Unsupported resource to watch: " + watchedResourceKind);
         }
+        return watchedResourcesByIndex;
     }
 
-    private static DefaultControllerWatch<V1Pod> buildPodController(WatchedResource watchedResource, WorkQueue<Request> workQueue, SharedIndexInformer<V1Pod> indexInformer) {
-        return ControllerBuilder.controllerWatchBuilder(V1Pod.class, workQueue)
-                .withWorkQueueKeyFunc((V1Pod node) -> new Request(node.getMetadata().getNamespace(), node.getMetadata().getName())) // optional, default to
-                .withOnAddFilter((V1Pod createdNode) -> checkObjectWatchedOnAdd(createdNode, watchedResource, indexInformer))
-                .withOnUpdateFilter((V1Pod oldNode, V1Pod newNode) -> checkObjectWatchedOnUpdate(oldNode, watchedResource, indexInformer))
-                .withOnDeleteFilter((V1Pod deletedNode, Boolean stateUnknown) -> checkObjectWatchedOnDelete(deletedNode, watchedResource, indexInformer))
-                .build();
+    private static List<WatchedResource> getReloadedWatchedResourceList(ResourceWatcherConfig config, ResourceWatcherConfig reloadedConfig) {
+        if (!reloadedConfig.equals(config)) {
+            ResourceWatcherLog.warning("Only the changes to the watched resource list are applied, restart to apply the other changes");
+        }
+        return Optional.ofNullable(reloadedConfig.getWatchedResourceList()).orElse(List.of());
     }
 
-    private static DefaultControllerWatch<V1Secret> buildSecretController(WatchedResource watchedResource, WorkQueue<Request> workQueue, SharedIndexInformer<V1Secret> indexInformer) {
-        return ControllerBuilder.controllerWatchBuilder(V1Secret.class, workQueue)
-                .withWorkQueueKeyFunc((V1Secret node) -> new Request(node.getMetadata().getNamespace(), node.getMetadata().getName())) // optional, default to
-                .withOnAddFilter((V1Secret createdNode) -> checkObjectWatchedOnAdd(createdNode, watchedResource, indexInformer))
-                .withOnUpdateFilter((V1Secret oldNode, V1Secret newNode) -> checkObjectWatchedOnUpdate(oldNode, watchedResource, indexInformer))
-                .withOnDeleteFilter((V1Secret deletedNode, Boolean stateUnknown) -> checkObjectWatchedOnDelete(deletedNode, watchedResource, indexInformer))
-                .build();
+    private static void startConfigFileWatcher(ResourceWatcherConfig config, ConfigFileWatcher configFileWatcher) {
+        if (!config.isReloadConfig()) {
+            return;
+        }
+        try {
+            configFileWatcher.start();
+        } catch (IOException e) {
+            ResourceWatcherLog.warning(e, "Unable to watch the config file, changes will require a restart: {0}", e.getMessage());
+        }
     }
 
-    private static DefaultControllerWatch<V1ConfigMap> buildConfigMapController(WatchedResource watchedResource, WorkQueue<Request> workQueue, SharedIndexInformer<V1ConfigMap> indexInformer) {
-        return ControllerBuilder.controllerWatchBuilder(V1ConfigMap.class, workQueue)
-                .withWorkQueueKeyFunc((V1ConfigMap node) -> new Request(node.getMetadata().getNamespace(), node.getMetadata().getName())) // optional, default to
-                .withOnAddFilter((V1ConfigMap createdNode) -> checkObjectWatchedOnAdd(createdNode, watchedResource, indexInformer))
-                .withOnUpdateFilter((V1ConfigMap oldNode, V1ConfigMap newNode) -> checkObjectWatchedOnUpdate(oldNode, watchedResource, indexInformer))
-                .withOnDeleteFilter((V1ConfigMap deletedNode, Boolean stateUnknown) -> checkObjectWatchedOnDelete(deletedNode, watchedResource, indexInformer))
-                .build();
+    private static void waitForCacheSync(WatchedResourceControllers controllers) {
+        long startNanos = System.nanoTime();
+        while (!controllers.hasSynced()) {
+            try {
+                Thread.sleep(CACHE_SYNC_CHECK_INTERVAL.toMillis());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+        ResourceWatcherLog.fine("Caches synced in {0}ms", (System.nanoTime() - startNanos) / 1000000);
     }
 
-    private static <T extends KubernetesObject> SharedIndexInformer<T> createNewWatchedResourceIndexer(
-            SharedInformerFactory informerFactory, EventBroadcaster eventBroadcaster,
-            CoreV1Api coreV1Api, AppsV1Api appsV1Api,
-            WatchedResourceKind watchedResourceKind, WatchedResource watchedResource) {
-        SharedIndexInformer<T> indexInformer = (SharedIndexInformer<T>) createSharedIndexInformer(watchedResourceKind, watchedResource, informerFactory, coreV1Api);
-
-        WatchedResourceReconcilier<T> reconcilier = new WatchedResourceReconcilier<>(
-                coreV1Api, appsV1Api, watchedResource, indexInformer,
-                eventBroadcaster.newRecorder(new V1EventSource().host("localhost").component(COMPONENT_NAME)));
-
+    private static Lock createLeaderLock(ResourceWatcherConfig config, ApiClient leaseApiClient, String namespace, String leaseName,
+                                         String identity) {
+        switch (config.getLeaseLockKind()) {
+            case LEASE:
+                return new LeaseLock(namespace, leaseName, identity, leaseApiClient);
+            case ENDPOINTS:
+                return new EndpointsLock(namespace, leaseName, identity, leaseApiClient);
+            default:
+                throw new RuntimeException("Unsupported leader election lock: " + config.getLeaseLockKind());
+        }
+    }
 
-        return indexInformer;
+    private static String getLeaderElectionIdentity() {
+        // Each replica needs its own identity, the pod name when running in a cluster
+        String hostName = Optional.ofNullable(System.getenv("HOSTNAME"))
+                .filter(s -> !s.isBlank())
+                .orElse("resourcewatcher");
+        // Lower case, as it names the member leases
+        return (hostName + "-" + StringUtils.getRandomAlphanumericString(5)).toLowerCase(Locale.ROOT);
     }
 
-    private static SharedIndexInformer<? extends KubernetesObject> createSharedIndexInformer(WatchedResourceKind resourceKind, WatchedResource watchedResource, SharedInformerFactory informerFactory, CoreV1Api coreV1Api) {
+    /**
+     * Registers the controller of a watched resource, returning the event handler feeding it.
+     */
+    static <T extends KubernetesObject> ResourceEventHandler<T> registerController(String controllerName,
+                                                                                   ReconcileEngine reconcileEngine,
+                                                                                   WatchedResourceInformers watchedResourceInformers,
+                                                                                   CoreV1Api coreV1Api, AppsV1Api appsV1Api,
+                                                                                   DeploymentTargetCache deploymentTargetCache,
+                                                                                   DeploymentAnnotationCoalescer annotationCoalescer,
+                                                                                   SharedIndexInformer<T> indexInformer,
+                                                                                   ResourceDigestCache<? extends KubernetesObject> digestCache,
+                                                                                   WatchedResourceMetrics metrics,
+                                                                                   EventBroadcaster eventBroadcaster,
+                                                                                   WatchedResourceKind watchedResourceKind,
+                                                                                   WatchedResource watchedResource) {
         String namespace = watchedResource.getNamespace();
-        String fieldSelector = String.join(",", watchedResource.getFieldSelectors());
-        String labelSelector = String.join(",", watchedResource.getLabelSelectors());
-        switch (resourceKind) {
-            case POD: {
-                return informerFactory.sharedIndexInformerFor((CallGeneratorParams params) -> coreV1Api.listNamespacedPodCall(
-                                namespace,
-                                null,
-                                null,
-                                null,
-                                fieldSelector,
-                                labelSelector,
-                                null,
-                                params.resourceVersion,
-                                null,
-                                params.timeoutSeconds,
-                                params.watch,
-                                null),
-                        V1Pod.class,
-                        V1PodList.class);
-            }
-            case SECRET: {
-                return informerFactory.sharedIndexInformerFor((CallGeneratorParams params) -> coreV1Api.listNamespacedSecretCall(
-                                namespace,
-                                null,
-                                null,
-                                null,
-                                fieldSelector,
-                                labelSelector,
-                                null,
-                                params.resourceVersion,
-                                null,
-                                params.timeoutSeconds,
-                                params.watch,
-                                null),
-                        V1Secret.class,
-                        V1SecretList.class);
-            }
-            case CONFIGMAP: {
-                return informerFactory.sharedIndexInformerFor((CallGeneratorParams params) -> coreV1Api.listNamespacedConfigMapCall(
-                                namespace,
-                                null,
-                                null,
-                                null,
-                                fieldSelector,
-                                labelSelector,
-                                null,
-                                params.resourceVersion,
-                                null,
-                                params.timeoutSeconds,
-                                params.watch,
-                                null),
-                        V1ConfigMap.class,
-                        V1ConfigMapList.class);
-            }
-            default:
-                throw new RuntimeException("Unsupported resource to watch: " + resourceKind);
+        // Selectors are compiled once, invalid ones fail at startup
+        WatchedResourceFilter resourceFilter = WatchedResourceFilter.compile(watchedResource);
 
-        }
+        WatchedResourceReconcilier<T> reconcilier = new WatchedResourceReconcilier<>(
+                coreV1Api, appsV1Api, deploymentTargetCache, annotationCoalescer, watchedResource, indexInformer, digestCache, metrics,
+                eventBroadcaster.newRecorder(new V1EventSource().host("localhost").component(COMPONENT_NAME)),
+                request -> reconcileEngine.requeueRateLimited(controllerName, request));
+
+        // Only reconcile once the cache has synced up
+        ReconcileEngine.ControllerQueue controllerQueue = reconcileEngine.registerController(controllerName, reconcilier, indexInformer::hasSynced,
+                request -> indexInformer.getIndexer().getByKey(request.getNamespace() + "/" + request.getName()), metrics);
+        // Registered on our shared informer rather than on the global one for this resource kind
+        ResourceEventHandler<T> eventHandler = createWatchedResourceEventHandler(controllerQueue, watchedResource, resourceFilter, metrics);
+        watchedResourceInformers.addEventHandler(watchedResourceKind, namespace, watchedResource.isMetadataOnly(), eventHandler);
+        return eventHandler;
+    }
+
+    private static <T extends KubernetesObject> FilteringEventHandler<T> createWatchedResourceEventHandler(
+            ReconcileEngine.ControllerQueue controllerQueue, WatchedResource watchedResource, WatchedResourceFilter resourceFilter,
+            WatchedResourceMetrics metrics) {
+        String watchedResourceName = metrics.getWatchedResourceName();
+        return new FilteringEventHandler<>(controllerQueue,
+                (T createdNode) -> metrics.recordEvent(WatchedResourceMetrics.EventType.ADD,
+                        TriggerTracing.traceFilter(watchedResourceName, WatchedResourceMetrics.EventType.ADD, createdNode,
+                                () -> checkObjectWatchedOnAdd(createdNode, watchedResource, resourceFilter))),
+                (T oldNode, T newNode, BooleanSupplier contentChanged) -> metrics.recordEvent(WatchedResourceMetrics.EventType.UPDATE,
+                        TriggerTracing.traceFilter(watchedResourceName, WatchedResourceMetrics.EventType.UPDATE, newNode,
+                                () -> checkObjectWatchedOnUpdate(oldNode, newNode, watchedResource, resourceFilter, contentChanged))),
+                (T deletedNode, Boolean stateUnknown) -> metrics.recordEvent(WatchedResourceMetrics.EventType.DELETE,
+                        TriggerTracing.traceFilter(watchedResourceName, WatchedResourceMetrics.EventType.DELETE, deletedNode,
+                                () -> checkObjectWatchedOnDelete(deletedNode, watchedResource, resourceFilter))));
     }
 
-    private static <T extends KubernetesObject> boolean checkObjectWatchedOnAdd(T kubernetesObject, WatchedResource config, SharedIndexInformer<T> indexInformer) {
+    static <T extends KubernetesObject> boolean checkObjectWatchedOnAdd(T kubernetesObject, WatchedResource config, WatchedResourceFilter resourceFilter) {
         boolean watchAdd = config.isWatchAdd();
         if (!watchAdd) {
             return false;
         }
-        return checkObjectWatched(kubernetesObject, config, indexInformer);
+        return checkObjectWatched(kubernetesObject, config, resourceFilter);
     }
 
 
-    private static <T extends KubernetesObject> boolean checkObjectWatchedOnUpdate(T kubernetesObject, WatchedResource config, SharedIndexInformer<T> indexInformer) {
+    static <T extends KubernetesObject> boolean checkObjectWatchedOnUpdate(T oldObject, T newObject, WatchedResource config, WatchedResourceFilter resourceFilter,
+                                                                           BooleanSupplier contentChanged) {
         boolean watchUpdate = config.isWatchUpdate();
         if (!watchUpdate) {
             return false;
         }
-        return checkObjectWatched(kubernetesObject, config, indexInformer);
+        if (!checkObjectWatched(newObject, config, resourceFilter)) {
+            return false;
+        }
+        // Resyncs and metadata-only updates leave the payload unchanged
+        return contentChanged.getAsBoolean();
     }
 
-    private static <T extends KubernetesObject> boolean checkObjectWatchedOnDelete(T kubernetesObject, WatchedResource config, SharedIndexInformer<T> indexInformer) {
+    static <T extends KubernetesObject> boolean checkObjectWatchedOnDelete(T kubernetesObject, WatchedResource config, WatchedResourceFilter resourceFilter) {
         boolean watchDelete = config.isWatchDelete();
         if (!watchDelete) {
             return false;
         }
-        return checkObjectWatched(kubernetesObject, config, indexInformer);
+        return checkObjectWatched(kubernetesObject, config, resourceFilter);
     }
 
-    private static <T extends KubernetesObject> boolean checkObjectWatched(T kubernetesObject, WatchedResource config, SharedIndexInformer<T> indexInformer) {
-        V1ObjectMeta metadata = kubernetesObject.getMetadata();
-        String namespace = config.getNamespace();
-        if (!namespace.equalsIgnoreCase(metadata.getNamespace())) {
-            return false;
-        }
-
-        List<String> labelSelectors = config.getLabelSelectors();
-        Map<String, String> labels = metadata.getLabels();
-
-
-        return true;
+    private static <T extends KubernetesObject> boolean checkObjectWatched(T kubernetesObject, WatchedResource config, WatchedResourceFilter resourceFilter) {
+        return resourceFilter.matches(kubernetesObject);
     }
 
     private static void tryReadLoggingConfig(boolean debug) {
@@ -378,7 +429,7 @@ public class ResourceWatcher {
             InputStream logPropsFile = ResourceWatcher.class.getClassLoader().getResourceAsStream(loggingPropertiesFileName);
             LogManager.getLogManager().readConfiguration(logPropsFile);
         } catch (Exception e) {
-            LOG.log(Level.WARNING, "Unable to load logging config");
+            ResourceWatcherLog.warning(e, "Unable to load logging config");
         }
     }
 }
@@ -0,0 +1,128 @@
+package com.charlyghislain.resourcewatcher;
+
+import java.util.logging.Level;
+import java.util.logging.LogRecord;
+import java.util.logging.Logger;
+
+/**
+ * Level guarded, parameterised logging on the resource watcher logger.
+ * <p>
+ * Messages use {0}-style placeholders, and are only formatted by the log handler, so that disabled levels neither
+ * build strings nor allocate parameter arrays. As the handler may format them later on another thread, parameters
+ * should be immutable, such as strings, numbers or enums.
+ */
+public class ResourceWatcherLog {
+
+    private static final Logger LOG = ResourceWatcher.LOG;
+
+    public static boolean isFineEnabled() {
+        return LOG.isLoggable(Level.FINE);
+    }
+
+    public static void fine(String message) {
+        LOG.log(Level.FINE, message);
+    }
+
+    public static void fine(String pattern, Object param0) {
+        if (LOG.isLoggable(Level.FINE)) {
+            LOG.log(Level.FINE, pattern, param0);
+        }
+    }
+
+    public static void fine(String pattern, Object param0, Object param1) {
+        if (LOG.isLoggable(Level.FINE)) {
+            LOG.log(Level.FINE, pattern, new Object[]{param0, param1});
+        }
+    }
+
+    public static void fine(String pattern, Object param0, Object param1, Object param2) {
+        if (LOG.isLoggable(Level.FINE)) {
+            LOG.log(Level.FINE, pattern, new Object[]{param0, param1, param2});
+        }
+    }
+
+    public static void fine(String pattern, Object param0, Object param1, Object param2, Object param3) {
+        if (LOG.isLoggable(Level.FINE)) {
+            LOG.log(Level.FINE, pattern, new Object[]{param0, param1, param2, param3});
+        }
+    }
+
+    public static void info(String message) {
+        LOG.log(Level.INFO, message);
+    }
+
+    public static void info(String pattern, Object param0) {
+        if (LOG.isLoggable(Level.INFO)) {
+            LOG.log(Level.INFO, pattern, param0);
+        }
+    }
+
+    public static void info(String pattern, Object param0, Object param1) {
+        if (LOG.isLoggable(Level.INFO)) {
+            LOG.log(Level.INFO, pattern, new Object[]{param0, param1});
+        }
+    }
+
+    public static void info(String pattern, Object param0, Object param1, Object param2) {
+        if (LOG.isLoggable(Level.INFO)) {
+            LOG.log(Level.INFO, pattern, new Object[]{param0, param1, param2});
+        }
+    }
+
+    public static void warning(String message) {
+        LOG.log(Level.WARNING, message);
+    }
+
+    public static void warning(String pattern, Object param0) {
+        if (LOG.isLoggable(Level.WARNING)) {
+            LOG.log(Level.WARNING, pattern, param0);
+        }
+    }
+
+    public static void warning(String pattern, Object param0, Object param1) {
+        if (LOG.isLoggable(Level.WARNING)) {
+            LOG.log(Level.WARNING, pattern, new Object[]{param0, param1});
+        }
+    }
+
+    public static void warning(String pattern, Object param0, Object param1, Object param2) {
+        if (LOG.isLoggable(Level.WARNING)) {
+            LOG.log(Level.WARNING, pattern, new Object[]{param0, param1, param2});
+        }
+    }
+
+    public static void warning(String pattern, Object param0, Object param1, Object param2, Object param3) {
+        if (LOG.isLoggable(Level.WARNING)) {
+            LOG.log(Level.WARNING, pattern, new Object[]{param0, param1, param2, param3});
+        }
+    }
+
+    /**
+     * Logs an error. Errors are rare, their parameters are passed as an array.
+     */
+    public static void severe(String pattern, Object... params) {
+        log(Level.SEVERE, null, pattern, params);
+    }
+
+    /**
+     * Logs an error with its cause.
+     */
+    public static void severe(Throwable thrown, String pattern, Object... params) {
+        log(Level.SEVERE, thrown, pattern, params);
+    }
+
+    public static void warning(Throwable thrown, String pattern, Object... params) {
+        log(Level.WARNING, thrown, pattern, params);
+    }
+
+    private static void log(Level level, Throwable thrown, String pattern, Object[] params) {
+        if (!LOG.isLoggable(level)) {
+            return;
+        }
+        LogRecord logRecord = new LogRecord(level, pattern);
+        logRecord.setLoggerName(LOG.getName());
+        logRecord.setParameters(params.length == 0 ? null : params);
+        logRecord.setThrown(thrown);
+        LOG.log(logRecord);
+    }
+}
@@ -0,0 +1,203 @@
+package com.charlyghislain.resourcewatcher;
+
+import io.kubernetes.client.openapi.ApiException;
+import io.prometheus.client.Counter;
+import io.prometheus.client.Gauge;
+import io.prometheus.client.Histogram;
+import io.prometheus.client.exporter.HTTPServer;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+
+/**
+ * Prometheus metrics of the watch, reconcile and write pipeline, exposed on the /metrics endpoint.
+ */
+public class ResourceWatcherMetrics {
+
+    static final Counter INFORMER_EVENTS = Counter.build()
+            .name("resourcewatcher_informer_events_total")
+            .help("Informer events received, by watched resource and event type")
+            .labelNames("watched_resource", "event")
+            .register();
+    static final Counter FILTER_DECISIONS = Counter.build()
+            .name("resourcewatcher_filter_decisions_total")
+            .help("Filter decisions on informer events, by watched resource, event type and decision")
+            .labelNames("watched_resource", "event", "decision")
+            .register();
+    static final Gauge WORK_QUEUE_DEPTH = Gauge.build()
+            .name("resourcewatcher_workqueue_depth")
+            .help("Requests waiting in the shared work queue")
+            .register();
+    static final Gauge WORK_QUEUE_TENANT_DEPTH = Gauge.build()
+            .name("resourcewatcher_workqueue_tenant_depth")
+            .help("Requests waiting in the work queue, by tenant")
+            .labelNames("tenant")
+            .register();
+    static final Histogram WORK_QUEUE_WAIT = Histogram.build()
+            .name("resourcewatcher_workqueue_wait_seconds")
+            .help("Time requests waited in the work queue before a worker picked them, by tenant")
+            .labelNames("tenant")
+            .buckets(0.001, 0.005, 0.01, 0.05, 0.1, 0.5, 1, 5, 10, 30, 60)
+            .register();
+    static final Counter WORK_QUEUE_ADDS = Counter.build()
+            .name("resourcewatcher_workqueue_adds_total")
+            .help("Requests added to the work queue, by watched resource")
+            .labelNames("watched_resource")
+            .register();
+    static final Counter WORK_QUEUE_RETRIES = Counter.build()
+            .name("resourcewatcher_workqueue_retries_total")
+            .help("Requests requeued after a reconcile, by watched resource")
+            .labelNames("watched_resource")
+            .register();
+    static final Histogram RECONCILE_DURATION = Histogram.build()
+            .name("resourcewatcher_reconcile_duration_seconds")
+            .help("Reconcile latency, by watched resource")
+            .labelNames("watched_resource")
+            .register();
+    static final Counter ACTION_RESULTS = Counter.build()
+            .name("resourcewatcher_action_results_total")
+            .help("Action executions, by watched resource, action and result")
+            .labelNames("watched_resource", "action", "result")
+            .register();
+    static final Counter ACTION_RETRIES = Counter.build()
+            .name("resourcewatcher_action_retries_total")
+            .help("Failed actions scheduled for a retry, by watched resource and action")
+            .labelNames("watched_resource", "action")
+            .register();
+    static final Counter ACTION_GIVE_UPS = Counter.build()
+            .name("resourcewatcher_action_give_ups_total")
+            .help("Failed actions not retried anymore after the max retries, by watched resource and action")
+            .labelNames("watched_resource", "action")
+            .register();
+    static final Counter LEDGER_SKIPS = Counter.build()
+            .name("resourcewatcher_ledger_skips_total")
+            .help("Annotations skipped as already recorded in the trigger ledger, by watched resource")
+            .labelNames("watched_resource")
+            .register();
+    static final Histogram API_CALL_DURATION = Histogram.build()
+            .name("resourcewatcher_api_call_duration_seconds")
+            .help("Kubernetes api call latency, by operation and response status")
+            .labelNames("operation", "status")
+            .register();
+    static final Gauge ROLLOUT_QUEUE_DEPTH = Gauge.build()
+            .name("resourcewatcher_rollout_queue_depth")
+            .help("Deployment annotations waiting for a rollout slot")
+            .register();
+    static final Gauge ROLLOUTS_IN_PROGRESS = Gauge.build()
+            .name("resourcewatcher_rollouts_in_progress")
+            .help("Deployments rolling out after an annotation write, holding a rollout slot")
+            .register();
+    static final Histogram ROLLOUT_DURATION = Histogram.build()
+            .name("resourcewatcher_rollout_duration_seconds")
+            .help("Time from the annotation write to the rollout completion, by result")
+            .labelNames("result")
+            .buckets(1, 5, 15, 30, 60, 120, 300, 600, 1200, 1800)
+            .register();
+    static final Histogram API_RATE_LIMIT_WAIT = Histogram.build()
+            .name("resourcewatcher_api_rate_limit_wait_seconds")
+            .help("Time api calls waited for the client side rate limiter, by bucket")
+            .labelNames("bucket")
+            .register();
+    static final Counter API_THROTTLED = Counter.build()
+            .name("resourcewatcher_api_throttled_total")
+            .help("Api calls throttled by the api server, by bucket")
+            .labelNames("bucket")
+            .register();
+    static final Counter LOG_RECORDS_DROPPED = Counter.build()
+            .name("resourcewatcher_log_records_dropped_total")
+            .help("Log records dropped as the log buffer was full")
+            .register();
+    static final Gauge FIRST_RECONCILE = Gauge.build()
+            .name("resourcewatcher_first_reconcile_seconds")
+            .help("Time from the jvm start to the completion of the first reconcile")
+            .register();
+    static final Gauge LEADER = Gauge.build()
+            .name("resourcewatcher_leader")
+            .help("Whether this replica holds the leader election lock")
+            .register();
+    static final Histogram LEADER_TAKEOVER_LATENCY = Histogram.build()
+            .name("resourcewatcher_leader_takeover_seconds")
+            .help("Time between the last observed renewal of the previous leader and the start of reconciling on this replica")
+            .buckets(1, 2, 5, 10, 15, 20, 30, 60, 120)
+            .register();
+    static final Gauge SHARD_MEMBERS = Gauge.build()
+            .name("resourcewatcher_shard_members")
+            .help("Live replicas sharing the watched resources")
+            .register();
+    static final Gauge SHARDS_OWNED = Gauge.build()
+            .name("resourcewatcher_shards_owned")
+            .help("Shards run by this replica")
+            .register();
+    static final Counter SHARD_TRANSITIONS = Counter.build()
+            .name("resourcewatcher_shard_transitions_total")
+            .help("Shards acquired or released by this replica")
+            .labelNames("transition")
+            .register();
+
+    @FunctionalInterface
+    public interface ApiCall<T> {
+        T call() throws ApiException;
+    }
+
+    public static HTTPServer startMetricsServer(int port) throws IOException {
+        HTTPServer httpServer = new HTTPServer(port, true);
+        ResourceWatcherLog.fine("Metrics exposed on port {0}", port);
+        return httpServer;
+    }
+
+    public static WatchedResourceMetrics forWatchedResource(String watchedResourceName) {
+        return new WatchedResourceMetrics(watchedResourceName);
+    }
+
+    /**
+     * Records the completion of the first reconcile, returning the time since the jvm start in milliseconds.
+     */
+    public static long recordFirstReconcile() {
+        long uptimeMillis = ManagementFactory.getRuntimeMXBean().getUptime();
+        FIRST_RECONCILE.set(uptimeMillis / 1e3);
+        return uptimeMillis;
+    }
+
+    /**
+     * Records that this replica became leader, the previous leader renewal having been observed that long ago.
+     */
+    public static void recordLeadershipAcquired(long nanosSinceForeignRenewal) {
+        LEADER.set(1);
+        if (nanosSinceForeignRenewal >= 0) {
+            LEADER_TAKEOVER_LATENCY.observe(nanosSinceForeignRenewal / 1e9);
+        }
+    }
+
+    public static void recordLeadershipLost() {
+        LEADER.set(0);
+    }
+
+    /**
+     * Performs an api call, recording its latency and response status.
+     */
+    public static <T> T timeApiCall(String operation, ApiCall<T> apiCall) throws ApiException {
+        long startNanos = System.nanoTime();
+        TriggerTracing.ApiCallEvent apiCallEvent = TriggerTracing.beginApiCall(operation);
+        String status = "200";
+        try {
+            return apiCall.call();
+        } catch (ApiException e) {
+            status = String.valueOf(e.getCode());
+            throw e;
+        } catch (RuntimeException e) {
+            status = "error";
+            throw e;
+        } finally {
+            recordApiCall(operation, status, startNanos);
+            TriggerTracing.endApiCall(apiCallEvent, status);
+        }
+    }
+
+    /**
+     * Records the latency and response status of an api call started at this time, such as asynchronous calls.
+     */
+    public static void recordApiCall(String operation, String status, long startNanos) {
+        double durationSeconds = (System.nanoTime() - startNanos) / 1e9;
+        API_CALL_DURATION.labels(operation, status).observe(durationSeconds);
+    }
+}
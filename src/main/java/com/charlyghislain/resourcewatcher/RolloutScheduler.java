@@ -0,0 +1,342 @@
+package com.charlyghislain.resourcewatcher;
+
+import io.kubernetes.client.informer.ResourceEventHandler;
+import io.kubernetes.client.openapi.ApiException;
+import io.kubernetes.client.openapi.models.V1Deployment;
+import io.kubernetes.client.openapi.models.V1DeploymentSpec;
+import io.kubernetes.client.openapi.models.V1DeploymentStatus;
+import io.kubernetes.client.openapi.models.V1ObjectMeta;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * Limits the number of deployments rolling out at the same time, globally and per namespace.
+ * <p>
+ * Annotation writes start a rollout, and hold a slot until the deployment status reports the rollout complete, the
+ * deployment is removed, or the rollout timeout elapses. Writes exceeding a cap are queued in order, and writes
+ * targeting a deployment already rolling out wait for its rollout to complete. Queued writes targeting the same
+ * deployment are merged. Throttled queued writes are queued again after the delay requested by the api server.
+ * Without caps, annotations are written immediately.
+ * <p>
+ * Deployment status updates are received from the deployment informers of the annotated namespaces.
+ */
+public class RolloutScheduler implements ResourceEventHandler<V1Deployment> {
+
+    private static final long TIMEOUT_SWEEP_INTERVAL_SECONDS = 5;
+
+    private final DeploymentAnnotator deploymentAnnotator;
+    private final int maxConcurrentRollouts;
+    private final int maxConcurrentRolloutsPerNamespace;
+    private final Duration rolloutTimeout;
+    private final ScheduledExecutorService scheduler;
+    private final Map<String, Rollout> rolloutsByTarget = new HashMap<>();
+    private final Map<String, Integer> rolloutCountsByNamespace = new HashMap<>();
+    // Insertion ordered, so that queued writes are started first in first out
+    private final Map<String, QueuedWrite> queuedWritesByTarget = new LinkedHashMap<>();
+
+    public RolloutScheduler(DeploymentAnnotator deploymentAnnotator, int maxConcurrentRollouts, int maxConcurrentRolloutsPerNamespace,
+                            Duration rolloutTimeout, ScheduledExecutorService scheduler) {
+        this.deploymentAnnotator = deploymentAnnotator;
+        this.maxConcurrentRollouts = maxConcurrentRollouts;
+        this.maxConcurrentRolloutsPerNamespace = maxConcurrentRolloutsPerNamespace;
+        this.rolloutTimeout = rolloutTimeout;
+        this.scheduler = scheduler;
+        if (isLimited()) {
+            scheduler.scheduleWithFixedDelay(this::releaseTimedOutRollouts,
+                    TIMEOUT_SWEEP_INTERVAL_SECONDS, TIMEOUT_SWEEP_INTERVAL_SECONDS, TimeUnit.SECONDS);
+        }
+    }
+
+    /**
+     * Writes the annotations if a rollout slot is available, otherwise queues them. The future completes with the api
+     * error for immediate writes, or once queued. The failure of a queued write is reported to the listener.
+     */
+    public CompletableFuture<Void> annotate(String deploymentNamespace, String deploymentName,
+                                            Map<String, String> annotations, Map<String, String> ledgerEntries,
+                                            Consumer<Throwable> deferredFailureListener) {
+        if (!isLimited()) {
+            return deploymentAnnotator.annotatePodTemplate(deploymentNamespace, deploymentName, annotations, ledgerEntries)
+                    .thenApply(deployment -> null);
+        }
+        String targetKey = deploymentNamespace + "/" + deploymentName;
+        synchronized (this) {
+            QueuedWrite queuedWrite = queuedWritesByTarget.get(targetKey);
+            if (queuedWrite != null || rolloutsByTarget.containsKey(targetKey) || !hasAvailableSlot(deploymentNamespace)) {
+                if (queuedWrite == null) {
+                    queuedWrite = new QueuedWrite(deploymentNamespace, deploymentName);
+                    queuedWritesByTarget.put(targetKey, queuedWrite);
+                }
+                queuedWrite.annotations.putAll(annotations);
+                queuedWrite.ledgerEntries.putAll(ledgerEntries);
+                queuedWrite.failureListeners.add(deferredFailureListener);
+                ResourceWatcherMetrics.ROLLOUT_QUEUE_DEPTH.set(queuedWritesByTarget.size());
+                ResourceWatcherLog.fine("Queued pod spec annotations on deployment {0} in namespace {1}", deploymentName, deploymentNamespace);
+                return CompletableFuture.completedFuture(null);
+            }
+            startRollout(targetKey, deploymentNamespace);
+        }
+        return writeAnnotations(targetKey, deploymentNamespace, deploymentName, annotations, ledgerEntries);
+    }
+
+    @Override
+    public void onAdd(V1Deployment deployment) {
+        onUpdate(null, deployment);
+    }
+
+    @Override
+    public void onUpdate(V1Deployment oldDeployment, V1Deployment deployment) {
+        if (!isLimited()) {
+            return;
+        }
+        String targetKey = getTargetKey(deployment);
+        synchronized (this) {
+            Rollout rollout = rolloutsByTarget.get(targetKey);
+            // Updates received before the write response may predate the write
+            if (rollout == null || !rollout.written || !isRolloutComplete(deployment, rollout.generation)) {
+                return;
+            }
+        }
+        releaseRollout(targetKey, "completed");
+    }
+
+    @Override
+    public void onDelete(V1Deployment deployment, boolean deletedFinalStateUnknown) {
+        if (!isLimited()) {
+            return;
+        }
+        String targetKey = getTargetKey(deployment);
+        synchronized (this) {
+            queuedWritesByTarget.remove(targetKey);
+            ResourceWatcherMetrics.ROLLOUT_QUEUE_DEPTH.set(queuedWritesByTarget.size());
+        }
+        releaseRollout(targetKey, "deleted");
+    }
+
+    private boolean isLimited() {
+        return maxConcurrentRollouts > 0 || maxConcurrentRolloutsPerNamespace > 0;
+    }
+
+    private boolean hasAvailableSlot(String namespace) {
+        if (maxConcurrentRollouts > 0 && rolloutsByTarget.size() >= maxConcurrentRollouts) {
+            return false;
+        }
+        int namespaceRolloutCount = rolloutCountsByNamespace.getOrDefault(namespace, 0);
+        return maxConcurrentRolloutsPerNamespace <= 0 || namespaceRolloutCount < maxConcurrentRolloutsPerNamespace;
+    }
+
+    private void startRollout(String targetKey, String namespace) {
+        rolloutsByTarget.put(targetKey, new Rollout(namespace, System.nanoTime()));
+        rolloutCountsByNamespace.merge(namespace, 1, Integer::sum);
+        ResourceWatcherMetrics.ROLLOUTS_IN_PROGRESS.set(rolloutsByTarget.size());
+    }
+
+    private CompletableFuture<Void> writeAnnotations(String targetKey, String deploymentNamespace, String deploymentName,
+                                                     Map<String, String> annotations, Map<String, String> ledgerEntries) {
+        return deploymentAnnotator.annotatePodTemplate(deploymentNamespace, deploymentName, annotations, ledgerEntries)
+                .handle((patchedDeployment, error) -> {
+                    if (error != null) {
+                        releaseRollout(targetKey, "failed");
+                        throw error instanceof CompletionException ? (CompletionException) error : new CompletionException(error);
+                    }
+                    onRolloutWritten(targetKey, patchedDeployment);
+                    return null;
+                });
+    }
+
+    private void onRolloutWritten(String targetKey, V1Deployment patchedDeployment) {
+        Long generation = Optional.ofNullable(patchedDeployment)
+                .map(V1Deployment::getMetadata)
+                .map(V1ObjectMeta::getGeneration)
+                .orElse(null);
+        synchronized (this) {
+            Rollout rollout = rolloutsByTarget.get(targetKey);
+            if (rollout == null) {
+                return;
+            }
+            rollout.written = true;
+            rollout.generation = generation;
+        }
+        // The status of unchanged pod templates may already be complete, without any further update
+        if (patchedDeployment != null) {
+            onUpdate(null, patchedDeployment);
+        }
+    }
+
+    private void releaseRollout(String targetKey, String result) {
+        List<QueuedWrite> startedWrites;
+        synchronized (this) {
+            Rollout rollout = rolloutsByTarget.remove(targetKey);
+            if (rollout == null) {
+                return;
+            }
+            rolloutCountsByNamespace.computeIfPresent(rollout.namespace, (n, count) -> count > 1 ? count - 1 : null);
+            double durationSeconds = (System.nanoTime() - rollout.startNanos) / 1e9;
+            ResourceWatcherMetrics.ROLLOUT_DURATION.labels(result).observe(durationSeconds);
+            ResourceWatcherLog.fine("Rollout of deployment {0} {1} after {2}s", targetKey, result, durationSeconds);
+            startedWrites = pollStartableWrites();
+        }
+        startQueuedWrites(startedWrites);
+    }
+
+    /**
+     * Removes the queued writes for which a slot is available, in order, and starts their rollouts.
+     */
+    private List<QueuedWrite> pollStartableWrites() {
+        List<QueuedWrite> startedWrites = new ArrayList<>();
+        Iterator<Map.Entry<String, QueuedWrite>> queuedWriteIterator = queuedWritesByTarget.entrySet().iterator();
+        while (queuedWriteIterator.hasNext()) {
+            Map.Entry<String, QueuedWrite> queuedWriteEntry = queuedWriteIterator.next();
+            String queuedTargetKey = queuedWriteEntry.getKey();
+            QueuedWrite queuedWrite = queuedWriteEntry.getValue();
+            if (rolloutsByTarget.containsKey(queuedTargetKey) || !hasAvailableSlot(queuedWrite.deploymentNamespace)) {
+                continue;
+            }
+            queuedWriteIterator.remove();
+            startRollout(queuedTargetKey, queuedWrite.deploymentNamespace);
+            startedWrites.add(queuedWrite);
+        }
+        ResourceWatcherMetrics.ROLLOUTS_IN_PROGRESS.set(rolloutsByTarget.size());
+        ResourceWatcherMetrics.ROLLOUT_QUEUE_DEPTH.set(queuedWritesByTarget.size());
+        return startedWrites;
+    }
+
+    private void startQueuedWrites(List<QueuedWrite> startedWrites) {
+        // Released from informer threads, which should not wait for in flight permits
+        for (QueuedWrite startedWrite : startedWrites) {
+            scheduler.execute(() -> writeQueuedAnnotations(startedWrite));
+        }
+    }
+
+    /**
+     * Queues a throttled write again, merged with the annotations queued in the meantime.
+     */
+    private void requeueThrottledWrite(String targetKey, QueuedWrite throttledWrite) {
+        List<QueuedWrite> startedWrites;
+        synchronized (this) {
+            QueuedWrite queuedWrite = queuedWritesByTarget.get(targetKey);
+            if (queuedWrite == null) {
+                queuedWritesByTarget.put(targetKey, throttledWrite);
+            } else {
+                throttledWrite.annotations.forEach(queuedWrite.annotations::putIfAbsent);
+                throttledWrite.ledgerEntries.forEach(queuedWrite.ledgerEntries::putIfAbsent);
+                queuedWrite.failureListeners.addAll(throttledWrite.failureListeners);
+            }
+            startedWrites = pollStartableWrites();
+        }
+        startQueuedWrites(startedWrites);
+    }
+
+    private void writeQueuedAnnotations(QueuedWrite queuedWrite) {
+        String deploymentName = queuedWrite.deploymentName;
+        String deploymentNamespace = queuedWrite.deploymentNamespace;
+        String targetKey = deploymentNamespace + "/" + deploymentName;
+        writeAnnotations(targetKey, deploymentNamespace, deploymentName, queuedWrite.annotations, queuedWrite.ledgerEntries)
+                .whenComplete((v, error) -> {
+                    if (error == null) {
+                        return;
+                    }
+                    Throwable cause = error instanceof CompletionException ? error.getCause() : error;
+                    if (cause instanceof ApiException) {
+                        ApiException apiException = (ApiException) cause;
+                        if (apiException.getCode() == ApiRateLimiter.TOO_MANY_REQUESTS) {
+                            // The rollout slot was released, the write waits for a slot again after the delay
+                            Duration retryAfter = ApiRateLimiter.getRetryAfter(apiException);
+                            ResourceWatcherLog.warning("Api server throttled pod spec annotations on deployment {0}, queuing again in {1}ms",
+                                    targetKey, retryAfter.toMillis());
+                            scheduler.schedule(() -> requeueThrottledWrite(targetKey, queuedWrite), retryAfter.toNanos(), TimeUnit.NANOSECONDS);
+                            return;
+                        }
+                        ResourceWatcherLog.severe(apiException, "Unable to update pod spec annotations on deployment {0} in namespace {1}: Api error {2}: {3}",
+                                deploymentName, deploymentNamespace, apiException.getCode(), apiException.getResponseBody());
+                    } else {
+                        ResourceWatcherLog.severe(cause, "Unable to update pod spec annotations on deployment {0} in namespace {1}: {2}", deploymentName, deploymentNamespace, cause.getMessage());
+                    }
+                    queuedWrite.failureListeners.forEach(listener -> listener.accept(cause));
+                });
+    }
+
+    // Package private, for tests
+    void releaseTimedOutRollouts() {
+        long nowNanos = System.nanoTime();
+        List<String> timedOutTargets = new ArrayList<>();
+        synchronized (this) {
+            rolloutsByTarget.forEach((targetKey, rollout) -> {
+                if (nowNanos - rollout.startNanos > rolloutTimeout.toNanos()) {
+                    timedOutTargets.add(targetKey);
+                }
+            });
+        }
+        for (String targetKey : timedOutTargets) {
+            ResourceWatcherLog.warning("Rollout of deployment {0} did not complete within {1}, releasing its slot", targetKey, rolloutTimeout);
+            releaseRollout(targetKey, "timed_out");
+        }
+    }
+
+    /**
+     * Whether the deployment controller observed the written generation, and all replicas are updated and available.
+     */
+    static boolean isRolloutComplete(V1Deployment deployment, Long writtenGeneration) {
+        V1DeploymentStatus status = deployment.getStatus();
+        if (status == null) {
+            return false;
+        }
+        long generation = Optional.ofNullable(writtenGeneration)
+                .or(() -> Optional.ofNullable(deployment.getMetadata().getGeneration()))
+                .orElse(0L);
+        long observedGeneration = Optional.ofNullable(status.getObservedGeneration()).orElse(0L);
+        if (observedGeneration < generation) {
+            return false;
+        }
+        int specReplicas = Optional.ofNullable(deployment.getSpec())
+                .map(V1DeploymentSpec::getReplicas)
+                .orElse(1);
+        int replicas = Optional.ofNullable(status.getReplicas()).orElse(0);
+        int updatedReplicas = Optional.ofNullable(status.getUpdatedReplicas()).orElse(0);
+        int availableReplicas = Optional.ofNullable(status.getAvailableReplicas()).orElse(0);
+        // Old replicas still terminating count in the status replicas
+        return updatedReplicas >= specReplicas && replicas <= updatedReplicas && availableReplicas >= updatedReplicas;
+    }
+
+    private static String getTargetKey(V1Deployment deployment) {
+        V1ObjectMeta metadata = deployment.getMetadata();
+        return metadata.getNamespace() + "/" + metadata.getName();
+    }
+
+    private static class Rollout {
+        private final String namespace;
+        private final long startNanos;
+        private boolean written;
+        // The generation written, if known
+        private Long generation;
+
+        private Rollout(String namespace, long startNanos) {
+            this.namespace = namespace;
+            this.startNanos = startNanos;
+        }
+    }
+
+    private static class QueuedWrite {
+        private final String deploymentNamespace;
+        private final String deploymentName;
+        private final Map<String, String> annotations = new HashMap<>();
+        private final Map<String, String> ledgerEntries = new HashMap<>();
+        private final List<Consumer<Throwable>> failureListeners = new ArrayList<>();
+
+        private QueuedWrite(String deploymentNamespace, String deploymentName) {
+            this.deploymentNamespace = deploymentNamespace;
+            this.deploymentName = deploymentName;
+        }
+    }
+}
@@ -0,0 +1,340 @@
+package com.charlyghislain.resourcewatcher;
+
+import io.kubernetes.client.openapi.ApiException;
+import io.kubernetes.client.openapi.apis.CoordinationV1Api;
+import io.kubernetes.client.openapi.models.V1Lease;
+import io.kubernetes.client.openapi.models.V1LeaseSpec;
+import io.kubernetes.client.openapi.models.V1ObjectMeta;
+
+import java.net.HttpURLConnection;
+import java.time.Duration;
+import java.time.OffsetDateTime;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.Set;
+import java.util.function.BiConsumer;
+import java.util.function.IntFunction;
+
+/**
+ * Distributes the shards of the watched resources among the live replicas.
+ * <p>
+ * Each replica renews a member lease. Shards are assigned to the live members by consistent hashing, and a shard only
+ * runs on the holder of its shard lease. When members join or leave, replicas release the shards they are no longer
+ * assigned, which their new owner acquires on its next round. Leases are considered expired when their renew time
+ * did not change for a lease duration, as observed on the local clock.
+ */
+public class ShardCoordinator {
+
+    public static final String SHARD_GROUP_LABEL = "com.charlyghislain.resourcewatcher/shard-group";
+    private static final String SHARD_KEY_PREFIX = "shard-";
+
+    private final CoordinationV1Api coordinationV1Api;
+    private final String namespace;
+    private final String leaseName;
+    private final String identity;
+    private final int shardCount;
+    private final Duration leaseDuration;
+    private final Duration renewDeadline;
+    private final IntFunction<WatchedResourceControllers> shardControllersFactory;
+    private final Map<String, ObservedRenewal> observedRenewals = new HashMap<>();
+    private final Map<Integer, OwnedShard> ownedShards = new HashMap<>();
+
+    public ShardCoordinator(CoordinationV1Api coordinationV1Api, String namespace, String leaseName, String identity, int shardCount,
+                            Duration leaseDuration, Duration renewDeadline, IntFunction<WatchedResourceControllers> shardControllersFactory) {
+        this.coordinationV1Api = coordinationV1Api;
+        this.namespace = namespace;
+        this.leaseName = leaseName;
+        this.identity = identity;
+        this.shardCount = shardCount;
+        this.leaseDuration = leaseDuration;
+        this.renewDeadline = renewDeadline;
+        this.shardControllersFactory = shardControllersFactory;
+    }
+
+    /**
+     * The shard of the watched resources of a namespace.
+     */
+    public static int getShard(String namespace, int shardCount) {
+        return (int) Math.floorMod(ConsistentHashRing.hash(namespace), (long) shardCount);
+    }
+
+    /**
+     * Renews the member lease, then acquires, renews or releases the shards according to the live members.
+     */
+    public synchronized void runRound() {
+        try {
+            renewMemberLease();
+        } catch (ApiException e) {
+            ResourceWatcherLog.warning("Unable to renew member lease: {0} {1}", e.getCode(), e.getMessage());
+        }
+        Set<String> liveMembers;
+        try {
+            liveMembers = listLiveMembers();
+        } catch (ApiException e) {
+            // Keep running the owned shards until their renew deadline
+            ResourceWatcherLog.warning("Unable to list members: {0} {1}", e.getCode(), e.getMessage());
+            liveMembers = null;
+        }
+
+        ConsistentHashRing ring = liveMembers == null ? null : new ConsistentHashRing(liveMembers);
+        for (int shard = 0; shard < shardCount; shard++) {
+            OwnedShard ownedShard = ownedShards.get(shard);
+            boolean assigned = ring == null
+                    ? ownedShard != null
+                    : identity.equals(ring.getMember(SHARD_KEY_PREFIX + shard));
+            if (!assigned) {
+                if (ownedShard != null) {
+                    stopShard(shard, true);
+                }
+                continue;
+            }
+            runAssignedShard(shard, ownedShard);
+        }
+        ResourceWatcherMetrics.SHARD_MEMBERS.set(liveMembers == null ? 0 : liveMembers.size());
+        ResourceWatcherMetrics.SHARDS_OWNED.set(ownedShards.size());
+    }
+
+    /**
+     * Applies a change to the controllers of each shard run by this replica.
+     */
+    public synchronized void forEachOwnedShard(BiConsumer<Integer, WatchedResourceControllers> shardControllersConsumer) {
+        ownedShards.forEach((shard, ownedShard) -> shardControllersConsumer.accept(shard, ownedShard.controllers));
+    }
+
+    /**
+     * Stops all shards and releases their leases, then removes the member lease.
+     */
+    public synchronized void close() {
+        for (Integer shard : Set.copyOf(ownedShards.keySet())) {
+            stopShard(shard, true);
+        }
+        try {
+            coordinationV1Api.deleteNamespacedLease(getMemberLeaseName(), namespace, null, null, null, null, null, null);
+        } catch (ApiException e) {
+            ResourceWatcherLog.fine("Unable to delete member lease: {0} {1}", e.getCode(), e.getMessage());
+        }
+        ResourceWatcherMetrics.SHARDS_OWNED.set(0);
+    }
+
+    private void runAssignedShard(int shard, OwnedShard ownedShard) {
+        long nowNanos = System.nanoTime();
+        boolean held;
+        try {
+            held = acquireOrRenewShardLease(shard);
+        } catch (ApiException e) {
+            ResourceWatcherLog.warning("Unable to renew lease of shard {0}: {1} {2}", shard, e.getCode(), e.getMessage());
+            held = ownedShard != null && nowNanos - ownedShard.renewNanos < renewDeadline.toNanos();
+            if (held) {
+                return;
+            }
+        }
+        if (!held) {
+            if (ownedShard != null) {
+                // Another replica took over the lease
+                stopShard(shard, false);
+            }
+            return;
+        }
+        if (ownedShard == null) {
+            ownedShard = startShard(shard);
+        }
+        ownedShard.renewNanos = nowNanos;
+    }
+
+    private OwnedShard startShard(int shard) {
+        WatchedResourceControllers controllers = shardControllersFactory.apply(shard);
+        controllers.start();
+        OwnedShard ownedShard = new OwnedShard(controllers);
+        ownedShards.put(shard, ownedShard);
+        ResourceWatcherMetrics.SHARD_TRANSITIONS.labels("acquired").inc();
+        ResourceWatcherLog.info("Started shard {0} as {1}", shard, identity);
+        return ownedShard;
+    }
+
+    private void stopShard(int shard, boolean releaseLease) {
+        OwnedShard ownedShard = ownedShards.remove(shard);
+        if (ownedShard == null) {
+            return;
+        }
+        ownedShard.controllers.stop();
+        ResourceWatcherMetrics.SHARD_TRANSITIONS.labels("released").inc();
+        ResourceWatcherLog.info("Stopped shard {0} as {1}", shard, identity);
+        if (releaseLease) {
+            releaseShardLease(shard);
+        }
+    }
+
+    private boolean acquireOrRenewShardLease(int shard) throws ApiException {
+        String shardLeaseName = getShardLeaseName(shard);
+        V1Lease lease = readLease(shardLeaseName);
+        OffsetDateTime now = OffsetDateTime.now();
+        if (lease == null) {
+            V1Lease newLease = new V1Lease()
+                    .metadata(new V1ObjectMeta()
+                            .name(shardLeaseName)
+                            .namespace(namespace)
+                            .labels(Map.of(SHARD_GROUP_LABEL, leaseName)))
+                    .spec(createLeaseSpec(now).acquireTime(now).leaseTransitions(0));
+            return writeLease(() -> coordinationV1Api.createNamespacedLease(namespace, newLease, null, null, null));
+        }
+        V1LeaseSpec spec = Optional.ofNullable(lease.getSpec()).orElseGet(V1LeaseSpec::new);
+        String holderIdentity = spec.getHolderIdentity();
+        boolean heldByUs = identity.equals(holderIdentity);
+        boolean free = holderIdentity == null || holderIdentity.isEmpty() || isExpired(shardLeaseName, spec);
+        if (!heldByUs && !free) {
+            return false;
+        }
+        if (!heldByUs) {
+            int leaseTransitions = Optional.ofNullable(spec.getLeaseTransitions()).orElse(0);
+            spec.acquireTime(now).leaseTransitions(leaseTransitions + 1);
+        }
+        spec.holderIdentity(identity)
+                .renewTime(now)
+                .leaseDurationSeconds((int) leaseDuration.toSeconds());
+        lease.spec(spec);
+        return writeLease(() -> coordinationV1Api.replaceNamespacedLease(shardLeaseName, namespace, lease, null, null, null));
+    }
+
+    private void releaseShardLease(int shard) {
+        String shardLeaseName = getShardLeaseName(shard);
+        try {
+            V1Lease lease = readLease(shardLeaseName);
+            if (lease == null || lease.getSpec() == null || !identity.equals(lease.getSpec().getHolderIdentity())) {
+                return;
+            }
+            lease.getSpec().holderIdentity(null);
+            coordinationV1Api.replaceNamespacedLease(shardLeaseName, namespace, lease, null, null, null);
+        } catch (ApiException e) {
+            // The lease will expire
+            ResourceWatcherLog.fine("Unable to release lease of shard {0}: {1} {2}", shard, e.getCode(), e.getMessage());
+        }
+    }
+
+    private void renewMemberLease() throws ApiException {
+        String memberLeaseName = getMemberLeaseName();
+        V1Lease lease = readLease(memberLeaseName);
+        OffsetDateTime now = OffsetDateTime.now();
+        if (lease == null) {
+            V1Lease newLease = new V1Lease()
+                    .metadata(new V1ObjectMeta()
+                            .name(memberLeaseName)
+                            .namespace(namespace)
+                            .labels(Map.of(SHARD_GROUP_LABEL, leaseName)))
+                    .spec(createLeaseSpec(now).acquireTime(now));
+            coordinationV1Api.createNamespacedLease(namespace, newLease, null, null, null);
+            return;
+        }
+        lease.spec(Optional.ofNullable(lease.getSpec()).orElseGet(V1LeaseSpec::new)
+                .holderIdentity(identity)
+                .renewTime(now));
+        coordinationV1Api.replaceNamespacedLease(memberLeaseName, namespace, lease, null, null, null);
+    }
+
+    private Set<String> listLiveMembers() throws ApiException {
+        String labelSelector = SHARD_GROUP_LABEL + "=" + leaseName;
+        String memberLeasePrefix = leaseName + "-member-";
+        Set<String> liveMembers = new HashSet<>();
+        Set<String> listedLeaseNames = new HashSet<>();
+        for (V1Lease lease : coordinationV1Api.listNamespacedLease(namespace, null, null, null, null, labelSelector,
+                null, null, null, null, null).getItems()) {
+            String name = lease.getMetadata().getName();
+            listedLeaseNames.add(name);
+            V1LeaseSpec spec = lease.getSpec();
+            if (!name.startsWith(memberLeasePrefix) || spec == null || spec.getHolderIdentity() == null) {
+                continue;
+            }
+            if (!isExpired(name, spec)) {
+                liveMembers.add(spec.getHolderIdentity());
+            } else if (!identity.equals(spec.getHolderIdentity())) {
+                deleteExpiredMemberLease(name);
+            }
+        }
+        observedRenewals.keySet().retainAll(listedLeaseNames);
+        liveMembers.add(identity);
+        return liveMembers;
+    }
+
+    private void deleteExpiredMemberLease(String name) {
+        try {
+            coordinationV1Api.deleteNamespacedLease(name, namespace, null, null, null, null, null, null);
+            ResourceWatcherLog.fine("Deleted expired member lease {0}", name);
+        } catch (ApiException e) {
+            ResourceWatcherLog.fine("Unable to delete expired member lease {0}: {1} {2}", name, e.getCode(), e.getMessage());
+        }
+    }
+
+    private boolean isExpired(String leaseName, V1LeaseSpec spec) {
+        long nowNanos = System.nanoTime();
+        ObservedRenewal observedRenewal = observedRenewals.get(leaseName);
+        if (observedRenewal == null
+                || !Objects.equals(observedRenewal.holderIdentity, spec.getHolderIdentity())
+                || !Objects.equals(observedRenewal.renewTime, spec.getRenewTime())) {
+            observedRenewals.put(leaseName, new ObservedRenewal(spec.getHolderIdentity(), spec.getRenewTime(), nowNanos));
+            return false;
+        }
+        return nowNanos - observedRenewal.observedNanos > leaseDuration.toNanos();
+    }
+
+    private V1LeaseSpec createLeaseSpec(OffsetDateTime now) {
+        return new V1LeaseSpec()
+                .holderIdentity(identity)
+                .renewTime(now)
+                .leaseDurationSeconds((int) leaseDuration.toSeconds());
+    }
+
+    private V1Lease readLease(String name) throws ApiException {
+        try {
+            return coordinationV1Api.readNamespacedLease(name, namespace, null, null, null);
+        } catch (ApiException e) {
+            if (e.getCode() == HttpURLConnection.HTTP_NOT_FOUND) {
+                return null;
+            }
+            throw e;
+        }
+    }
+
+    private static boolean writeLease(ResourceWatcherMetrics.ApiCall<V1Lease> apiCall) throws ApiException {
+        try {
+            apiCall.call();
+            return true;
+        } catch (ApiException e) {
+            if (e.getCode() == HttpURLConnection.HTTP_CONFLICT) {
+                // Another replica wrote the lease first
+                return false;
+            }
+            throw e;
+        }
+    }
+
+    private String getMemberLeaseName() {
+        return leaseName + "-member-" + identity;
+    }
+
+    private String getShardLeaseName(int shard) {
+        return leaseName + "-" + SHARD_KEY_PREFIX + shard;
+    }
+
+    private static class ObservedRenewal {
+        private final String holderIdentity;
+        private final OffsetDateTime renewTime;
+        private final long observedNanos;
+
+        private ObservedRenewal(String holderIdentity, OffsetDateTime renewTime, long observedNanos) {
+            this.holderIdentity = holderIdentity;
+            this.renewTime = renewTime;
+            this.observedNanos = observedNanos;
+        }
+    }
+
+    private static class OwnedShard {
+        private final WatchedResourceControllers controllers;
+        private long renewNanos;
+
+        private OwnedShard(WatchedResourceControllers controllers) {
+            this.controllers = controllers;
+        }
+    }
+}
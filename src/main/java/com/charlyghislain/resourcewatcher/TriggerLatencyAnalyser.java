@@ -0,0 +1,145 @@
+package com.charlyghislain.resourcewatcher;
+
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Prints the latency breakdown of the triggers traced in a flight recording, per stage.
+ * <p>
+ * Stages of a trigger are matched by its watched resource config, and the uid and resource version of the watched
+ * object, as several watched resources may watch the same object. A version updated again before being dequeued is
+ * only reconciled at its latest version, its earlier triggers are counted as superseded.
+ * <p>
+ * Usage: java -cp resourcewatcher.jar com.charlyghislain.resourcewatcher.TriggerLatencyAnalyser recording.jfr
+ */
+public class TriggerLatencyAnalyser {
+
+    public static void main(String[] args) throws IOException {
+        if (args.length != 1) {
+            System.err.println("Usage: TriggerLatencyAnalyser <recording.jfr>");
+            System.exit(1);
+            return;
+        }
+        Path recordingPath = Paths.get(args[0]);
+        List<RecordedEvent> events = new ArrayList<>();
+        for (RecordedEvent event : RecordingFile.readAllEvents(recordingPath)) {
+            if (event.getEventType().getName().startsWith(TriggerTracing.EVENT_NAME_PREFIX)) {
+                events.add(event);
+            }
+        }
+        events.sort(Comparator.comparing(RecordedEvent::getStartTime));
+
+        Map<String, List<Duration>> durationsByStage = new TreeMap<>();
+        Map<String, TriggerStages> triggersByKey = new HashMap<>();
+        for (RecordedEvent event : events) {
+            String eventName = event.getEventType().getName().substring(TriggerTracing.EVENT_NAME_PREFIX.length());
+            String triggerKey = getTriggerKey(event);
+            TriggerStages trigger = triggerKey == null ? null : triggersByKey.get(triggerKey);
+            switch (eventName) {
+                case "InformerEvent":
+                    if (triggerKey != null && trigger == null) {
+                        triggersByKey.put(triggerKey, new TriggerStages(event.getStartTime()));
+                    }
+                    break;
+                case "Filter":
+                    addDuration(durationsByStage, "1 filter", event.getDuration());
+                    if (trigger != null && !event.getBoolean("accepted")) {
+                        triggersByKey.remove(triggerKey);
+                    }
+                    break;
+                case "Enqueue":
+                    if (trigger != null && trigger.enqueued == null) {
+                        trigger.enqueued = event.getStartTime();
+                        addDuration(durationsByStage, "2 informer to enqueue", Duration.between(trigger.received, trigger.enqueued));
+                    }
+                    break;
+                case "Dequeue":
+                    if (trigger != null && trigger.enqueued != null && trigger.dequeued == null) {
+                        trigger.dequeued = event.getStartTime();
+                        addDuration(durationsByStage, "3 queue wait", Duration.between(trigger.enqueued, trigger.dequeued));
+                    }
+                    break;
+                case "Reconcile":
+                    addDuration(durationsByStage, "5 reconcile", event.getDuration());
+                    if (trigger != null && trigger.dequeued != null && trigger.reconciled == null) {
+                        trigger.reconciled = event.getEndTime();
+                        addDuration(durationsByStage, "4 dequeue to reconcile", Duration.between(trigger.dequeued, event.getStartTime()));
+                        addDuration(durationsByStage, "8 trigger to reconciled", Duration.between(trigger.received, trigger.reconciled));
+                    }
+                    break;
+                case "Action":
+                    addDuration(durationsByStage, "6 action " + event.getString("action"), event.getDuration());
+                    break;
+                case "ApiCall":
+                    addDuration(durationsByStage, "7 api call " + event.getString("operation"), event.getDuration());
+                    break;
+                default:
+                    break;
+            }
+        }
+
+        long supersededCount = triggersByKey.values().stream()
+                .filter(trigger -> trigger.enqueued != null && trigger.reconciled == null)
+                .count();
+        System.out.println(String.format(Locale.ROOT, "%-40s %8s %10s %10s %10s %10s", "stage", "count", "p50 ms", "p90 ms", "p99 ms", "max ms"));
+        durationsByStage.forEach((stage, durations) -> printStage(stage.substring(2), durations));
+        System.out.println("Triggers enqueued but not reconciled at their version (superseded or pending): " + supersededCount);
+    }
+
+    /**
+     * The trigger key of the events of a watched resource, null for other events.
+     */
+    private static String getTriggerKey(RecordedEvent event) {
+        if (!event.hasField("watchedResource")) {
+            return null;
+        }
+        String watchedResource = event.getString("watchedResource");
+        String uid = event.getString("uid");
+        String resourceVersion = event.getString("resourceVersion");
+        if (watchedResource == null || uid == null || resourceVersion == null) {
+            return null;
+        }
+        return watchedResource + "#" + uid + "@" + resourceVersion;
+    }
+
+    private static void addDuration(Map<String, List<Duration>> durationsByStage, String stage, Duration duration) {
+        durationsByStage.computeIfAbsent(stage, s -> new ArrayList<>()).add(duration);
+    }
+
+    private static void printStage(String stage, List<Duration> durations) {
+        durations.sort(Comparator.naturalOrder());
+        System.out.println(String.format(Locale.ROOT, "%-40s %8d %10.3f %10.3f %10.3f %10.3f", stage, durations.size(),
+                getPercentileMillis(durations, 0.5), getPercentileMillis(durations, 0.9), getPercentileMillis(durations, 0.99),
+                getPercentileMillis(durations, 1)));
+    }
+
+    private static double getPercentileMillis(List<Duration> sortedDurations, double percentile) {
+        int index = (int) Math.ceil(percentile * sortedDurations.size()) - 1;
+        Duration duration = sortedDurations.get(Math.max(0, index));
+        return duration.toNanos() / 1e6;
+    }
+
+    private static class TriggerStages {
+        private final Instant received;
+        private Instant enqueued;
+        private Instant dequeued;
+        private Instant reconciled;
+
+        private TriggerStages(Instant received) {
+            this.received = received;
+        }
+    }
+}
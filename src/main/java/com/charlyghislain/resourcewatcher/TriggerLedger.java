@@ -0,0 +1,81 @@
+package com.charlyghislain.resourcewatcher;
+
+import com.charlyghislain.resourcewatcher.config.ResourceActionSpec;
+import io.kubernetes.client.common.KubernetesObject;
+import io.kubernetes.client.openapi.models.V1ObjectMeta;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Optional;
+import java.util.function.Predicate;
+
+/**
+ * Records, on the annotated resources, the payload digest of the watched resources their actions were triggered for.
+ * <p>
+ * Entries are annotations of the annotated resource metadata, so that writing them does not trigger a rollout, and
+ * reading them only requires the cached resource. A trigger for a digest already recorded, such as the add events
+ * replayed after a restart, is skipped.
+ * <p>
+ * Entry values hold the watched object reference along with the digest, as kind/namespace/name@digest. When writing an
+ * entry, the entries of the same watched kind whose object no longer exists are removed, so that deleted watched
+ * resources do not accumulate on the deployments.
+ */
+public class TriggerLedger {
+
+    public static final String ENTRY_ANNOTATION_PREFIX = "ledger.resourcewatcher.charlyghislain.com/";
+    // Annotation names are limited to 63 characters
+    private static final int ENTRY_KEY_LENGTH = 32;
+
+    /**
+     * The annotation holding the entry of a watched resource for an action annotation.
+     */
+    public static String getEntryAnnotationName(String watchedKind, KubernetesObject watchedObject, ResourceActionSpec actionSpec) {
+        V1ObjectMeta metadata = watchedObject.getMetadata();
+        String entryKey = watchedKind + "/" + metadata.getNamespace() + "/" + metadata.getName()
+                + "#" + actionSpec.getAnnotatedResourceAnnotationName();
+        String entryHash = ResourceDigests.computeStringDigest(entryKey);
+        return ENTRY_ANNOTATION_PREFIX + entryHash.substring(0, ENTRY_KEY_LENGTH);
+    }
+
+    /**
+     * The entry value recording the payload digest of a watched resource.
+     */
+    public static String getEntryValue(String watchedKind, KubernetesObject watchedObject, String payloadDigest) {
+        V1ObjectMeta metadata = watchedObject.getMetadata();
+        return watchedKind + "/" + metadata.getNamespace() + "/" + metadata.getName() + "@" + payloadDigest;
+    }
+
+    public static boolean isHandled(V1ObjectMeta annotatedResourceMetadata, String entryAnnotationName, String entryValue) {
+        return Optional.ofNullable(annotatedResourceMetadata)
+                .map(V1ObjectMeta::getAnnotations)
+                .map(annotations -> annotations.get(entryAnnotationName))
+                .map(entryValue::equals)
+                .orElse(false);
+    }
+
+    /**
+     * The ledger annotations to write: the entry, and the removal, as null values, of the entries of this watched kind
+     * whose object is stale.
+     *
+     * @param staleObjectTest tests the namespace/name of the watched objects referenced by the existing entries
+     */
+    public static Map<String, String> createEntry(V1ObjectMeta annotatedResourceMetadata, String entryAnnotationName, String entryValue,
+                                                  String watchedKind, Predicate<String> staleObjectTest) {
+        Map<String, String> ledgerEntries = new HashMap<>();
+        Map<String, String> annotations = Optional.ofNullable(annotatedResourceMetadata)
+                .map(V1ObjectMeta::getAnnotations)
+                .orElse(Map.of());
+        String kindPrefix = watchedKind + "/";
+        annotations.forEach((name, value) -> {
+            if (!name.startsWith(ENTRY_ANNOTATION_PREFIX) || !value.startsWith(kindPrefix)) {
+                return;
+            }
+            int digestIndex = value.lastIndexOf('@');
+            if (digestIndex > kindPrefix.length() && staleObjectTest.test(value.substring(kindPrefix.length(), digestIndex))) {
+                ledgerEntries.put(name, null);
+            }
+        });
+        ledgerEntries.put(entryAnnotationName, entryValue);
+        return ledgerEntries;
+    }
+}
@@ -0,0 +1,277 @@
+package com.charlyghislain.resourcewatcher;
+
+import io.kubernetes.client.common.KubernetesObject;
+import io.kubernetes.client.extended.controller.reconciler.Request;
+import io.kubernetes.client.openapi.models.V1ObjectMeta;
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+import java.util.function.BooleanSupplier;
+import java.util.function.Function;
+
+/**
+ * Flight recorder events tracing a trigger, from the informer event to the api calls of its actions.
+ * <p>
+ * Events are correlated by the uid and resource version of the watched resource. Api calls are correlated with the
+ * reconcile running on the calling thread, calls made outside a reconcile, such as coalesced or queued writes, are
+ * not. Events do not record stack traces, and are only allocated while a recording enables them: begin methods
+ * return null otherwise, which end methods accept.
+ */
+public class TriggerTracing {
+
+    public static final String EVENT_NAME_PREFIX = "com.charlyghislain.resourcewatcher.";
+    private static final String CATEGORY = "Resource Watcher";
+
+    // The watched resource reconciled on this thread
+    private static final ThreadLocal<V1ObjectMeta> RECONCILED_OBJECT = new ThreadLocal<>();
+    // Never committed, they tell whether a recording enables their event type
+    private static final InformerEvent INFORMER_EVENT = new InformerEvent();
+    private static final FilterEvent FILTER_EVENT = new FilterEvent();
+    private static final EnqueueEvent ENQUEUE_EVENT = new EnqueueEvent();
+    private static final DequeueEvent DEQUEUE_EVENT = new DequeueEvent();
+    private static final ReconcileEvent RECONCILE_EVENT = new ReconcileEvent();
+    private static final ActionEvent ACTION_EVENT = new ActionEvent();
+    private static final ApiCallEvent API_CALL_EVENT = new ApiCallEvent();
+
+    /**
+     * Traces an informer event and the filter decision on it, returning the decision.
+     */
+    public static boolean traceFilter(String watchedResource, WatchedResourceMetrics.EventType eventType, KubernetesObject kubernetesObject,
+                                      BooleanSupplier filter) {
+        if (INFORMER_EVENT.isEnabled()) {
+            InformerEvent informerEvent = new InformerEvent();
+            informerEvent.watchedResource = watchedResource;
+            informerEvent.eventType = eventType.getLabel();
+            informerEvent.setObject(kubernetesObject.getMetadata());
+            informerEvent.commit();
+        }
+        if (!FILTER_EVENT.isEnabled()) {
+            return filter.getAsBoolean();
+        }
+        FilterEvent filterEvent = new FilterEvent();
+        filterEvent.begin();
+        boolean accepted = filter.getAsBoolean();
+        filterEvent.end();
+        if (filterEvent.shouldCommit()) {
+            filterEvent.watchedResource = watchedResource;
+            filterEvent.eventType = eventType.getLabel();
+            filterEvent.setObject(kubernetesObject.getMetadata());
+            filterEvent.accepted = accepted;
+            filterEvent.commit();
+        }
+        return accepted;
+    }
+
+    /**
+     * Traces a request added to the work queue, with the cached version of its watched resource.
+     */
+    public static void traceEnqueue(String watchedResource, Request request, Function<Request, KubernetesObject> objectLookup) {
+        if (!ENQUEUE_EVENT.isEnabled()) {
+            return;
+        }
+        EnqueueEvent event = new EnqueueEvent();
+        event.watchedResource = watchedResource;
+        event.setRequest(request, objectLookup.apply(request));
+        event.commit();
+    }
+
+    /**
+     * Traces a request taken by a worker, with the cached version of its watched resource, about to be reconciled.
+     */
+    public static void traceDequeue(String watchedResource, Request request, Function<Request, KubernetesObject> objectLookup) {
+        if (!DEQUEUE_EVENT.isEnabled()) {
+            return;
+        }
+        DequeueEvent event = new DequeueEvent();
+        event.watchedResource = watchedResource;
+        event.setRequest(request, objectLookup.apply(request));
+        event.commit();
+    }
+
+    /**
+     * Starts tracing the reconcile of a watched resource on this thread, until ended.
+     */
+    public static ReconcileEvent beginReconcile(String watchedResource, KubernetesObject kubernetesObject) {
+        RECONCILED_OBJECT.set(kubernetesObject.getMetadata());
+        if (!RECONCILE_EVENT.isEnabled()) {
+            return null;
+        }
+        ReconcileEvent event = new ReconcileEvent();
+        event.begin();
+        event.watchedResource = watchedResource;
+        return event;
+    }
+
+    public static void endReconcile(ReconcileEvent event, boolean requeue) {
+        V1ObjectMeta objectMeta = RECONCILED_OBJECT.get();
+        RECONCILED_OBJECT.remove();
+        if (event == null) {
+            return;
+        }
+        event.end();
+        if (event.shouldCommit()) {
+            event.setObject(objectMeta);
+            event.requeue = requeue;
+            event.commit();
+        }
+    }
+
+    public static ActionEvent beginAction(String watchedResource, String action) {
+        if (!ACTION_EVENT.isEnabled()) {
+            return null;
+        }
+        ActionEvent event = new ActionEvent();
+        event.begin();
+        event.watchedResource = watchedResource;
+        event.action = action;
+        event.setObject(RECONCILED_OBJECT.get());
+        return event;
+    }
+
+    /**
+     * Ends an action, once its writes completed.
+     */
+    public static void endAction(ActionEvent event, boolean success) {
+        if (event == null) {
+            return;
+        }
+        event.end();
+        if (event.shouldCommit()) {
+            event.success = success;
+            event.commit();
+        }
+    }
+
+    public static ApiCallEvent beginApiCall(String operation) {
+        if (!API_CALL_EVENT.isEnabled()) {
+            return null;
+        }
+        ApiCallEvent event = new ApiCallEvent();
+        event.begin();
+        event.operation = operation;
+        event.setObject(RECONCILED_OBJECT.get());
+        return event;
+    }
+
+    /**
+     * Ends an api call, possibly on another thread.
+     */
+    public static void endApiCall(ApiCallEvent event, String status) {
+        if (event == null) {
+            return;
+        }
+        event.end();
+        if (event.shouldCommit()) {
+            event.status = status;
+            event.commit();
+        }
+    }
+
+    @StackTrace(false)
+    @Category(CATEGORY)
+    abstract static class TriggerEvent extends Event {
+        @Label("Uid")
+        @Description("Uid of the watched resource")
+        String uid;
+        @Label("Resource Version")
+        @Description("Resource version of the watched resource")
+        String resourceVersion;
+        @Label("Namespace")
+        String namespace;
+        @Label("Name")
+        String name;
+
+        void setRequest(Request request, KubernetesObject kubernetesObject) {
+            if (kubernetesObject != null) {
+                setObject(kubernetesObject.getMetadata());
+                return;
+            }
+            namespace = request.getNamespace();
+            name = request.getName();
+        }
+
+        void setObject(V1ObjectMeta objectMeta) {
+            if (objectMeta == null) {
+                return;
+            }
+            uid = objectMeta.getUid();
+            resourceVersion = objectMeta.getResourceVersion();
+            namespace = objectMeta.getNamespace();
+            name = objectMeta.getName();
+        }
+    }
+
+    @Name(EVENT_NAME_PREFIX + "InformerEvent")
+    @Label("Informer Event")
+    @Description("Informer event received for a watched resource")
+    static class InformerEvent extends TriggerEvent {
+        @Label("Watched Resource")
+        String watchedResource;
+        @Label("Event Type")
+        String eventType;
+    }
+
+    @Name(EVENT_NAME_PREFIX + "Filter")
+    @Label("Filter")
+    @Description("Filter decision on an informer event")
+    static class FilterEvent extends TriggerEvent {
+        @Label("Watched Resource")
+        String watchedResource;
+        @Label("Event Type")
+        String eventType;
+        @Label("Accepted")
+        boolean accepted;
+    }
+
+    @Name(EVENT_NAME_PREFIX + "Enqueue")
+    @Label("Enqueue")
+    @Description("Reconcile request added to the work queue")
+    static class EnqueueEvent extends TriggerEvent {
+        @Label("Watched Resource")
+        String watchedResource;
+    }
+
+    @Name(EVENT_NAME_PREFIX + "Dequeue")
+    @Label("Dequeue")
+    @Description("Reconcile request taken from the work queue by a worker")
+    static class DequeueEvent extends TriggerEvent {
+        @Label("Watched Resource")
+        String watchedResource;
+    }
+
+    @Name(EVENT_NAME_PREFIX + "Reconcile")
+    @Label("Reconcile")
+    @Description("Reconcile of a watched resource, including the writes of its actions")
+    static class ReconcileEvent extends TriggerEvent {
+        @Label("Watched Resource")
+        String watchedResource;
+        @Label("Requeue")
+        boolean requeue;
+    }
+
+    @Name(EVENT_NAME_PREFIX + "Action")
+    @Label("Action")
+    @Description("Action execution, until its writes completed")
+    static class ActionEvent extends TriggerEvent {
+        @Label("Watched Resource")
+        String watchedResource;
+        @Label("Action")
+        String action;
+        @Label("Success")
+        boolean success;
+    }
+
+    @Name(EVENT_NAME_PREFIX + "ApiCall")
+    @Label("Api Call")
+    @Description("Kubernetes api call, correlated with the reconcile that made it")
+    static class ApiCallEvent extends TriggerEvent {
+        @Label("Operation")
+        String operation;
+        @Label("Status")
+        String status;
+    }
+}
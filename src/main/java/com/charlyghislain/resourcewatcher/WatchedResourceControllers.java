@@ -0,0 +1,226 @@
+package com.charlyghislain.resourcewatcher;
+
+import com.charlyghislain.resourcewatcher.config.AnnotatedResourceKind;
+import com.charlyghislain.resourcewatcher.config.WatchedResource;
+import com.charlyghislain.resourcewatcher.config.WatchedResourceKind;
+import io.kubernetes.client.common.KubernetesObject;
+import io.kubernetes.client.extended.event.legacy.EventBroadcaster;
+import io.kubernetes.client.informer.ResourceEventHandler;
+import io.kubernetes.client.informer.SharedIndexInformer;
+import io.kubernetes.client.informer.SharedInformer;
+import io.kubernetes.client.openapi.apis.AppsV1Api;
+import io.kubernetes.client.openapi.apis.CoreV1Api;
+
+import java.text.MessageFormat;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+/**
+ * The informers and controllers of a set of watched resources.
+ * <p>
+ * Informers are shared by the watched resources of the set only. Controllers are registered in the shared reconcile
+ * engine. When the set is updated, only the controllers of added or removed watched resources are created or
+ * removed, along with the informers they were the only users of.
+ */
+public class WatchedResourceControllers {
+
+    private final ReconcileEngine reconcileEngine;
+    private final CoreV1Api coreV1Api;
+    private final AppsV1Api appsV1Api;
+    private final DeploymentAnnotationCoalescer annotationCoalescer;
+    private final EventBroadcaster eventBroadcaster;
+    // A single informer is shared by all watched resources of the same kind in the same namespace
+    private final WatchedResourceInformers watchedResourceInformers;
+    // Annotated deployments are resolved from a cache as well
+    private final DeploymentTargetCache deploymentTargetCache;
+    private final List<ControllerRegistration> registrations = new ArrayList<>();
+    private final Set<SharedInformer<?>> runningInformers = Collections.newSetFromMap(new IdentityHashMap<>());
+    private boolean started;
+
+    public WatchedResourceControllers(ResourceInformerFactory informerFactory, ReconcileEngine reconcileEngine,
+                                      CoreV1Api coreV1Api, AppsV1Api appsV1Api,
+                                      DeploymentAnnotationCoalescer annotationCoalescer, RolloutScheduler rolloutScheduler,
+                                      EventBroadcaster eventBroadcaster) {
+        this.reconcileEngine = reconcileEngine;
+        this.coreV1Api = coreV1Api;
+        this.appsV1Api = appsV1Api;
+        this.annotationCoalescer = annotationCoalescer;
+        this.eventBroadcaster = eventBroadcaster;
+        this.watchedResourceInformers = new WatchedResourceInformers(informerFactory, coreV1Api);
+        this.deploymentTargetCache = new DeploymentTargetCache(informerFactory, appsV1Api, rolloutScheduler);
+    }
+
+    /**
+     * Registers the controller of a watched resource, identified in metrics by its name or its index in the list.
+     * Returns whether it was registered, unhandled kinds being ignored.
+     */
+    public synchronized boolean addWatchedResource(int watchedResourceIndex, WatchedResource watchedResource) {
+        String resourceKindName = watchedResource.getKind();
+        WatchedResourceKind watchedResourceKind = WatchedResourceKind.parseName(resourceKindName)
+                .orElse(null);
+        if (watchedResourceKind == null) {
+            ResourceWatcherLog.severe("Ignoring unhandled watched resource kind: {0}", resourceKindName);
+            return false;
+        }
+        String namespace = watchedResource.getNamespace();
+        String resourceLabel = watchedResource.getKind() + " in namespace " + namespace;
+        // Fail before creating any informer for invalid selectors or actions
+        WatchedResourceFilter.compile(watchedResource);
+        WatchedResourceReconcilier.validate(watchedResource, watchedResourceKind);
+        String metricsName = Optional.ofNullable(watchedResource.getName())
+                .filter(n -> !n.isBlank())
+                .orElse(watchedResource.getKind() + "/" + namespace + "#" + watchedResourceIndex);
+        WatchedResourceMetrics watchedResourceMetrics = ResourceWatcherMetrics.forWatchedResource(metricsName);
+        String controllerName = MessageFormat.format("resource-watcher-{0}-{1}-{2}",
+                namespace, resourceKindName, StringUtils.getRandomAlphanumericString(8));
+
+        SharedIndexInformer<? extends KubernetesObject> indexInformer = watchedResourceInformers.getInformer(
+                watchedResourceKind, namespace, watchedResource.isMetadataOnly()
+        );
+        ResourceDigestCache<? extends KubernetesObject> digestCache = watchedResourceInformers.getDigestCache(
+                watchedResourceKind, namespace, watchedResource.isMetadataOnly()
+        );
+        ResourceEventHandler<? extends KubernetesObject> eventHandler;
+        try {
+            eventHandler = ResourceWatcher.registerController(controllerName, reconcileEngine, watchedResourceInformers, coreV1Api, appsV1Api, deploymentTargetCache, annotationCoalescer, indexInformer, digestCache, watchedResourceMetrics, eventBroadcaster, watchedResourceKind, watchedResource);
+            ResourceWatcherLog.fine("Created controller for {0}", resourceLabel);
+        } catch (Exception e) {
+            ResourceWatcherLog.severe(e, "Unable to create controller for {0} : {1}", resourceLabel, e.getMessage());
+            throw new RuntimeException(e);
+        }
+
+        List<String> deploymentNamespaces = Optional.ofNullable(watchedResource.getActionList())
+                .orElse(List.of())
+                .stream()
+                .filter(a -> a.getAnnotatedResourceKind() != null)
+                .map(a -> a.getAnnotatedResourceKind() == AnnotatedResourceKind.REFERENCING_DEPLOYMENT_POD_TEMPLATE
+                        ? watchedResource.getNamespace()
+                        : a.getAnnotatedResourceNamespace())
+                .collect(Collectors.toList());
+        deploymentNamespaces.forEach(deploymentTargetCache::watchNamespace);
+        registrations.add(new ControllerRegistration(watchedResource, watchedResourceKind, controllerName, eventHandler, deploymentNamespaces));
+        return true;
+    }
+
+    /**
+     * Updates the watched resources, keyed by their index in the config list. Controllers of unchanged watched
+     * resources, and their informers, are kept.
+     */
+    public synchronized void updateWatchedResources(Map<Integer, WatchedResource> watchedResourcesByIndex) {
+        Map<Integer, WatchedResource> addedWatchedResources = new LinkedHashMap<>(watchedResourcesByIndex);
+        List<ControllerRegistration> removedRegistrations = new ArrayList<>();
+        for (ControllerRegistration registration : registrations) {
+            Optional<Integer> unchangedIndex = addedWatchedResources.entrySet().stream()
+                    .filter(e -> e.getValue().equals(registration.watchedResource))
+                    .map(Map.Entry::getKey)
+                    .findFirst();
+            if (unchangedIndex.isPresent()) {
+                addedWatchedResources.remove(unchangedIndex.get());
+            } else {
+                removedRegistrations.add(registration);
+            }
+        }
+        int unchangedCount = registrations.size() - removedRegistrations.size();
+        // Add first, so that informers still used by the added watched resources are kept
+        int addedCount = 0;
+        for (Map.Entry<Integer, WatchedResource> addedEntry : addedWatchedResources.entrySet()) {
+            try {
+                if (addWatchedResource(addedEntry.getKey(), addedEntry.getValue())) {
+                    addedCount++;
+                }
+            } catch (RuntimeException e) {
+                // Keep the other watched resources
+                ResourceWatcherLog.warning("Skipping watched resource #{0}: {1}", addedEntry.getKey(), e.getMessage());
+            }
+        }
+        removedRegistrations.forEach(this::removeController);
+        if (started) {
+            startInformers();
+        }
+        ResourceWatcherLog.info("Updated watched resources: {0} added, {1} removed, {2} unchanged",
+                addedCount, removedRegistrations.size(), unchangedCount);
+    }
+
+    public synchronized void start() {
+        if (started) {
+            return;
+        }
+        started = true;
+        startInformers();
+    }
+
+    public synchronized boolean hasSynced() {
+        return watchedResourceInformers.getAllInformers().stream().allMatch(SharedInformer::hasSynced)
+                && deploymentTargetCache.getAllInformers().stream().allMatch(SharedInformer::hasSynced);
+    }
+
+    public synchronized void stop() {
+        registrations.forEach(r -> reconcileEngine.unregisterController(r.controllerName));
+        registrations.clear();
+        if (!started) {
+            return;
+        }
+        runningInformers.forEach(SharedInformer::stop);
+        runningInformers.clear();
+        started = false;
+    }
+
+    private void startInformers() {
+        // Start informers manually, as only 1 per api type is stored in the informer factory
+        List<SharedInformer<?>> allInformers = new ArrayList<>();
+        allInformers.addAll(watchedResourceInformers.getAllInformers());
+        allInformers.addAll(deploymentTargetCache.getAllInformers());
+        for (SharedInformer<?> informer : allInformers) {
+            if (runningInformers.add(informer)) {
+                // Starts the informer threads and returns
+                informer.run();
+            }
+        }
+    }
+
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    private void removeController(ControllerRegistration registration) {
+        registrations.remove(registration);
+        reconcileEngine.unregisterController(registration.controllerName);
+        WatchedResource watchedResource = registration.watchedResource;
+        SharedInformer<?> unusedInformer = watchedResourceInformers.removeEventHandler(registration.watchedResourceKind,
+                watchedResource.getNamespace(), watchedResource.isMetadataOnly(), (ResourceEventHandler) registration.eventHandler);
+        stopInformer(unusedInformer);
+        for (String deploymentNamespace : registration.deploymentNamespaces) {
+            stopInformer(deploymentTargetCache.unwatchNamespace(deploymentNamespace));
+        }
+        ResourceWatcherLog.fine("Removed controller for {0} in namespace {1}", watchedResource.getKind(), watchedResource.getNamespace());
+    }
+
+    private void stopInformer(SharedInformer<?> informer) {
+        if (informer == null) {
+            return;
+        }
+        informer.stop();
+        runningInformers.remove(informer);
+    }
+
+    private static class ControllerRegistration {
+        private final WatchedResource watchedResource;
+        private final WatchedResourceKind watchedResourceKind;
+        private final String controllerName;
+        private final ResourceEventHandler<? extends KubernetesObject> eventHandler;
+        private final List<String> deploymentNamespaces;
+
+        private ControllerRegistration(WatchedResource watchedResource, WatchedResourceKind watchedResourceKind, String controllerName,
+                                       ResourceEventHandler<? extends KubernetesObject> eventHandler, List<String> deploymentNamespaces) {
+            this.watchedResource = watchedResource;
+            this.watchedResourceKind = watchedResourceKind;
+            this.controllerName = controllerName;
+            this.eventHandler = eventHandler;
+            this.deploymentNamespaces = deploymentNamespaces;
+        }
+    }
+}
@@ -0,0 +1,45 @@
+package com.charlyghislain.resourcewatcher;
+
+import com.charlyghislain.resourcewatcher.config.WatchedResource;
+import io.kubernetes.client.common.KubernetesObject;
+import io.kubernetes.client.openapi.models.V1ObjectMeta;
+
+import java.util.Locale;
+
+/**
+ * The namespace, label and field selectors of a watched resource, compiled once at startup.
+ */
+public class WatchedResourceFilter {
+
+    private final String namespace;
+    private final LabelSelector labelSelector;
+    private final FieldSelector fieldSelector;
+
+    private WatchedResourceFilter(String namespace, LabelSelector labelSelector, FieldSelector fieldSelector) {
+        this.namespace = namespace;
+        this.labelSelector = labelSelector;
+        this.fieldSelector = fieldSelector;
+    }
+
+    public static WatchedResourceFilter compile(WatchedResource watchedResource) {
+        // Namespaces are lowercase dns labels
+        String namespace = watchedResource.getNamespace().toLowerCase(Locale.ROOT);
+        LabelSelector labelSelector = LabelSelector.parse(watchedResource.getLabelSelectors());
+        FieldSelector fieldSelector = FieldSelector.parse(watchedResource.getFieldSelectors());
+        if (watchedResource.isMetadataOnly() && !fieldSelector.isMetadataSelector()) {
+            throw new IllegalArgumentException("Only metadata field selectors are supported when watching metadata only: " + fieldSelector);
+        }
+        return new WatchedResourceFilter(namespace, labelSelector, fieldSelector);
+    }
+
+    public boolean matches(KubernetesObject kubernetesObject) {
+        V1ObjectMeta metadata = kubernetesObject.getMetadata();
+        if (!namespace.equals(metadata.getNamespace())) {
+            return false;
+        }
+        if (!labelSelector.matches(metadata.getLabels())) {
+            return false;
+        }
+        return fieldSelector.matches(kubernetesObject);
+    }
+}
@@ -0,0 +1,196 @@
+package com.charlyghislain.resourcewatcher;
+
+import com.charlyghislain.resourcewatcher.config.WatchedResourceKind;
+import io.kubernetes.client.common.KubernetesObject;
+import io.kubernetes.client.informer.ResourceEventHandler;
+import io.kubernetes.client.informer.SharedIndexInformer;
+import io.kubernetes.client.openapi.apis.CoreV1Api;
+import io.kubernetes.client.openapi.models.V1ConfigMap;
+import io.kubernetes.client.openapi.models.V1ConfigMapList;
+import io.kubernetes.client.openapi.models.V1Pod;
+import io.kubernetes.client.openapi.models.V1PodList;
+import io.kubernetes.client.openapi.models.V1Secret;
+import io.kubernetes.client.openapi.models.V1SecretList;
+import io.kubernetes.client.util.CallGenerator;
+import io.kubernetes.client.util.CallGeneratorParams;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Keeps a single informer for each watched resource kind and namespace.
+ * <p>
+ * Informers list and watch every resource of their kind in their namespace, so that a single watch connection and
+ * cache is shared by all watched resources entries. Field and label selectors are evaluated in memory by the
+ * controller filters. Informers cache a compact projection of each resource rather than the full object.
+ * Metadata only informers are kept apart, and watch the PartialObjectMetadata representation of the resources.
+ */
+public class WatchedResourceInformers {
+
+    private final ResourceInformerFactory informerFactory;
+    private final CoreV1Api coreV1Api;
+    private final Map<String, SharedIndexInformer<? extends KubernetesObject>> informersByKey = new LinkedHashMap<>();
+    private final Map<String, ResourceDigestCache<? extends KubernetesObject>> digestCachesByKey = new LinkedHashMap<>();
+    private final Map<String, MultiplexingEventHandler<? extends KubernetesObject>> eventHandlersByKey = new LinkedHashMap<>();
+    private final Map<String, Integer> handlerCountsByKey = new LinkedHashMap<>();
+
+    public WatchedResourceInformers(ResourceInformerFactory informerFactory, CoreV1Api coreV1Api) {
+        this.informerFactory = informerFactory;
+        this.coreV1Api = coreV1Api;
+    }
+
+    public synchronized SharedIndexInformer<? extends KubernetesObject> getInformer(WatchedResourceKind resourceKind, String namespace,
+                                                                                boolean metadataOnly) {
+        String informerKey = getInformerKey(resourceKind, namespace, metadataOnly);
+        SharedIndexInformer<? extends KubernetesObject> existingInformer = informersByKey.get(informerKey);
+        if (existingInformer != null) {
+            return existingInformer;
+        }
+        SharedIndexInformer<? extends KubernetesObject> newInformer = createSharedIndexInformer(resourceKind, namespace, metadataOnly);
+        informersByKey.put(informerKey, newInformer);
+        ResourceDigestCache<? extends KubernetesObject> digestCache = new ResourceDigestCache<>(newInformer);
+        digestCachesByKey.put(informerKey, digestCache);
+        MultiplexingEventHandler<? extends KubernetesObject> eventHandler = registerMultiplexingEventHandler(newInformer, digestCache);
+        eventHandlersByKey.put(informerKey, eventHandler);
+        ResourceWatcherLog.fine("Created {0}informer for {1} in namespace {2}", metadataOnly ? "metadata " : "", resourceKind, namespace);
+        return newInformer;
+    }
+
+    public synchronized ResourceDigestCache<? extends KubernetesObject> getDigestCache(WatchedResourceKind resourceKind, String namespace,
+                                                                                      boolean metadataOnly) {
+        getInformer(resourceKind, namespace, metadataOnly);
+        String informerKey = getInformerKey(resourceKind, namespace, metadataOnly);
+        return digestCachesByKey.get(informerKey);
+    }
+
+    /**
+     * Adds an event handler to the informer of this kind and namespace. All handlers share the same listener thread.
+     * Resources already cached by a synced informer are notified as added.
+     */
+    @SuppressWarnings("unchecked")
+    public synchronized <T extends KubernetesObject> void addEventHandler(WatchedResourceKind resourceKind, String namespace,
+                                                                         boolean metadataOnly, ResourceEventHandler<T> eventHandler) {
+        SharedIndexInformer<T> informer = (SharedIndexInformer<T>) getInformer(resourceKind, namespace, metadataOnly);
+        String informerKey = getInformerKey(resourceKind, namespace, metadataOnly);
+        MultiplexingEventHandler<T> multiplexingEventHandler = (MultiplexingEventHandler<T>) eventHandlersByKey.get(informerKey);
+        multiplexingEventHandler.addEventHandler(eventHandler);
+        handlerCountsByKey.merge(informerKey, 1, Integer::sum);
+        if (informer.hasSynced()) {
+            informer.getIndexer().list().forEach(eventHandler::onAdd);
+        }
+    }
+
+    /**
+     * Removes an event handler, returning the informer of this kind and namespace when it has no handlers left. The
+     * informer is then forgotten, and should be stopped.
+     */
+    @SuppressWarnings("unchecked")
+    public synchronized <T extends KubernetesObject> SharedIndexInformer<? extends KubernetesObject> removeEventHandler(
+            WatchedResourceKind resourceKind, String namespace, boolean metadataOnly, ResourceEventHandler<T> eventHandler) {
+        String informerKey = getInformerKey(resourceKind, namespace, metadataOnly);
+        MultiplexingEventHandler<T> multiplexingEventHandler = (MultiplexingEventHandler<T>) eventHandlersByKey.get(informerKey);
+        if (multiplexingEventHandler == null) {
+            return null;
+        }
+        multiplexingEventHandler.removeEventHandler(eventHandler);
+        int handlerCount = handlerCountsByKey.merge(informerKey, -1, Integer::sum);
+        if (handlerCount > 0) {
+            return null;
+        }
+        handlerCountsByKey.remove(informerKey);
+        eventHandlersByKey.remove(informerKey);
+        digestCachesByKey.remove(informerKey);
+        ResourceWatcherLog.fine("Removed {0}informer for {1} in namespace {2}", metadataOnly ? "metadata " : "", resourceKind, namespace);
+        return informersByKey.remove(informerKey);
+    }
+
+    public synchronized List<SharedIndexInformer<? extends KubernetesObject>> getAllInformers() {
+        return new ArrayList<>(informersByKey.values());
+    }
+
+    private static <T extends KubernetesObject> MultiplexingEventHandler<T> registerMultiplexingEventHandler(
+            SharedIndexInformer<T> informer, ResourceDigestCache<? extends KubernetesObject> digestCache) {
+        MultiplexingEventHandler<T> multiplexingEventHandler = new MultiplexingEventHandler<>(digestCache);
+        informer.addEventHandler(multiplexingEventHandler);
+        return multiplexingEventHandler;
+    }
+
+    private static String getInformerKey(WatchedResourceKind resourceKind, String namespace, boolean metadataOnly) {
+        String informerKey = resourceKind.getStringValue() + "/" + namespace;
+        return metadataOnly ? informerKey + "/metadata" : informerKey;
+    }
+
+    private SharedIndexInformer<? extends KubernetesObject> createSharedIndexInformer(WatchedResourceKind resourceKind, String namespace,
+                                                                                    boolean metadataOnly) {
+        switch (resourceKind) {
+            case POD: {
+                CallGenerator callGenerator = (CallGeneratorParams params) -> coreV1Api.listNamespacedPodCall(
+                        namespace,
+                        null,
+                        null,
+                        null,
+                        null,
+                        null,
+                        null,
+                        params.resourceVersion,
+                        null,
+                        params.timeoutSeconds,
+                        params.watch,
+                        null);
+                if (metadataOnly) {
+                    return informerFactory.createMetadataInformer(callGenerator, V1Pod.class, V1PodList.class,
+                            ResourceProjections::projectPodMetadata);
+                }
+                return informerFactory.createInformer(callGenerator, V1Pod.class, V1PodList.class,
+                        ProtobufResourceCodec.POD, ResourceProjections::projectPod);
+            }
+            case SECRET: {
+                CallGenerator callGenerator = (CallGeneratorParams params) -> coreV1Api.listNamespacedSecretCall(
+                        namespace,
+                        null,
+                        null,
+                        null,
+                        null,
+                        null,
+                        null,
+                        params.resourceVersion,
+                        null,
+                        params.timeoutSeconds,
+                        params.watch,
+                        null);
+                if (metadataOnly) {
+                    return informerFactory.createMetadataInformer(callGenerator, V1Secret.class, V1SecretList.class,
+                            ResourceProjections::projectSecretMetadata);
+                }
+                return informerFactory.createInformer(callGenerator, V1Secret.class, V1SecretList.class,
+                        ProtobufResourceCodec.SECRET, ResourceProjections::projectSecret);
+            }
+            case CONFIGMAP: {
+                CallGenerator callGenerator = (CallGeneratorParams params) -> coreV1Api.listNamespacedConfigMapCall(
+                        namespace,
+                        null,
+                        null,
+                        null,
+                        null,
+                        null,
+                        null,
+                        params.resourceVersion,
+                        null,
+                        params.timeoutSeconds,
+                        params.watch,
+                        null);
+                if (metadataOnly) {
+                    return informerFactory.createMetadataInformer(callGenerator, V1ConfigMap.class, V1ConfigMapList.class,
+                            ResourceProjections::projectConfigMapMetadata);
+                }
+                return informerFactory.createInformer(callGenerator, V1ConfigMap.class, V1ConfigMapList.class,
+                        ProtobufResourceCodec.CONFIGMAP, ResourceProjections::projectConfigMap);
+            }
+            default:
+                throw new RuntimeException("Unsupported resource to watch: " + resourceKind);
+
+        }
+    }
+}
@@ -0,0 +1,93 @@
+package com.charlyghislain.resourcewatcher;
+
+import io.prometheus.client.Counter;
+import io.prometheus.client.Histogram;
+
+/**
+ * Metrics of a single watched resource, with label values bound once so that recording does not allocate.
+ */
+public class WatchedResourceMetrics {
+
+    public enum EventType {
+        ADD("add"),
+        UPDATE("update"),
+        DELETE("delete");
+
+        private final String label;
+
+        EventType(String label) {
+            this.label = label;
+        }
+
+        public String getLabel() {
+            return label;
+        }
+    }
+
+    private final String watchedResourceName;
+    private final Counter.Child[] eventCounters = new Counter.Child[EventType.values().length];
+    private final Counter.Child[] acceptedCounters = new Counter.Child[EventType.values().length];
+    private final Counter.Child[] rejectedCounters = new Counter.Child[EventType.values().length];
+    private final Counter.Child workQueueAdds;
+    private final Counter.Child workQueueRetries;
+    private final Histogram.Child reconcileDuration;
+    private final Counter.Child ledgerSkips;
+
+    WatchedResourceMetrics(String watchedResourceName) {
+        this.watchedResourceName = watchedResourceName;
+        for (EventType eventType : EventType.values()) {
+            eventCounters[eventType.ordinal()] = ResourceWatcherMetrics.INFORMER_EVENTS.labels(watchedResourceName, eventType.label);
+            acceptedCounters[eventType.ordinal()] = ResourceWatcherMetrics.FILTER_DECISIONS.labels(watchedResourceName, eventType.label, "accept");
+            rejectedCounters[eventType.ordinal()] = ResourceWatcherMetrics.FILTER_DECISIONS.labels(watchedResourceName, eventType.label, "reject");
+        }
+        this.workQueueAdds = ResourceWatcherMetrics.WORK_QUEUE_ADDS.labels(watchedResourceName);
+        this.workQueueRetries = ResourceWatcherMetrics.WORK_QUEUE_RETRIES.labels(watchedResourceName);
+        this.reconcileDuration = ResourceWatcherMetrics.RECONCILE_DURATION.labels(watchedResourceName);
+        this.ledgerSkips = ResourceWatcherMetrics.LEDGER_SKIPS.labels(watchedResourceName);
+    }
+
+    public String getWatchedResourceName() {
+        return watchedResourceName;
+    }
+
+    /**
+     * Records an informer event and the filter decision, returning the decision.
+     */
+    public boolean recordEvent(EventType eventType, boolean accepted) {
+        eventCounters[eventType.ordinal()].inc();
+        if (accepted) {
+            acceptedCounters[eventType.ordinal()].inc();
+        } else {
+            rejectedCounters[eventType.ordinal()].inc();
+        }
+        return accepted;
+    }
+
+    public void recordWorkQueueAdd() {
+        workQueueAdds.inc();
+    }
+
+    public void recordWorkQueueRetry() {
+        workQueueRetries.inc();
+    }
+
+    public void recordReconcileDuration(long durationNanos) {
+        reconcileDuration.observe(durationNanos / 1e9);
+    }
+
+    public void recordLedgerSkip() {
+        ledgerSkips.inc();
+    }
+
+    public void recordActionResult(String actionName, boolean success) {
+        ResourceWatcherMetrics.ACTION_RESULTS.labels(watchedResourceName, actionName, success ? "success" : "failure").inc();
+    }
+
+    public void recordActionRetry(String actionName) {
+        ResourceWatcherMetrics.ACTION_RETRIES.labels(watchedResourceName, actionName).inc();
+    }
+
+    public void recordActionGiveUp(String actionName) {
+        ResourceWatcherMetrics.ACTION_GIVE_UPS.labels(watchedResourceName, actionName).inc();
+    }
+}
@@ -4,6 +4,7 @@ import com.charlyghislain.resourcewatcher.config.AnnotatedResourceKind;
 import com.charlyghislain.resourcewatcher.config.ResourceActionSpec;
 import com.charlyghislain.resourcewatcher.config.ResourceActionType;
 import com.charlyghislain.resourcewatcher.config.WatchedResource;
+import com.charlyghislain.resourcewatcher.config.WatchedResourceKind;
 import io.kubernetes.client.common.KubernetesObject;
 import io.kubernetes.client.extended.controller.reconciler.Reconciler;
 import io.kubernetes.client.extended.controller.reconciler.Request;
@@ -15,39 +16,98 @@ import io.kubernetes.client.openapi.ApiException;
 import io.kubernetes.client.openapi.apis.AppsV1Api;
 import io.kubernetes.client.openapi.apis.CoreV1Api;
 import io.kubernetes.client.openapi.models.V1Deployment;
-import io.kubernetes.client.openapi.models.V1DeploymentList;
 import io.kubernetes.client.openapi.models.V1DeploymentSpec;
 import io.kubernetes.client.openapi.models.V1ObjectMeta;
 import io.kubernetes.client.openapi.models.V1PodTemplateSpec;
-import io.kubernetes.client.util.Yaml;
 import org.jetbrains.annotations.NotNull;
 
-import java.text.MessageFormat;
+import java.time.Duration;
 import java.time.LocalDateTime;
 import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Objects;
 import java.util.Optional;
-import java.util.logging.Level;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Consumer;
+import java.util.function.Function;
 
 public class WatchedResourceReconcilier<T extends KubernetesObject> implements Reconciler {
 
     private AppsV1Api appsV1Api;
     private CoreV1Api coreV1Api;
+    private DeploymentTargetCache deploymentTargetCache;
+    private DeploymentAnnotationCoalescer annotationCoalescer;
     private WatchedResource resourceWatcherConfig;
+    private WatchedResourceKind watchedResourceKind;
     private SharedIndexInformer<? extends KubernetesObject> indexInformer;
+    private ResourceDigestCache<? extends KubernetesObject> digestCache;
+    private WatchedResourceMetrics metrics;
     private final EventRecorder eventRecorder;
+    private final Map<ResourceActionSpec, AnnotatedResourceSelector> annotatedResourceSelectors = new IdentityHashMap<>();
+    // Failed actions of the requeued requests. The work queue never processes a request concurrently.
+    private final Map<Request, RetryState> retryStates = new ConcurrentHashMap<>();
+    // Failed coalesced or queued writes, reported once their reconcile completed
+    private final Map<Request, RetryState> deferredFailures = new ConcurrentHashMap<>();
+    private final Consumer<Request> requeue;
 
     public WatchedResourceReconcilier(CoreV1Api coreV1Api, AppsV1Api appsV1Api,
+                                      DeploymentTargetCache deploymentTargetCache,
+                                      DeploymentAnnotationCoalescer annotationCoalescer,
                                       WatchedResource watchedResource,
                                       SharedIndexInformer<? extends KubernetesObject> informer,
-                                      EventRecorder recorder) {
+                                      ResourceDigestCache<? extends KubernetesObject> digestCache,
+                                      WatchedResourceMetrics metrics,
+                                      EventRecorder recorder,
+                                      Consumer<Request> requeue) {
         this.coreV1Api = coreV1Api;
         this.appsV1Api = appsV1Api;
+        this.deploymentTargetCache = deploymentTargetCache;
+        this.annotationCoalescer = annotationCoalescer;
         this.resourceWatcherConfig = watchedResource;
+        this.watchedResourceKind = WatchedResourceKind.parseName(watchedResource.getKind())
+                .orElseThrow(() -> new IllegalArgumentException("Unsupported resource kind: " + watchedResource.getKind()));
         this.indexInformer = informer;
+        this.digestCache = digestCache;
+        this.metrics = metrics;
         this.eventRecorder = recorder;
+        this.requeue = requeue;
+        // Selectors are compiled once, invalid ones fail at startup
+        for (ResourceActionSpec actionSpec : Optional.ofNullable(watchedResource.getActionList()).orElse(List.of())) {
+            checkActionSpec(watchedResource, watchedResourceKind, actionSpec);
+            annotatedResourceSelectors.put(actionSpec, AnnotatedResourceSelector.compile(actionSpec));
+        }
+    }
+
+    /**
+     * Checks the actions of a watched resource, so that invalid ones fail before its informer is created.
+     */
+    public static void validate(WatchedResource watchedResource, WatchedResourceKind watchedResourceKind) {
+        for (ResourceActionSpec actionSpec : Optional.ofNullable(watchedResource.getActionList()).orElse(List.of())) {
+            checkActionSpec(watchedResource, watchedResourceKind, actionSpec);
+            AnnotatedResourceSelector.compile(actionSpec);
+        }
+    }
+
+    private static void checkActionSpec(WatchedResource watchedResource, WatchedResourceKind watchedResourceKind, ResourceActionSpec actionSpec) {
+        if (watchedResource.isMetadataOnly() && actionSpec.getActionType() == ResourceActionType.ANNOTATE_WITH_CONTENT_HASH) {
+            throw new IllegalArgumentException("Content is not available when watching metadata only: " + actionSpec.getActionType());
+        }
+        if (watchedResourceKind == WatchedResourceKind.POD && actionSpec.getAnnotatedResourceKind() == AnnotatedResourceKind.REFERENCING_DEPLOYMENT_POD_TEMPLATE) {
+            throw new IllegalArgumentException("Pod templates only reference secrets and config maps: " + actionSpec.getAnnotatedResourceKind());
+        }
+        if (watchedResourceKind == WatchedResourceKind.POD && watchedResource.isTriggerLedger()) {
+            // Generated pod names would add a ledger entry per pod
+            throw new IllegalArgumentException("The trigger ledger is not supported for pods");
+        }
     }
 
     @Override
@@ -61,135 +121,365 @@ public class WatchedResourceReconcilier<T extends KubernetesObject> implements R
 
         KubernetesObject indexedObject = lister.get(request.getName());
         if (indexedObject == null) {
-            ResourceWatcher.LOG.warning("Resource not found in index: " + request.getName() + " in namespace " + request.getNamespace());
+            ResourceWatcherLog.warning("Resource not found in index: {0} in namespace {1}", request.getName(), request.getNamespace());
+            retryStates.remove(request);
+            deferredFailures.remove(request);
             return new Result(false);
         }
 
-        return reconcileInstance(indexedObject);
+        // Api calls made while reconciling are traced along with the watched resource
+        TriggerTracing.ReconcileEvent reconcileEvent = TriggerTracing.beginReconcile(metrics.getWatchedResourceName(), indexedObject);
+        Result result = null;
+        try {
+            result = reconcileInstance(request, indexedObject);
+            return result;
+        } finally {
+            TriggerTracing.endReconcile(reconcileEvent, result != null && result.isRequeue());
+        }
     }
 
     @NotNull
-    private Result reconcileInstance(KubernetesObject indexedObject) {
-
-
+    private Result reconcileInstance(Request request, KubernetesObject indexedObject) {
         V1ObjectMeta resourceMetadata = indexedObject.getMetadata();
         String resourceName = resourceMetadata.getName();
         String resourceVersion = resourceMetadata.getResourceVersion();
 
-        ResourceWatcher.LOG.fine("Reconciling " + resourceName + " at " + resourceVersion);
+        ResourceWatcherLog.fine("Reconciling {0} at {1}", resourceName, resourceVersion);
         List<ResourceActionSpec> actionList = resourceWatcherConfig.getActionList();
+        RetryState retryState = retryStates.get(request);
+        if (retryState != null && !Objects.equals(retryState.resourceVersion, resourceVersion)) {
+            // A new version triggers all actions again
+            retryState = null;
+        }
+        retryState = mergeDeferredFailures(request, resourceName, resourceVersion, retryState);
+        int reconcileRetryCount = retryState == null ? 0 : retryState.retryCount;
 
-        Map<ResourceActionSpec, Boolean> resultList = new HashMap<>();
-        for (ResourceActionSpec actionSpec : actionList) {
-            Boolean success = executeAction(indexedObject, actionSpec);
-            resultList.put(actionSpec, success);
+        // Actions are started together, so that all their writes are in flight at the same time. On retry, only the
+        // failed actions and targets are executed.
+        Map<Integer, ActionExecution> actionExecutions = new LinkedHashMap<>();
+        for (int actionIndex = 0; actionIndex < actionList.size(); actionIndex++) {
+            if (retryState != null && !retryState.failedTargetsByAction.containsKey(actionIndex)) {
+                continue;
+            }
+            Set<String> retriedTargets = retryState == null ? Set.of() : retryState.failedTargetsByAction.get(actionIndex);
+            TriggerTracing.ActionEvent actionEvent = TriggerTracing.beginAction(metrics.getWatchedResourceName(), getActionName(actionIndex));
+            int failedActionIndex = actionIndex;
+            Function<String, Consumer<Throwable>> deferredFailureListeners = targetKey -> error ->
+                    recordDeferredFailure(request, resourceVersion, reconcileRetryCount + 1, failedActionIndex, targetKey);
+            ActionExecution actionExecution = executeAction(indexedObject, actionList.get(actionIndex), retriedTargets, deferredFailureListeners);
+            CompletableFuture.allOf(actionExecution.writesByTarget.values().toArray(CompletableFuture[]::new))
+                    .whenComplete((v, error) -> TriggerTracing.endAction(actionEvent, error == null && actionExecution.error == null));
+            actionExecutions.put(actionIndex, actionExecution);
         }
+        CompletableFuture.allOf(actionExecutions.values().stream()
+                        .flatMap(execution -> execution.writesByTarget.values().stream())
+                        .toArray(CompletableFuture[]::new))
+                .handle((v, error) -> null)
+                .join();
 
-        int actionsCount = resultList.size();
-        long successCount = resultList.entrySet()
-                .stream()
-                .filter(Map.Entry::getValue)
-                .count();
-        boolean reschedule = false;
-        String rescheduleMessage = reschedule ? "Rescheduling" : "Not rescheduling";
-        String summaryMessage = MessageFormat.format("{0,number,#}/{1,number,#} actions completed successfully. {2}", actionsCount, successCount, rescheduleMessage);
-        ResourceWatcher.LOG.fine(summaryMessage);
+        Map<Integer, Set<String>> failedTargetsByAction = new HashMap<>();
+        Duration throttlingRetryAfter = null;
+        for (Map.Entry<Integer, ActionExecution> executionEntry : actionExecutions.entrySet()) {
+            int actionIndex = executionEntry.getKey();
+            ActionExecution actionExecution = executionEntry.getValue();
+            List<Throwable> actionErrors = new ArrayList<>();
+            Set<String> failedTargets = new HashSet<>();
+            if (actionExecution.error != null) {
+                actionErrors.add(actionExecution.error);
+            }
+            actionExecution.writesByTarget.forEach((targetKey, writeFuture) -> {
+                Throwable writeError = writeFuture.handle((v, error) -> error).join();
+                if (writeError != null) {
+                    actionErrors.add(writeError);
+                    failedTargets.add(targetKey);
+                }
+            });
+            for (Throwable actionError : actionErrors) {
+                Optional<ApiException> throttlingException = ApiRateLimiter.findThrottlingException(actionError);
+                if (throttlingException.isPresent()) {
+                    Duration retryAfter = ApiRateLimiter.getRetryAfter(throttlingException.get());
+                    if (throttlingRetryAfter == null || retryAfter.compareTo(throttlingRetryAfter) > 0) {
+                        throttlingRetryAfter = retryAfter;
+                    }
+                }
+            }
+            boolean success = actionErrors.isEmpty();
+            metrics.recordActionResult(getActionName(actionIndex), success);
+            if (!success) {
+                // Errors before any write fail all targets
+                failedTargetsByAction.put(actionIndex, actionExecution.error != null ? Set.of() : failedTargets);
+            }
+        }
+
+        int actionsCount = actionExecutions.size();
+        long successCount = actionsCount - failedTargetsByAction.size();
+        boolean reschedule = !failedTargetsByAction.isEmpty();
+        ResourceWatcherLog.fine("{0}/{1} actions completed successfully. {2}", successCount, actionsCount,
+                reschedule ? "Rescheduling" : "Not rescheduling");
+
+        if (!reschedule) {
+            retryStates.remove(request);
+            return new Result(false);
+        }
+        if (throttlingRetryAfter != null) {
+            // Throttling does not count as a retry
+            retryStates.put(request, new RetryState(resourceVersion, reconcileRetryCount, failedTargetsByAction));
+            ResourceWatcherLog.warning("Api server throttled actions for {0}, requeuing in {1}ms", resourceName, throttlingRetryAfter.toMillis());
+            return new Result(true, throttlingRetryAfter);
+        }
+        int nextRetryCount = reconcileRetryCount + 1;
+        if (!isRetryAllowed(nextRetryCount)) {
+            retryStates.remove(request);
+            failedTargetsByAction.keySet().forEach(actionIndex -> metrics.recordActionGiveUp(getActionName(actionIndex)));
+            ResourceWatcherLog.severe("Giving up {0} failed actions for {1} at {2} after {3} retries",
+                    failedTargetsByAction.size(), resourceName, resourceVersion, reconcileRetryCount);
+            return new Result(false);
+        }
+        retryStates.put(request, new RetryState(resourceVersion, nextRetryCount, failedTargetsByAction));
+        failedTargetsByAction.keySet().forEach(actionIndex -> metrics.recordActionRetry(getActionName(actionIndex)));
+        // Requeued with an exponential backoff by the work queue
+        return new Result(true);
+    }
+
+    /**
+     * Records the failure of a write reported after its reconcile completed, and requeues the request to retry it.
+     */
+    private void recordDeferredFailure(Request request, String resourceVersion, int retryCount, int actionIndex, String targetKey) {
+        deferredFailures.compute(request, (key, failures) -> {
+            Map<Integer, Set<String>> failedTargetsByAction = new HashMap<>();
+            int failuresRetryCount = retryCount;
+            if (failures != null && failures.resourceVersion.equals(resourceVersion)) {
+                failures.failedTargetsByAction.forEach((index, targets) -> failedTargetsByAction.put(index, new HashSet<>(targets)));
+                failuresRetryCount = Math.max(failuresRetryCount, failures.retryCount);
+            }
+            failedTargetsByAction.computeIfAbsent(actionIndex, index -> new HashSet<>()).add(targetKey);
+            return new RetryState(resourceVersion, failuresRetryCount, failedTargetsByAction);
+        });
+        requeue.accept(request);
+    }
 
-        // TODO: annotate resource to keep track of success/failed actions
+    /**
+     * Adds the deferred failures of the current resource version to the actions to retry, unless they exhausted
+     * their retries. A request requeued only to retry exhausted failures executes no action.
+     */
+    private RetryState mergeDeferredFailures(Request request, String resourceName, String resourceVersion, RetryState retryState) {
+        RetryState failures = deferredFailures.remove(request);
+        if (failures == null || !failures.resourceVersion.equals(resourceVersion)) {
+            // A new version triggers all actions again
+            return retryState;
+        }
+        if (!isRetryAllowed(failures.retryCount)) {
+            failures.failedTargetsByAction.keySet().forEach(actionIndex -> metrics.recordActionGiveUp(getActionName(actionIndex)));
+            ResourceWatcherLog.severe("Giving up {0} failed actions for {1} at {2} after {3} retries",
+                    failures.failedTargetsByAction.size(), resourceName, resourceVersion, failures.retryCount - 1);
+            // Without other failed actions, the request was only requeued to retry these
+            return retryState != null ? retryState : new RetryState(resourceVersion, failures.retryCount, Map.of());
+        }
+        failures.failedTargetsByAction.keySet().forEach(actionIndex -> metrics.recordActionRetry(getActionName(actionIndex)));
+        if (retryState == null) {
+            return failures;
+        }
+        Map<Integer, Set<String>> failedTargetsByAction = new HashMap<>(retryState.failedTargetsByAction);
+        failures.failedTargetsByAction.forEach((actionIndex, targets) -> failedTargetsByAction.merge(actionIndex, targets,
+                (retriedTargets, failedTargets) -> {
+                    if (retriedTargets.isEmpty() || failedTargets.isEmpty()) {
+                        // All targets
+                        return Set.of();
+                    }
+                    Set<String> mergedTargets = new HashSet<>(retriedTargets);
+                    mergedTargets.addAll(failedTargets);
+                    return mergedTargets;
+                }));
+        return new RetryState(resourceVersion, Math.max(retryState.retryCount, failures.retryCount), failedTargetsByAction);
+    }
 
-        return new Result(false);
+    /**
+     * Whether a request may be retried for the retryCount-th time. Failed reconciles and deferred failures share this
+     * limit.
+     */
+    private boolean isRetryAllowed(int retryCount) {
+        return retryCount <= resourceWatcherConfig.getMaxActionRetries();
     }
 
-    private Boolean executeAction(KubernetesObject kubernetesObject, ResourceActionSpec actionSpec) {
+    /**
+     * Starts the action, on the retried targets only if any. Writes are started, but not awaited. Failures of writes
+     * completing later are reported to the listener of their target.
+     */
+    private ActionExecution executeAction(KubernetesObject kubernetesObject, ResourceActionSpec actionSpec, Set<String> retriedTargets,
+                                          Function<String, Consumer<Throwable>> deferredFailureListeners) {
         ResourceActionType actionType = actionSpec.getActionType();
         V1ObjectMeta resourceMetadata = kubernetesObject.getMetadata();
         String resourceName = resourceMetadata.getName();
         String resourceVersion = resourceMetadata.getResourceVersion();
-        ResourceWatcher.LOG.fine(" - executing action " + actionType + " for " + resourceName + " " + resourceVersion);
-        String errorMessage = "Unable to execute action " + actionSpec + " on " + resourceName + " : ";
+        ResourceWatcherLog.fine(" - executing action {0} for {1} {2}", actionType, resourceName, resourceVersion);
 
+        ActionExecution actionExecution = new ActionExecution();
         try {
             if (actionType == ResourceActionType.ANNOTATE_WITH_TIMESTAMP) {
-                executeAnnotateResourceAction(actionSpec);
-                return true;
+                String annotationValue = DateTimeFormatter.ISO_LOCAL_DATE_TIME.format(LocalDateTime.now());
+                executeAnnotateResourceAction(kubernetesObject, actionSpec, annotationValue, retriedTargets, deferredFailureListeners, actionExecution);
+            } else if (actionType == ResourceActionType.ANNOTATE_WITH_CONTENT_HASH) {
+                String annotationValue = digestCache.getDigest(kubernetesObject);
+                executeAnnotateResourceAction(kubernetesObject, actionSpec, annotationValue, retriedTargets, deferredFailureListeners, actionExecution);
+            } else {
+                throw new IllegalArgumentException("Action not supported: " + actionType);
             }
-            throw new IllegalArgumentException("Action not supported: " + actionType);
-        } catch (ApiException e) {
-            logApiError(errorMessage, e);
-            return false;
         } catch (Exception e) {
-            ResourceWatcher.LOG.log(Level.SEVERE, errorMessage + e.getMessage(), e);
-            return false;
+            actionExecution.error = e;
+            if (ApiRateLimiter.findThrottlingException(e).isEmpty()) {
+                ResourceWatcherLog.severe(e, "Unable to execute action {0} on {1} : {2}", actionSpec, resourceName, e.getMessage());
+            }
         }
+        return actionExecution;
     }
 
-    private void executeAnnotateResourceAction(ResourceActionSpec actionSpec) throws Exception {
+    private void executeAnnotateResourceAction(KubernetesObject kubernetesObject, ResourceActionSpec actionSpec, String annotationValue,
+                                               Set<String> retriedTargets, Function<String, Consumer<Throwable>> deferredFailureListeners,
+                                               ActionExecution actionExecution) throws Exception {
         AnnotatedResourceKind annotatedKind = actionSpec.getAnnotatedResourceKind();
         String annotatedResourceNamespace = actionSpec.getAnnotatedResourceNamespace();
-        List<String> annotatedResourceFieldSelectors = actionSpec.getAnnotatedResourceFieldSelectors();
-        List<String> annotatedResourceLabelsSelectors = actionSpec.getAnnotatedResourceLabelsSelectors();
+        AnnotatedResourceSelector annotatedResourceSelector = annotatedResourceSelectors.get(actionSpec);
 
+        List<V1Deployment> deploymentList;
         switch (annotatedKind) {
             case DEPLOYMENT_POD_TEMPLATE: {
-                V1DeploymentList v1DeploymentList1;
-                String errorMessage = "Unable to list deployment in namespace " + annotatedResourceNamespace;
                 try {
-                    v1DeploymentList1 = appsV1Api.listNamespacedDeployment(annotatedResourceNamespace,
-                            null, null, null,
-                            String.join(",", annotatedResourceFieldSelectors),
-                            String.join(",", annotatedResourceLabelsSelectors),
-                            null, null, null, null, null
-                    );
+                    deploymentList = deploymentTargetCache.findDeployments(annotatedResourceNamespace, annotatedResourceSelector);
                 } catch (ApiException e) {
+                    String errorMessage = "Unable to list deployment in namespace " + annotatedResourceNamespace;
                     logApiError(errorMessage, e);
                     throw new Exception(errorMessage, e);
                 }
 
-                if (v1DeploymentList1.getItems().isEmpty()) {
+                if (deploymentList.isEmpty()) {
                     throw new Exception("No deployment found in namespace " + annotatedResourceNamespace);
                 }
-                for (V1Deployment deployment : v1DeploymentList1.getItems()) {
-                    annotateDeploymentPodSpec(deployment, actionSpec);
+                break;
+            }
+            case REFERENCING_DEPLOYMENT_POD_TEMPLATE: {
+                String referencedNamespace = kubernetesObject.getMetadata().getNamespace();
+                String referencedName = kubernetesObject.getMetadata().getName();
+                try {
+                    deploymentList = deploymentTargetCache.findReferencingDeployments(watchedResourceKind, referencedNamespace, referencedName,
+                            annotatedResourceSelector);
+                } catch (ApiException e) {
+                    String errorMessage = "Unable to list deployment referencing " + referencedName + " in namespace " + referencedNamespace;
+                    logApiError(errorMessage, e);
+                    throw new Exception(errorMessage, e);
+                }
+
+                if (deploymentList.isEmpty()) {
+                    // Unused secrets and config maps are common
+                    ResourceWatcherLog.fine("No deployment referencing {0} in namespace {1}", referencedName, referencedNamespace);
+                    return;
                 }
+                break;
             }
+            default:
+                throw new IllegalArgumentException("Annotated resource kind not supported: " + annotatedKind);
+        }
+
+        String ledgerEntryName = null;
+        String ledgerEntryValue = null;
+        if (resourceWatcherConfig.isTriggerLedger()) {
+            ledgerEntryName = TriggerLedger.getEntryAnnotationName(resourceWatcherConfig.getKind(), kubernetesObject, actionSpec);
+            ledgerEntryValue = TriggerLedger.getEntryValue(resourceWatcherConfig.getKind(), kubernetesObject, digestCache.getDigest(kubernetesObject));
+        }
+        for (V1Deployment deployment : deploymentList) {
+            String targetKey = deployment.getMetadata().getNamespace() + "/" + deployment.getMetadata().getName();
+            if (!retriedTargets.isEmpty() && !retriedTargets.contains(targetKey)) {
+                continue;
+            }
+            actionExecution.writesByTarget.put(targetKey,
+                    annotateDeploymentPodSpec(deployment, actionSpec, annotationValue, ledgerEntryName, ledgerEntryValue,
+                            deferredFailureListeners.apply(targetKey)));
         }
     }
 
-    private void annotateDeploymentPodSpec(V1Deployment deployment, ResourceActionSpec actionSpec) throws Exception {
-        V1Deployment updatedDeployment = deepCopy(deployment);
+    private CompletableFuture<Void> annotateDeploymentPodSpec(V1Deployment deployment, ResourceActionSpec actionSpec, String annotationValue,
+                                                              String ledgerEntryName, String ledgerEntryValue,
+                                                              Consumer<Throwable> deferredFailureListener) {
         String annotationName = actionSpec.getAnnotatedResourceAnnotationName();
-        String annotationValue = DateTimeFormatter.ISO_LOCAL_DATE_TIME.format(LocalDateTime.now());
-
-        V1DeploymentSpec spec = updatedDeployment.getSpec();
-        V1PodTemplateSpec podTemplateSpec = spec.getTemplate();
-        V1ObjectMeta podTemplateSpecMetadata = podTemplateSpec.getMetadata();
-        HashMap<String, String> newPodannotations = new HashMap<>();
-        Optional.ofNullable(podTemplateSpecMetadata.getAnnotations())
-                .ifPresent(newPodannotations::putAll);
-        newPodannotations.put(annotationName, annotationValue);
-        podTemplateSpecMetadata.setAnnotations(newPodannotations);
 
         String deploymentName = deployment.getMetadata().getName();
         String deploymentNamespace = deployment.getMetadata().getNamespace();
-        String errorMessage = "Unable to update pod spec annotations on deployment " + deploymentName + " in namespace " + deploymentNamespace;
-        try {
-            appsV1Api.replaceNamespacedDeployment(deploymentName, deploymentNamespace, updatedDeployment, null, null, null);
-            ResourceWatcher.LOG.fine("Updated pod spec annotations on deployment " + deploymentName + " in namespace " + deploymentNamespace);
-        } catch (ApiException e) {
-            logApiError(errorMessage, e);
-            throw new Exception(errorMessage, e);
+        if (ledgerEntryName != null && TriggerLedger.isHandled(deployment.getMetadata(), ledgerEntryName, ledgerEntryValue)) {
+            ResourceWatcherLog.fine("Trigger already handled on deployment {0} in namespace {1}", deploymentName, deploymentNamespace);
+            metrics.recordLedgerSkip();
+            return CompletableFuture.completedFuture(null);
+        }
+        String currentAnnotationValue = Optional.ofNullable(deployment.getSpec())
+                .map(V1DeploymentSpec::getTemplate)
+                .map(V1PodTemplateSpec::getMetadata)
+                .map(V1ObjectMeta::getAnnotations)
+                .map(a -> a.get(annotationName))
+                .orElse(null);
+        if (annotationValue.equals(currentAnnotationValue)) {
+            ResourceWatcherLog.fine("Pod spec annotations already up to date on deployment {0} in namespace {1}", deploymentName, deploymentNamespace);
+            return CompletableFuture.completedFuture(null);
         }
+        Map<String, String> ledgerEntries = ledgerEntryName == null ? Map.of()
+                : TriggerLedger.createEntry(deployment.getMetadata(), ledgerEntryName, ledgerEntryValue, resourceWatcherConfig.getKind(), this::isStaleLedgerObject);
+        return annotationCoalescer.annotate(deploymentNamespace, deploymentName, annotationName, annotationValue, ledgerEntries,
+                        deferredFailureListener)
+                .whenComplete((v, error) -> {
+                    if (error == null || ApiRateLimiter.findThrottlingException(error).isPresent()) {
+                        return;
+                    }
+                    Throwable cause = error instanceof CompletionException ? error.getCause() : error;
+                    String errorMessage = "Unable to update pod spec annotations on deployment " + deploymentName + " in namespace " + deploymentNamespace;
+                    if (cause instanceof ApiException) {
+                        logApiError(errorMessage, (ApiException) cause);
+                    } else {
+                        ResourceWatcherLog.severe(cause, "{0}: {1}", errorMessage, cause.getMessage());
+                    }
+                });
     }
 
-    private static <T> T deepCopy(T rd) {
-        Class<T> resourceClass = (Class<T>) rd.getClass();
-        return Yaml.loadAs(Yaml.dump(rd), resourceClass);
+    /**
+     * Whether a watched object of the informer namespace, referenced by a ledger entry, does not exist anymore.
+     */
+    private boolean isStaleLedgerObject(String objectKey) {
+        String informerNamespace = resourceWatcherConfig.getNamespace();
+        if (informerNamespace != null && !informerNamespace.isBlank() && !objectKey.startsWith(informerNamespace + "/")) {
+            return false;
+        }
+        return indexInformer.getIndexer().getByKey(objectKey) == null;
     }
 
     private void logApiError(String errorMessage, ApiException apiException) {
-        String apiErrorMessage = MessageFormat.format("Api error: {0} {1}: {2}", apiException.getResponseHeaders().get("status"),
-                apiException.getCode(), apiException, apiException.getResponseBody());
-        ResourceWatcher.LOG.log(Level.SEVERE, errorMessage + apiErrorMessage, apiException);
+        Object responseStatus = Optional.ofNullable(apiException.getResponseHeaders())
+                .map(headers -> headers.get("status"))
+                .orElse(null);
+        ResourceWatcherLog.severe(apiException, "{0}: Api error {1} {2}: {3}", errorMessage, responseStatus,
+                apiException.getCode(), apiException.getResponseBody());
     }
 
+    private String getActionName(int actionIndex) {
+        return actionIndex + "-" + resourceWatcherConfig.getActionList().get(actionIndex).getActionType();
+    }
+
+    /**
+     * The writes of an action by target deployment, or the error raised before any write.
+     */
+    private static class ActionExecution {
+        private final Map<String, CompletableFuture<Void>> writesByTarget = new LinkedHashMap<>();
+        private Exception error;
+    }
+
+    /**
+     * The actions of a request that failed for a resource version, by index in the action list, with their failed
+     * targets. An empty target set retries all targets. The retry count is the one of the reconcile retrying them.
+     */
+    private static class RetryState {
+        private final String resourceVersion;
+        private final int retryCount;
+        private final Map<Integer, Set<String>> failedTargetsByAction;
+
+        private RetryState(String resourceVersion, int retryCount, Map<Integer, Set<String>> failedTargetsByAction) {
+            this.resourceVersion = resourceVersion;
+            this.retryCount = retryCount;
+            this.failedTargetsByAction = failedTargetsByAction;
+        }
+    }
 }
@@ -2,4 +2,6 @@ package com.charlyghislain.resourcewatcher.config;
 
 public enum AnnotatedResourceKind {
     DEPLOYMENT_POD_TEMPLATE,
+    // The pod templates of the deployments referencing the watched secret or config map, in its namespace
+    REFERENCING_DEPLOYMENT_POD_TEMPLATE,
 }
@@ -0,0 +1,6 @@
+package com.charlyghislain.resourcewatcher.config;
+
+public enum LeaderElectionLockKind {
+    LEASE,
+    ENDPOINTS,
+}
@@ -1,5 +1,6 @@
 package com.charlyghislain.resourcewatcher.config;
 
+import lombok.EqualsAndHashCode;
 import lombok.Getter;
 import lombok.Setter;
 import lombok.ToString;
@@ -9,6 +10,7 @@ import java.util.List;
 
 @Getter
 @Setter
+@EqualsAndHashCode
 @ToString(onlyExplicitlyIncluded = true)
 public class ResourceActionSpec {
 
@@ -2,4 +2,6 @@ package com.charlyghislain.resourcewatcher.config;
 
 public enum ResourceActionType {
     ANNOTATE_WITH_TIMESTAMP,
+    // Annotate with a digest of the watched resource payload. Writes are idempotent.
+    ANNOTATE_WITH_CONTENT_HASH,
 }
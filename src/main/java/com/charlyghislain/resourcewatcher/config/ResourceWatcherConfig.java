@@ -1,19 +1,79 @@
 package com.charlyghislain.resourcewatcher.config;
 
+import lombok.EqualsAndHashCode;
 import lombok.Getter;
 import lombok.Setter;
 
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
 @Getter
 @Setter
+@EqualsAndHashCode
 public class ResourceWatcherConfig {
 
+    // Reloaded when the config file changes
+    @EqualsAndHashCode.Exclude
     private List<WatchedResource> watchedResourceList = new ArrayList<>();
 
     private Boolean debug;
     private String namespace;
     private String leaseName = "resourcewatcher-lease";
+    // Resource holding the leader election lock. Replicas using different kinds do not see each other's lock.
+    private LeaderElectionLockKind leaseLockKind = LeaderElectionLockKind.ENDPOINTS;
+    // A leader not renewing its lease for this long is replaced by a standby replica
+    private long leaseDurationMs = 10000;
+    // The leader stops reconciling when it could not renew its lease for this long
+    private long leaseRenewDeadlineMs = 8000;
+    // Interval between lease acquisition and renewal attempts
+    private long leaseRetryPeriodMs = 2000;
+    // Distribute the watched resources among all replicas, by namespace, in that many shards. 0 to run all of them on the leader.
+    private int shardCount = 0;
+
+    // Apply the changes to the watched resource list without restarting. Other changes require a restart.
+    private boolean reloadConfig = true;
+
+    // Reconcile workers shared by all watched resources
+    private int workerThreads = 4;
+    // Use virtual threads for reconcile workers, when supported by the runtime
+    private boolean virtualThreadWorkers = false;
+    // Serve the queued requests of each namespace, or of each watched resource, in turn
+    private WorkQueueFairness workQueueFairness = WorkQueueFairness.NAMESPACE;
+    // Requests served per turn, by namespace or watched resource name. Others have a weight of 1.
+    private Map<String, Integer> workQueueWeights = new HashMap<>();
+
+    // Failed actions are retried with an exponential backoff, from this delay
+    private long retryBaseDelayMs = 1000;
+    // up to this delay
+    private long retryMaxDelayMs = 300000;
+
+    // Deployment patches sent concurrently, across all reconciles
+    private int maxInFlightWrites = 16;
+
+    // Triggers targeting the same resource within this window are coalesced into a single write. 0 to disable.
+    private long triggerCoalescingWindowMs = 0;
+    // Coalesced writes are never delayed more than this since the first trigger
+    private long triggerCoalescingMaxDelayMs = 30000;
+
+    // Deployments rolling out at the same time after an annotation write, across all namespaces. 0 for no limit.
+    private int maxConcurrentRollouts = 0;
+    // Deployments rolling out at the same time in each namespace. 0 for no limit.
+    private int maxConcurrentRolloutsPerNamespace = 0;
+    // Rollouts not completed after this long release their slot
+    private long rolloutTimeoutMs = 600000;
+
+    // Client side rate limits of the api calls, shared by all watched resources. A rate of 0 disables the limit.
+    private double apiReadQps = 50;
+    private int apiReadBurst = 100;
+    private double apiWriteQps = 10;
+    private int apiWriteBurst = 20;
+
+    // List and watch resources using the protobuf wire format, falling back to json for kinds not served as protobuf
+    private boolean protobufWireFormat = false;
+
+    // Port of the prometheus /metrics endpoint. 0 to disable.
+    private int metricsPort = 9090;
 
 }
@@ -1,5 +1,6 @@
 package com.charlyghislain.resourcewatcher.config;
 
+import lombok.EqualsAndHashCode;
 import lombok.Getter;
 import lombok.Setter;
 
@@ -8,8 +9,11 @@ import java.util.List;
 
 @Getter
 @Setter
+@EqualsAndHashCode
 public class WatchedResource {
 
+    // Optional name, used to label metrics
+    private String name;
     private String kind = "";
     private String namespace = "";
 
@@ -20,6 +24,16 @@ public class WatchedResource {
     private boolean watchUpdate = true;
     private boolean watchDelete = false;
 
+    // Watch metadata only. Field selectors are limited to metadata fields, and any update triggers the actions.
+    private boolean metadataOnly = false;
+
+    // Record the handled payload digests on the annotated resources, so that restarts do not trigger the actions again.
+    // Not supported for pods.
+    private boolean triggerLedger = false;
+
+    // Failed actions are given up after that many retries for the same resource version
+    private int maxActionRetries = 10;
+
     private List<ResourceActionSpec> actionList;
 
 }
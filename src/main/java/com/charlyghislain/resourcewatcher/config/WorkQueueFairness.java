@@ -0,0 +1,10 @@
+package com.charlyghislain.resourcewatcher.config;
+
+public enum WorkQueueFairness {
+    // A single fifo queue
+    NONE,
+    // A sub-queue per namespace of the watched resources
+    NAMESPACE,
+    // A sub-queue per watched resource
+    WATCHED_RESOURCE,
+}
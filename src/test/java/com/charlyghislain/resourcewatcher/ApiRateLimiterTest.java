@@ -0,0 +1,90 @@
+package com.charlyghislain.resourcewatcher;
+
+import io.kubernetes.client.openapi.ApiException;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletionException;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ApiRateLimiterTest {
+
+    private static final long SECOND_NANOS = Duration.ofSeconds(1).toNanos();
+
+    @Test
+    void burstIsServedWithoutWaiting() {
+        ApiRateLimiter.TokenBucket bucket = new ApiRateLimiter.TokenBucket("test", 10, 2);
+        long nowNanos = System.nanoTime();
+
+        assertEquals(0, bucket.reserve(nowNanos));
+        assertEquals(0, bucket.reserve(nowNanos));
+    }
+
+    @Test
+    void callsBeyondTheBurstWaitInOrder() {
+        ApiRateLimiter.TokenBucket bucket = new ApiRateLimiter.TokenBucket("test", 10, 2);
+        long nowNanos = System.nanoTime();
+        bucket.reserve(nowNanos);
+        bucket.reserve(nowNanos);
+
+        assertEquals(SECOND_NANOS / 10, bucket.reserve(nowNanos));
+        assertEquals(2 * SECOND_NANOS / 10, bucket.reserve(nowNanos));
+    }
+
+    @Test
+    void tokensRefillUpToTheBurst() {
+        ApiRateLimiter.TokenBucket bucket = new ApiRateLimiter.TokenBucket("test", 10, 2);
+        long nowNanos = System.nanoTime();
+        bucket.reserve(nowNanos);
+        bucket.reserve(nowNanos);
+
+        long laterNanos = nowNanos + 10 * SECOND_NANOS;
+        assertEquals(0, bucket.reserve(laterNanos));
+        assertEquals(0, bucket.reserve(laterNanos));
+        assertEquals(SECOND_NANOS / 10, bucket.reserve(laterNanos));
+    }
+
+    @Test
+    void zeroQpsIsUnlimited() {
+        ApiRateLimiter.TokenBucket bucket = new ApiRateLimiter.TokenBucket("test", 0, 1);
+        long nowNanos = System.nanoTime();
+
+        for (int i = 0; i < 100; i++) {
+            assertEquals(0, bucket.reserve(nowNanos));
+        }
+    }
+
+    @Test
+    void throttlingDelaysAllCalls() {
+        ApiRateLimiter.TokenBucket bucket = new ApiRateLimiter.TokenBucket("test", 10, 2);
+
+        assertEquals(Duration.ofSeconds(3), bucket.backoff(Duration.ofSeconds(3)));
+        assertTrue(bucket.reserve(System.nanoTime()) > 2 * SECOND_NANOS);
+    }
+
+    @Test
+    void throttlingWithoutRetryAfterBacksOffExponentially() {
+        ApiRateLimiter.TokenBucket bucket = new ApiRateLimiter.TokenBucket("test", 10, 2);
+
+        assertEquals(Duration.ofSeconds(1), bucket.backoff(null));
+        assertEquals(Duration.ofSeconds(2), bucket.backoff(null));
+        assertEquals(Duration.ofSeconds(30), bucket.backoff(Duration.ofMinutes(5)));
+        bucket.resetBackoff();
+        assertEquals(Duration.ofSeconds(1), bucket.backoff(null));
+    }
+
+    @Test
+    void findsThrottlingCause() {
+        ApiException throttlingException = new ApiException(ApiRateLimiter.TOO_MANY_REQUESTS,
+                Map.of("retry-after", List.of("7")), "");
+
+        assertEquals(throttlingException, ApiRateLimiter.findThrottlingException(new CompletionException(throttlingException)).orElseThrow());
+        assertTrue(ApiRateLimiter.findThrottlingException(new ApiException(500, "")).isEmpty());
+        assertEquals(Duration.ofSeconds(7), ApiRateLimiter.getRetryAfter(throttlingException));
+        assertEquals(Duration.ofSeconds(1), ApiRateLimiter.getRetryAfter(new ApiException(ApiRateLimiter.TOO_MANY_REQUESTS, "")));
+    }
+}
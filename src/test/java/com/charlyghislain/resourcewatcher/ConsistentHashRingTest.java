@@ -0,0 +1,61 @@
+package com.charlyghislain.resourcewatcher;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ConsistentHashRingTest {
+
+    @Test
+    void emptyRingHasNoMember() {
+        assertNull(new ConsistentHashRing(List.of()).getMember("ns0"));
+    }
+
+    @Test
+    void assignmentDoesNotDependOnMemberOrder() {
+        ConsistentHashRing ring = new ConsistentHashRing(List.of("a", "b", "c"));
+        ConsistentHashRing reorderedRing = new ConsistentHashRing(List.of("c", "a", "b"));
+
+        for (int i = 0; i < 100; i++) {
+            assertEquals(ring.getMember("key-" + i), reorderedRing.getMember("key-" + i));
+        }
+    }
+
+    @Test
+    void keysSpreadOverMembers() {
+        ConsistentHashRing ring = new ConsistentHashRing(List.of("a", "b", "c"));
+        Map<String, Integer> keyCounts = new HashMap<>();
+        for (int i = 0; i < 3000; i++) {
+            keyCounts.merge(ring.getMember("key-" + i), 1, Integer::sum);
+        }
+
+        assertEquals(3, keyCounts.size());
+        keyCounts.values().forEach(count -> assertTrue(count > 500, "Unbalanced ring: " + keyCounts));
+    }
+
+    @Test
+    void onlyKeysOfLeavingMemberMove() {
+        ConsistentHashRing ring = new ConsistentHashRing(List.of("a", "b", "c"));
+        ConsistentHashRing shrunkRing = new ConsistentHashRing(List.of("a", "b"));
+
+        for (int i = 0; i < 1000; i++) {
+            String key = "key-" + i;
+            String member = ring.getMember(key);
+            if (!member.equals("c")) {
+                assertEquals(member, shrunkRing.getMember(key));
+            }
+        }
+    }
+
+    @Test
+    void hashIsStable() {
+        // The first 8 bytes of the sha-256 digest, so that all replicas agree
+        assertEquals(0x14bfb4b49895193dL, ConsistentHashRing.hash("ns0"));
+    }
+}
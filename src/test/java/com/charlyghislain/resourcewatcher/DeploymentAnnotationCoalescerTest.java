@@ -0,0 +1,110 @@
+package com.charlyghislain.resourcewatcher;
+
+import io.kubernetes.client.openapi.ApiException;
+import io.kubernetes.client.openapi.models.V1Deployment;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+class DeploymentAnnotationCoalescerTest {
+
+    private final ScriptedDeploymentAnnotator deploymentAnnotator = new ScriptedDeploymentAnnotator();
+    private final BlockingQueue<Throwable> deferredFailures = new LinkedBlockingQueue<>();
+    private ScheduledExecutorService scheduler;
+
+    @BeforeEach
+    void setUp() {
+        scheduler = Executors.newSingleThreadScheduledExecutor();
+    }
+
+    @AfterEach
+    void shutDown() {
+        scheduler.shutdownNow();
+    }
+
+    @Test
+    void writesImmediatelyWithoutWindow() {
+        DeploymentAnnotationCoalescer coalescer = createCoalescer(Duration.ZERO, Duration.ZERO);
+
+        coalescer.annotate("ns0", "web", "trigger", "1", Map.of("entry", "digest-1"), deferredFailures::add).join();
+
+        assertEquals(Map.of("trigger", "1"), deploymentAnnotator.writtenAnnotations.poll());
+    }
+
+    @Test
+    void mergesTriggersWithinTheWindow() throws InterruptedException {
+        DeploymentAnnotationCoalescer coalescer = createCoalescer(Duration.ofMillis(100), Duration.ofSeconds(5));
+
+        coalescer.annotate("ns0", "web", "trigger", "1", Map.of(), deferredFailures::add);
+        coalescer.annotate("ns0", "web", "other-trigger", "2", Map.of(), deferredFailures::add);
+
+        assertEquals(Map.of("trigger", "1", "other-trigger", "2"), deploymentAnnotator.writtenAnnotations.poll(5, TimeUnit.SECONDS));
+        assertNull(deploymentAnnotator.writtenAnnotations.poll(200, TimeUnit.MILLISECONDS));
+    }
+
+    @Test
+    void reportsFailedWritesToAllTriggers() throws InterruptedException {
+        DeploymentAnnotationCoalescer coalescer = createCoalescer(Duration.ofMillis(10), Duration.ofSeconds(5));
+        ApiException failure = new ApiException(500, "");
+        deploymentAnnotator.failures.add(failure);
+
+        coalescer.annotate("ns0", "web", "trigger", "1", Map.of(), deferredFailures::add);
+        coalescer.annotate("ns0", "web", "other-trigger", "2", Map.of(), deferredFailures::add);
+
+        assertEquals(failure, deferredFailures.poll(5, TimeUnit.SECONDS));
+        assertEquals(failure, deferredFailures.poll(5, TimeUnit.SECONDS));
+        assertEquals(1, deploymentAnnotator.writtenAnnotations.size());
+    }
+
+    @Test
+    void retriesThrottledWrites() throws InterruptedException {
+        DeploymentAnnotationCoalescer coalescer = createCoalescer(Duration.ofMillis(10), Duration.ofSeconds(5));
+        deploymentAnnotator.failures.add(new ApiException(ApiRateLimiter.TOO_MANY_REQUESTS, Map.of("Retry-After", List.of("0")), ""));
+
+        coalescer.annotate("ns0", "web", "trigger", "1", Map.of(), deferredFailures::add);
+
+        assertEquals(Map.of("trigger", "1"), deploymentAnnotator.writtenAnnotations.poll(5, TimeUnit.SECONDS));
+        assertEquals(Map.of("trigger", "1"), deploymentAnnotator.writtenAnnotations.poll(5, TimeUnit.SECONDS));
+        assertNull(deferredFailures.poll(200, TimeUnit.MILLISECONDS));
+    }
+
+    private DeploymentAnnotationCoalescer createCoalescer(Duration coalescingWindow, Duration maxDelay) {
+        // Rollouts are not limited
+        RolloutScheduler rolloutScheduler = new RolloutScheduler(deploymentAnnotator, 0, 0, Duration.ZERO, scheduler);
+        return new DeploymentAnnotationCoalescer(rolloutScheduler, coalescingWindow, maxDelay, scheduler);
+    }
+
+    /**
+     * Records the written annotations, and fails the next writes with the queued failures.
+     */
+    private static class ScriptedDeploymentAnnotator extends DeploymentAnnotator {
+
+        private final BlockingQueue<Map<String, String>> writtenAnnotations = new LinkedBlockingQueue<>();
+        private final BlockingQueue<Exception> failures = new LinkedBlockingQueue<>();
+
+        private ScriptedDeploymentAnnotator() {
+            super(null, 1);
+        }
+
+        @Override
+        public CompletableFuture<V1Deployment> annotatePodTemplate(String deploymentNamespace, String deploymentName, Map<String, String> annotations,
+                                                                   Map<String, String> ledgerEntries) {
+            writtenAnnotations.add(Map.copyOf(annotations));
+            Exception failure = failures.poll();
+            return failure == null ? CompletableFuture.completedFuture(null) : CompletableFuture.failedFuture(failure);
+        }
+    }
+}
@@ -0,0 +1,94 @@
+package com.charlyghislain.resourcewatcher;
+
+import io.kubernetes.client.extended.workqueue.ratelimiter.ItemExponentialFailureRateLimiter;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTimeoutPreemptively;
+
+class FairWorkQueueTest {
+
+    private FairWorkQueue<String> workQueue;
+
+    @AfterEach
+    void shutDown() {
+        if (workQueue != null) {
+            workQueue.shutDown();
+        }
+    }
+
+    @Test
+    void servesTenantsInTurn() throws InterruptedException {
+        workQueue = createWorkQueue(Map.of());
+        addAll("a/1", "a/2", "a/3", "b/1");
+
+        assertEquals(List.of("a/1", "b/1", "a/2", "a/3"), takeAll());
+    }
+
+    @Test
+    void servesTenantsUpToTheirWeight() throws InterruptedException {
+        workQueue = createWorkQueue(Map.of("a", 2));
+        addAll("a/1", "a/2", "a/3", "b/1", "b/2");
+
+        assertEquals(List.of("a/1", "a/2", "b/1", "a/3", "b/2"), takeAll());
+    }
+
+    @Test
+    void queuesItemsOnce() {
+        workQueue = createWorkQueue(Map.of());
+        addAll("a/1", "a/1");
+
+        assertEquals(1, workQueue.length());
+    }
+
+    @Test
+    void queuesItemsAddedWhileProcessedOnceDone() throws InterruptedException {
+        workQueue = createWorkQueue(Map.of());
+        workQueue.add("a/1");
+        String item = workQueue.get();
+        workQueue.add("a/1");
+
+        assertEquals(0, workQueue.length());
+        workQueue.done(item);
+        assertEquals(1, workQueue.length());
+        assertEquals("a/1", workQueue.get());
+    }
+
+    @Test
+    void queuesDelayedItemsAfterTheirDelay() {
+        workQueue = createWorkQueue(Map.of());
+        workQueue.addAfter("a/1", Duration.ofMillis(50));
+
+        assertEquals(0, workQueue.length());
+        assertEquals("a/1", assertTimeoutPreemptively(Duration.ofSeconds(5), () -> workQueue.get()));
+    }
+
+    private static FairWorkQueue<String> createWorkQueue(Map<String, Integer> tenantWeights) {
+        return new FairWorkQueue<>(item -> item.substring(0, item.indexOf('/')), tenantWeights,
+                new ItemExponentialFailureRateLimiter<>(Duration.ofMillis(10), Duration.ofSeconds(1)),
+                Executors.newSingleThreadScheduledExecutor());
+    }
+
+    private void addAll(String... items) {
+        for (String item : items) {
+            workQueue.add(item);
+        }
+    }
+
+    private List<String> takeAll() throws InterruptedException {
+        List<String> items = new ArrayList<>();
+        while (workQueue.length() > 0) {
+            String item = workQueue.get();
+            items.add(item);
+            workQueue.done(item);
+        }
+        return items;
+    }
+}
@@ -0,0 +1,65 @@
+package com.charlyghislain.resourcewatcher;
+
+import io.kubernetes.client.openapi.models.V1ObjectMeta;
+import io.kubernetes.client.openapi.models.V1Pod;
+import io.kubernetes.client.openapi.models.V1PodSpec;
+import io.kubernetes.client.openapi.models.V1PodStatus;
+import io.kubernetes.client.openapi.models.V1Secret;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class FieldSelectorTest {
+
+    private static final V1Secret SECRET = new V1Secret()
+            .metadata(new V1ObjectMeta().namespace("ns0").name("my-tls"))
+            .type("kubernetes.io/tls");
+    private static final V1Pod POD = new V1Pod()
+            .metadata(new V1ObjectMeta().namespace("ns0").name("my-pod"))
+            .spec(new V1PodSpec().nodeName("node-1"))
+            .status(new V1PodStatus().phase("Running"));
+
+    @Test
+    void emptySelectorMatchesAll() {
+        FieldSelector selector = FieldSelector.parse(List.of(" , "));
+
+        assertTrue(selector.isEmpty());
+        assertTrue(selector.matches(SECRET));
+    }
+
+    @Test
+    void metadataFields() {
+        assertTrue(FieldSelector.parse(List.of("metadata.name=my-tls")).matches(SECRET));
+        assertTrue(FieldSelector.parse(List.of("metadata.namespace==ns0")).matches(SECRET));
+        assertFalse(FieldSelector.parse(List.of("metadata.name!=my-tls")).matches(SECRET));
+        assertTrue(FieldSelector.parse(List.of("metadata.name=my-tls")).isMetadataSelector());
+    }
+
+    @Test
+    void secretType() {
+        FieldSelector selector = FieldSelector.parse(List.of("type=kubernetes.io/tls"));
+
+        assertTrue(selector.matches(SECRET));
+        assertFalse(selector.matches(POD));
+        assertFalse(selector.isMetadataSelector());
+    }
+
+    @Test
+    void podFields() {
+        assertTrue(FieldSelector.parse(List.of("spec.nodeName=node-1,status.phase=Running")).matches(POD));
+        assertFalse(FieldSelector.parse(List.of("status.phase!=Running")).matches(POD));
+        // Missing fields only match inequalities
+        assertFalse(FieldSelector.parse(List.of("status.podIP=10.0.0.1")).matches(POD));
+        assertTrue(FieldSelector.parse(List.of("spec.nodeName!=node-1")).matches(SECRET));
+    }
+
+    @Test
+    void invalidSelectorsAreRejected() {
+        assertThrows(IllegalArgumentException.class, () -> FieldSelector.parse(List.of("metadata.name")));
+        assertThrows(IllegalArgumentException.class, () -> FieldSelector.parse(List.of("metadata.labels=app")));
+    }
+}
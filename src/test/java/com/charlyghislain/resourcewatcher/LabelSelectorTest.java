@@ -0,0 +1,99 @@
+package com.charlyghislain.resourcewatcher;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class LabelSelectorTest {
+
+    private static final Map<String, String> LABELS = Map.of("app", "web", "tier", "frontend", "canary", "");
+
+    @Test
+    void emptySelectorMatchesAll() {
+        LabelSelector selector = LabelSelector.parse(List.of());
+
+        assertTrue(selector.isEmpty());
+        assertTrue(selector.matches(LABELS));
+        assertTrue(selector.matches(null));
+    }
+
+    @Test
+    void equality() {
+        assertTrue(LabelSelector.parse(List.of("app=web")).matches(LABELS));
+        assertTrue(LabelSelector.parse(List.of("app == web")).matches(LABELS));
+        assertFalse(LabelSelector.parse(List.of("app=api")).matches(LABELS));
+        assertFalse(LabelSelector.parse(List.of("app=web")).matches(null));
+    }
+
+    @Test
+    void inequality() {
+        LabelSelector selector = LabelSelector.parse(List.of("app!=api"));
+
+        assertTrue(selector.matches(LABELS));
+        assertTrue(selector.matches(Map.of()));
+        assertFalse(selector.matches(Map.of("app", "api")));
+    }
+
+    @Test
+    void in() {
+        LabelSelector selector = LabelSelector.parse(List.of("tier in (frontend, backend)"));
+
+        assertTrue(selector.matches(LABELS));
+        assertTrue(selector.matches(Map.of("tier", "backend")));
+        assertFalse(selector.matches(Map.of("tier", "cache")));
+        assertFalse(selector.matches(Map.of()));
+    }
+
+    @Test
+    void notIn() {
+        LabelSelector selector = LabelSelector.parse(List.of("tier notin (backend,cache)"));
+
+        assertTrue(selector.matches(LABELS));
+        assertTrue(selector.matches(Map.of()));
+        assertFalse(selector.matches(Map.of("tier", "cache")));
+    }
+
+    @Test
+    void exists() {
+        assertTrue(LabelSelector.parse(List.of("canary")).matches(LABELS));
+        assertFalse(LabelSelector.parse(List.of("canary")).matches(Map.of("app", "web")));
+        assertFalse(LabelSelector.parse(List.of("canary")).matches(null));
+    }
+
+    @Test
+    void doesNotExist() {
+        assertFalse(LabelSelector.parse(List.of("!canary")).matches(LABELS));
+        assertTrue(LabelSelector.parse(List.of("!canary")).matches(Map.of("app", "web")));
+        assertTrue(LabelSelector.parse(List.of("!canary")).matches(null));
+    }
+
+    @Test
+    void requirementsAreAnded() {
+        LabelSelector selector = LabelSelector.parse(List.of("app=web,tier in (frontend,backend)", "!legacy"));
+
+        assertTrue(selector.matches(LABELS));
+        assertFalse(selector.matches(Map.of("app", "web", "tier", "cache")));
+        assertFalse(selector.matches(Map.of("app", "web", "tier", "frontend", "legacy", "true")));
+        assertEquals("app=web,tier in (frontend,backend),!legacy", selector.getSelectorString());
+    }
+
+    @Test
+    void equalityRequirementIsNormalized() {
+        assertEquals(Optional.of("app=web"), LabelSelector.parse(List.of("tier!=cache, app == web")).getEqualityRequirement());
+        assertEquals(Optional.empty(), LabelSelector.parse(List.of("tier in (frontend)")).getEqualityRequirement());
+    }
+
+    @Test
+    void invalidSelectorsAreRejected() {
+        assertThrows(IllegalArgumentException.class, () -> LabelSelector.parse(List.of("tier in (frontend")));
+        assertThrows(IllegalArgumentException.class, () -> LabelSelector.parse(List.of("my app")));
+        assertThrows(IllegalArgumentException.class, () -> LabelSelector.parse(List.of("!")));
+    }
+}
@@ -0,0 +1,112 @@
+package com.charlyghislain.resourcewatcher;
+
+import io.kubernetes.client.openapi.models.V1ConfigMapEnvSource;
+import io.kubernetes.client.openapi.models.V1ConfigMapKeySelector;
+import io.kubernetes.client.openapi.models.V1ConfigMapProjection;
+import io.kubernetes.client.openapi.models.V1ConfigMapVolumeSource;
+import io.kubernetes.client.openapi.models.V1Container;
+import io.kubernetes.client.openapi.models.V1Deployment;
+import io.kubernetes.client.openapi.models.V1DeploymentSpec;
+import io.kubernetes.client.openapi.models.V1EnvFromSource;
+import io.kubernetes.client.openapi.models.V1EnvVar;
+import io.kubernetes.client.openapi.models.V1EnvVarSource;
+import io.kubernetes.client.openapi.models.V1ObjectMeta;
+import io.kubernetes.client.openapi.models.V1PodSpec;
+import io.kubernetes.client.openapi.models.V1PodTemplateSpec;
+import io.kubernetes.client.openapi.models.V1ProjectedVolumeSource;
+import io.kubernetes.client.openapi.models.V1SecretEnvSource;
+import io.kubernetes.client.openapi.models.V1SecretKeySelector;
+import io.kubernetes.client.openapi.models.V1SecretProjection;
+import io.kubernetes.client.openapi.models.V1SecretVolumeSource;
+import io.kubernetes.client.openapi.models.V1Volume;
+import io.kubernetes.client.openapi.models.V1VolumeProjection;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class PodTemplateReferencesTest {
+
+    @Test
+    void volumes() {
+        V1PodSpec podSpec = new V1PodSpec()
+                .addVolumesItem(new V1Volume().name("tls").secret(new V1SecretVolumeSource().secretName("my-tls")))
+                .addVolumesItem(new V1Volume().name("config").configMap(new V1ConfigMapVolumeSource().name("my-config")))
+                .addVolumesItem(new V1Volume().name("empty"));
+
+        assertEquals(List.of("secret/ns0/my-tls", "configmap/ns0/my-config"),
+                PodTemplateReferences.getReferenceKeys(createDeployment(podSpec)));
+    }
+
+    @Test
+    void projectedVolumes() {
+        V1PodSpec podSpec = new V1PodSpec()
+                .addVolumesItem(new V1Volume().name("projected").projected(new V1ProjectedVolumeSource()
+                        .addSourcesItem(new V1VolumeProjection().secret(new V1SecretProjection().name("my-tls")))
+                        .addSourcesItem(new V1VolumeProjection().configMap(new V1ConfigMapProjection().name("my-config")))));
+
+        assertEquals(List.of("secret/ns0/my-tls", "configmap/ns0/my-config"),
+                PodTemplateReferences.getReferenceKeys(createDeployment(podSpec)));
+    }
+
+    @Test
+    void envFrom() {
+        V1Container container = new V1Container().name("web")
+                .addEnvFromItem(new V1EnvFromSource().secretRef(new V1SecretEnvSource().name("my-credentials")))
+                .addEnvFromItem(new V1EnvFromSource().configMapRef(new V1ConfigMapEnvSource().name("my-config")));
+
+        assertEquals(List.of("secret/ns0/my-credentials", "configmap/ns0/my-config"),
+                PodTemplateReferences.getReferenceKeys(createDeployment(new V1PodSpec().addContainersItem(container))));
+    }
+
+    @Test
+    void envValues() {
+        V1Container container = new V1Container().name("web")
+                .addEnvItem(new V1EnvVar().name("PLAIN").value("value"))
+                .addEnvItem(new V1EnvVar().name("PASSWORD").valueFrom(new V1EnvVarSource()
+                        .secretKeyRef(new V1SecretKeySelector().name("my-credentials").key("password"))))
+                .addEnvItem(new V1EnvVar().name("LEVEL").valueFrom(new V1EnvVarSource()
+                        .configMapKeyRef(new V1ConfigMapKeySelector().name("my-config").key("level"))));
+
+        assertEquals(List.of("secret/ns0/my-credentials", "configmap/ns0/my-config"),
+                PodTemplateReferences.getReferenceKeys(createDeployment(new V1PodSpec().addContainersItem(container))));
+    }
+
+    @Test
+    void initContainers() {
+        V1Container initContainer = new V1Container().name("init")
+                .addEnvFromItem(new V1EnvFromSource().secretRef(new V1SecretEnvSource().name("my-init-credentials")));
+        V1PodSpec podSpec = new V1PodSpec()
+                .addContainersItem(new V1Container().name("web"))
+                .addInitContainersItem(initContainer);
+
+        assertEquals(List.of("secret/ns0/my-init-credentials"), PodTemplateReferences.getReferenceKeys(createDeployment(podSpec)));
+    }
+
+    @Test
+    void referencesAreListedOnce() {
+        V1Container container = new V1Container().name("web")
+                .addEnvFromItem(new V1EnvFromSource().secretRef(new V1SecretEnvSource().name("my-tls")));
+        V1PodSpec podSpec = new V1PodSpec()
+                .addVolumesItem(new V1Volume().name("tls").secret(new V1SecretVolumeSource().secretName("my-tls")))
+                .addContainersItem(container);
+
+        assertEquals(List.of("secret/ns0/my-tls"), PodTemplateReferences.getReferenceKeys(createDeployment(podSpec)));
+    }
+
+    @Test
+    void deploymentWithoutTemplateHasNoReference() {
+        V1Deployment deployment = new V1Deployment()
+                .metadata(new V1ObjectMeta().namespace("ns0").name("web"))
+                .spec(new V1DeploymentSpec());
+
+        assertEquals(List.of(), PodTemplateReferences.getReferenceKeys(deployment));
+    }
+
+    private static V1Deployment createDeployment(V1PodSpec podSpec) {
+        return new V1Deployment()
+                .metadata(new V1ObjectMeta().namespace("ns0").name("web"))
+                .spec(new V1DeploymentSpec().template(new V1PodTemplateSpec().spec(podSpec)));
+    }
+}
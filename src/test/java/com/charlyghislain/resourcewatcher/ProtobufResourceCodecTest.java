@@ -0,0 +1,90 @@
+package com.charlyghislain.resourcewatcher;
+
+import com.google.protobuf.ByteString;
+import io.kubernetes.client.openapi.models.V1Secret;
+import io.kubernetes.client.openapi.models.V1SecretList;
+import io.kubernetes.client.openapi.models.V1Status;
+import io.kubernetes.client.proto.Meta;
+import io.kubernetes.client.proto.Runtime;
+import io.kubernetes.client.proto.V1;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class ProtobufResourceCodecTest {
+
+    @Test
+    void decodesSecretList() throws IOException {
+        V1.SecretList secretList = V1.SecretList.newBuilder()
+                .setMetadata(Meta.ListMeta.newBuilder().setResourceVersion("42"))
+                .addItems(V1.Secret.newBuilder()
+                        .setMetadata(Meta.ObjectMeta.newBuilder()
+                                .setName("my-tls")
+                                .setNamespace("ns0")
+                                .setUid("uid-1")
+                                .setResourceVersion("41")
+                                .putLabels("app", "web"))
+                        .setType("kubernetes.io/tls")
+                        .putData("tls.crt", ByteString.copyFrom("certificate", StandardCharsets.UTF_8)))
+                .build();
+
+        V1SecretList decodedList = ProtobufResourceCodec.SECRET.decodeList(wrap("SecretList", secretList.toByteString()));
+
+        assertEquals("42", decodedList.getMetadata().getResourceVersion());
+        assertEquals(1, decodedList.getItems().size());
+        V1Secret secret = decodedList.getItems().get(0);
+        assertEquals("Secret", secret.getKind());
+        assertEquals("my-tls", secret.getMetadata().getName());
+        assertEquals("ns0", secret.getMetadata().getNamespace());
+        assertEquals("uid-1", secret.getMetadata().getUid());
+        assertEquals("41", secret.getMetadata().getResourceVersion());
+        assertEquals(Map.of("app", "web"), secret.getMetadata().getLabels());
+        assertNull(secret.getMetadata().getAnnotations());
+        assertEquals("kubernetes.io/tls", secret.getType());
+        assertArrayEquals("certificate".getBytes(StandardCharsets.UTF_8), secret.getData().get("tls.crt"));
+    }
+
+    @Test
+    void decodesStatus() throws IOException {
+        Meta.Status status = Meta.Status.newBuilder()
+                .setStatus("Failure")
+                .setReason("Expired")
+                .setMessage("too old resource version")
+                .setCode(410)
+                .build();
+
+        V1Status decodedStatus = ProtobufResourceCodec.decodeStatus(wrap("Status", status.toByteString()));
+
+        assertEquals("Failure", decodedStatus.getStatus());
+        assertEquals("Expired", decodedStatus.getReason());
+        assertEquals(410, decodedStatus.getCode());
+    }
+
+    @Test
+    void rejectsPayloadsWithoutEnvelope() {
+        byte[] payload = V1.SecretList.getDefaultInstance().toByteArray();
+
+        assertThrows(IOException.class, () -> ProtobufResourceCodec.SECRET.decodeList(payload));
+        assertThrows(IOException.class, () -> ProtobufResourceCodec.SECRET.decodeList(new byte[]{0x6b, 0x38}));
+    }
+
+    private static byte[] wrap(String kind, ByteString raw) throws IOException {
+        Runtime.Unknown envelope = Runtime.Unknown.newBuilder()
+                .setTypeMeta(Runtime.TypeMeta.newBuilder().setApiVersion("v1").setKind(kind))
+                .setRaw(raw)
+                .setContentType(ProtobufResourceCodec.MEDIA_TYPE)
+                .build();
+        ByteArrayOutputStream payloadStream = new ByteArrayOutputStream();
+        payloadStream.write(new byte[]{0x6b, 0x38, 0x73, 0x00});
+        envelope.writeTo(payloadStream);
+        return payloadStream.toByteArray();
+    }
+}
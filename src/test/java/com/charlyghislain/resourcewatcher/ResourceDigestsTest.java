@@ -0,0 +1,147 @@
+package com.charlyghislain.resourcewatcher;
+
+import io.kubernetes.client.openapi.models.V1ConfigMap;
+import io.kubernetes.client.openapi.models.V1ContainerStatus;
+import io.kubernetes.client.openapi.models.V1ObjectMeta;
+import io.kubernetes.client.openapi.models.V1Pod;
+import io.kubernetes.client.openapi.models.V1PodSpec;
+import io.kubernetes.client.openapi.models.V1PodStatus;
+import io.kubernetes.client.openapi.models.V1Secret;
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ResourceDigestsTest {
+
+    @Test
+    void digestIsHexSha256() {
+        String digest = ResourceDigests.computeDigest(createSecret("1", Map.of("tls.crt", "certificate")));
+
+        assertEquals(64, digest.length());
+        assertTrue(digest.matches("[0-9a-f]+"), digest);
+    }
+
+    @Test
+    void secretDigestIgnoresMetadata() {
+        V1Secret secret = createSecret("1", Map.of("tls.crt", "certificate"));
+        V1Secret updatedSecret = createSecret("2", Map.of("tls.crt", "certificate"));
+        updatedSecret.getMetadata().annotations(Map.of("note", "updated"));
+
+        assertEquals(ResourceDigests.computeDigest(secret), ResourceDigests.computeDigest(updatedSecret));
+    }
+
+    @Test
+    void secretDigestFollowsDataAndType() {
+        V1Secret secret = createSecret("1", Map.of("tls.crt", "certificate"));
+
+        assertNotEquals(ResourceDigests.computeDigest(secret),
+                ResourceDigests.computeDigest(createSecret("1", Map.of("tls.crt", "renewed"))));
+        assertNotEquals(ResourceDigests.computeDigest(secret),
+                ResourceDigests.computeDigest(createSecret("1", Map.of("tls.crt", "certificate")).type("Opaque")));
+    }
+
+    @Test
+    void secretDigestDoesNotDependOnEntryOrder() {
+        V1Secret secret = createSecret("1", Map.of("tls.crt", "certificate", "tls.key", "key"));
+        V1Secret reorderedSecret = createSecret("1", Map.of("tls.key", "key", "tls.crt", "certificate"));
+
+        assertEquals(ResourceDigests.computeDigest(secret), ResourceDigests.computeDigest(reorderedSecret));
+    }
+
+    @Test
+    void entryBoundariesAreDigested() {
+        V1Secret secret = createSecret("1", Map.of("ab", "c"));
+        V1Secret shiftedSecret = createSecret("1", Map.of("a", "bc"));
+
+        assertNotEquals(ResourceDigests.computeDigest(secret), ResourceDigests.computeDigest(shiftedSecret));
+    }
+
+    @Test
+    void configMapDigestDistinguishesDataAndBinaryData() {
+        V1ConfigMap configMap = new V1ConfigMap()
+                .metadata(new V1ObjectMeta().namespace("ns0").name("my-config").resourceVersion("1"))
+                .data(Map.of("key", "value"));
+        V1ConfigMap binaryConfigMap = new V1ConfigMap()
+                .metadata(new V1ObjectMeta().namespace("ns0").name("my-config").resourceVersion("1"))
+                .binaryData(Map.of("key", "value".getBytes(StandardCharsets.UTF_8)));
+        V1ConfigMap emptyConfigMap = new V1ConfigMap()
+                .metadata(new V1ObjectMeta().namespace("ns0").name("my-config").resourceVersion("1"))
+                .data(Map.of());
+
+        assertNotEquals(ResourceDigests.computeDigest(configMap), ResourceDigests.computeDigest(binaryConfigMap));
+        assertNotEquals(ResourceDigests.computeDigest(emptyConfigMap),
+                ResourceDigests.computeDigest(new V1ConfigMap().metadata(emptyConfigMap.getMetadata())));
+    }
+
+    @Test
+    void podDigestFollowsLabelsAndStatus() {
+        V1Pod pod = createPod("1", "Running", true);
+        V1Pod resyncedPod = createPod("2", "Running", true);
+        resyncedPod.getMetadata().annotations(Map.of("note", "updated"));
+
+        assertEquals(ResourceDigests.computeDigest(pod), ResourceDigests.computeDigest(resyncedPod));
+        assertNotEquals(ResourceDigests.computeDigest(pod), ResourceDigests.computeDigest(createPod("1", "Failed", true)));
+        assertNotEquals(ResourceDigests.computeDigest(pod), ResourceDigests.computeDigest(createPod("1", "Running", false)));
+
+        V1Pod relabeledPod = createPod("1", "Running", true);
+        relabeledPod.getMetadata().labels(Map.of("app", "api"));
+        assertNotEquals(ResourceDigests.computeDigest(pod), ResourceDigests.computeDigest(relabeledPod));
+    }
+
+    @Test
+    void resourceVersionDigestFollowsTheResourceVersion() {
+        assertEquals(ResourceDigests.computeResourceVersionDigest(createSecret("1", Map.of())),
+                ResourceDigests.computeResourceVersionDigest(createSecret("1", Map.of("tls.crt", "certificate"))));
+        assertNotEquals(ResourceDigests.computeResourceVersionDigest(createSecret("1", Map.of())),
+                ResourceDigests.computeResourceVersionDigest(createSecret("2", Map.of())));
+    }
+
+    @Test
+    void podMetadataDigestIgnoresStatusUpdates() {
+        V1Pod pod = createPod("1", "Running", true);
+        V1Pod updatedPod = createPod("2", "Failed", false);
+
+        assertEquals(ResourceDigests.computePodMetadataDigest(pod), ResourceDigests.computePodMetadataDigest(updatedPod));
+    }
+
+    @Test
+    void podMetadataDigestFollowsNameAndLabels() {
+        V1Pod pod = createPod("1", "Running", true);
+        V1Pod relabeledPod = createPod("1", "Running", true);
+        relabeledPod.getMetadata().labels(Map.of("app", "api"));
+        V1Pod renamedPod = createPod("1", "Running", true);
+        renamedPod.getMetadata().name("other-pod");
+
+        assertNotEquals(ResourceDigests.computePodMetadataDigest(pod), ResourceDigests.computePodMetadataDigest(relabeledPod));
+        assertNotEquals(ResourceDigests.computePodMetadataDigest(pod), ResourceDigests.computePodMetadataDigest(renamedPod));
+    }
+
+    private static V1Secret createSecret(String resourceVersion, Map<String, String> data) {
+        V1Secret secret = new V1Secret()
+                .metadata(new V1ObjectMeta().namespace("ns0").name("my-tls").resourceVersion(resourceVersion))
+                .type("kubernetes.io/tls");
+        data.forEach((key, value) -> secret.putDataItem(key, value.getBytes(StandardCharsets.UTF_8)));
+        return secret;
+    }
+
+    private static V1Pod createPod(String resourceVersion, String phase, boolean ready) {
+        return new V1Pod()
+                .metadata(new V1ObjectMeta().namespace("ns0").name("my-pod").resourceVersion(resourceVersion)
+                        .labels(Map.of("app", "web")))
+                .spec(new V1PodSpec().nodeName("node-1"))
+                .status(new V1PodStatus()
+                        .phase(phase)
+                        .podIP("10.0.0.1")
+                        .containerStatuses(List.of(new V1ContainerStatus()
+                                .name("web")
+                                .imageID("sha256:1234")
+                                .ready(ready)
+                                .restartCount(0))));
+    }
+}
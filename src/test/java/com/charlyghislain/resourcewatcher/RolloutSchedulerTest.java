@@ -0,0 +1,226 @@
+package com.charlyghislain.resourcewatcher;
+
+import io.kubernetes.client.openapi.ApiException;
+import io.kubernetes.client.openapi.models.V1Deployment;
+import io.kubernetes.client.openapi.models.V1DeploymentSpec;
+import io.kubernetes.client.openapi.models.V1DeploymentStatus;
+import io.kubernetes.client.openapi.models.V1ObjectMeta;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class RolloutSchedulerTest {
+
+    private final ScriptedDeploymentAnnotator deploymentAnnotator = new ScriptedDeploymentAnnotator();
+    private final BlockingQueue<Throwable> deferredFailures = new LinkedBlockingQueue<>();
+    private ScheduledExecutorService scheduler;
+
+    @BeforeEach
+    void setUp() {
+        scheduler = Executors.newSingleThreadScheduledExecutor();
+    }
+
+    @AfterEach
+    void shutDown() {
+        scheduler.shutdownNow();
+    }
+
+    @Test
+    void writesImmediatelyWithoutCaps() {
+        RolloutScheduler rolloutScheduler = createRolloutScheduler(0, 0, Duration.ofMinutes(1));
+
+        annotate(rolloutScheduler, "ns0", "web", "1");
+        annotate(rolloutScheduler, "ns0", "worker", "1");
+
+        assertEquals(List.of("ns0/web", "ns0/worker"), List.copyOf(deploymentAnnotator.writtenTargets));
+    }
+
+    @Test
+    void queuesWritesBeyondTheCapUntilARolloutCompletes() throws InterruptedException {
+        RolloutScheduler rolloutScheduler = createRolloutScheduler(1, 0, Duration.ofMinutes(1));
+
+        annotate(rolloutScheduler, "ns0", "web", "1");
+        annotate(rolloutScheduler, "ns0", "worker", "1");
+        assertEquals("ns0/web", deploymentAnnotator.writtenTargets.poll());
+        assertNull(deploymentAnnotator.writtenTargets.poll());
+
+        rolloutScheduler.onUpdate(null, createDeployment("ns0", "web", false));
+        assertNull(deploymentAnnotator.writtenTargets.poll(200, TimeUnit.MILLISECONDS));
+        rolloutScheduler.onUpdate(null, createDeployment("ns0", "web", true));
+        assertEquals("ns0/worker", deploymentAnnotator.writtenTargets.poll(5, TimeUnit.SECONDS));
+    }
+
+    @Test
+    void capsRolloutsPerNamespace() throws InterruptedException {
+        RolloutScheduler rolloutScheduler = createRolloutScheduler(0, 1, Duration.ofMinutes(1));
+
+        annotate(rolloutScheduler, "ns0", "web", "1");
+        annotate(rolloutScheduler, "ns0", "worker", "1");
+        annotate(rolloutScheduler, "ns1", "web", "1");
+
+        assertEquals(List.of("ns0/web", "ns1/web"), List.copyOf(deploymentAnnotator.writtenTargets));
+        deploymentAnnotator.writtenTargets.clear();
+        rolloutScheduler.onUpdate(null, createDeployment("ns0", "web", true));
+        assertEquals("ns0/worker", deploymentAnnotator.writtenTargets.poll(5, TimeUnit.SECONDS));
+    }
+
+    @Test
+    void mergesWritesQueuedForARollingOutDeployment() throws InterruptedException {
+        RolloutScheduler rolloutScheduler = createRolloutScheduler(2, 0, Duration.ofMinutes(1));
+
+        annotate(rolloutScheduler, "ns0", "web", "1");
+        rolloutScheduler.annotate("ns0", "web", Map.of("trigger", "2"), Map.of(), deferredFailures::add).join();
+        rolloutScheduler.annotate("ns0", "web", Map.of("other-trigger", "3"), Map.of(), deferredFailures::add).join();
+        assertEquals(Map.of("trigger", "1"), deploymentAnnotator.writtenAnnotations.poll());
+        assertNull(deploymentAnnotator.writtenAnnotations.poll());
+
+        rolloutScheduler.onUpdate(null, createDeployment("ns0", "web", true));
+        assertEquals(Map.of("trigger", "2", "other-trigger", "3"), deploymentAnnotator.writtenAnnotations.poll(5, TimeUnit.SECONDS));
+    }
+
+    @Test
+    void deletedDeploymentReleasesItsSlot() throws InterruptedException {
+        RolloutScheduler rolloutScheduler = createRolloutScheduler(1, 0, Duration.ofMinutes(1));
+        annotate(rolloutScheduler, "ns0", "web", "1");
+        annotate(rolloutScheduler, "ns0", "worker", "1");
+        deploymentAnnotator.writtenTargets.clear();
+
+        rolloutScheduler.onDelete(createDeployment("ns0", "web", false), false);
+
+        assertEquals("ns0/worker", deploymentAnnotator.writtenTargets.poll(5, TimeUnit.SECONDS));
+    }
+
+    @Test
+    void timedOutRolloutReleasesItsSlot() throws InterruptedException {
+        RolloutScheduler rolloutScheduler = createRolloutScheduler(1, 0, Duration.ofMillis(1));
+        annotate(rolloutScheduler, "ns0", "web", "1");
+        annotate(rolloutScheduler, "ns0", "worker", "1");
+        deploymentAnnotator.writtenTargets.clear();
+
+        Thread.sleep(10);
+        rolloutScheduler.releaseTimedOutRollouts();
+
+        assertEquals("ns0/worker", deploymentAnnotator.writtenTargets.poll(5, TimeUnit.SECONDS));
+    }
+
+    @Test
+    void failedWriteReleasesItsSlot() {
+        RolloutScheduler rolloutScheduler = createRolloutScheduler(1, 0, Duration.ofMinutes(1));
+        deploymentAnnotator.failures.add(new ApiException(500, ""));
+
+        assertTrue(rolloutScheduler.annotate("ns0", "web", Map.of("trigger", "1"), Map.of(), deferredFailures::add)
+                .isCompletedExceptionally());
+        annotate(rolloutScheduler, "ns0", "worker", "1");
+
+        assertEquals(List.of("ns0/web", "ns0/worker"), List.copyOf(deploymentAnnotator.writtenTargets));
+    }
+
+    @Test
+    void reportsQueuedWriteFailuresToTheListener() throws InterruptedException {
+        RolloutScheduler rolloutScheduler = createRolloutScheduler(1, 0, Duration.ofMinutes(1));
+        annotate(rolloutScheduler, "ns0", "web", "1");
+        annotate(rolloutScheduler, "ns0", "worker", "1");
+        ApiException failure = new ApiException(500, "");
+        deploymentAnnotator.failures.add(failure);
+
+        rolloutScheduler.onUpdate(null, createDeployment("ns0", "web", true));
+
+        assertEquals(failure, deferredFailures.poll(5, TimeUnit.SECONDS));
+    }
+
+    @Test
+    void queuesThrottledWritesAgain() throws InterruptedException {
+        RolloutScheduler rolloutScheduler = createRolloutScheduler(1, 0, Duration.ofMinutes(1));
+        annotate(rolloutScheduler, "ns0", "web", "1");
+        annotate(rolloutScheduler, "ns0", "worker", "1");
+        deploymentAnnotator.writtenTargets.clear();
+        deploymentAnnotator.failures.add(new ApiException(ApiRateLimiter.TOO_MANY_REQUESTS, Map.of("Retry-After", List.of("0")), ""));
+
+        rolloutScheduler.onUpdate(null, createDeployment("ns0", "web", true));
+
+        assertEquals("ns0/worker", deploymentAnnotator.writtenTargets.poll(5, TimeUnit.SECONDS));
+        assertEquals("ns0/worker", deploymentAnnotator.writtenTargets.poll(5, TimeUnit.SECONDS));
+        assertNull(deferredFailures.poll(200, TimeUnit.MILLISECONDS));
+    }
+
+    @Test
+    void rolloutCompletesOnceAllReplicasAreUpdatedAndAvailable() {
+        V1Deployment deployment = createDeployment("ns0", "web", true);
+        assertTrue(RolloutScheduler.isRolloutComplete(deployment, 2L));
+        assertFalse(RolloutScheduler.isRolloutComplete(deployment, 3L));
+        assertFalse(RolloutScheduler.isRolloutComplete(createDeployment("ns0", "web", false), 2L));
+        assertFalse(RolloutScheduler.isRolloutComplete(new V1Deployment().metadata(deployment.getMetadata()), 2L));
+
+        V1Deployment terminatingDeployment = createDeployment("ns0", "web", true);
+        terminatingDeployment.getStatus().replicas(3);
+        assertFalse(RolloutScheduler.isRolloutComplete(terminatingDeployment, 2L));
+
+        V1Deployment unavailableDeployment = createDeployment("ns0", "web", true);
+        unavailableDeployment.getStatus().availableReplicas(1);
+        assertFalse(RolloutScheduler.isRolloutComplete(unavailableDeployment, 2L));
+    }
+
+    private RolloutScheduler createRolloutScheduler(int maxConcurrentRollouts, int maxConcurrentRolloutsPerNamespace, Duration rolloutTimeout) {
+        return new RolloutScheduler(deploymentAnnotator, maxConcurrentRollouts, maxConcurrentRolloutsPerNamespace, rolloutTimeout, scheduler);
+    }
+
+    private void annotate(RolloutScheduler rolloutScheduler, String namespace, String name, String annotationValue) {
+        rolloutScheduler.annotate(namespace, name, Map.of("trigger", annotationValue), Map.of(), deferredFailures::add).join();
+    }
+
+    /**
+     * A deployment at generation 2 with 2 replicas, whose rollout is complete or still in progress.
+     */
+    private static V1Deployment createDeployment(String namespace, String name, boolean rolledOut) {
+        return new V1Deployment()
+                .metadata(new V1ObjectMeta().namespace(namespace).name(name).generation(2L))
+                .spec(new V1DeploymentSpec().replicas(2))
+                .status(new V1DeploymentStatus()
+                        .observedGeneration(2L)
+                        .replicas(rolledOut ? 2 : 3)
+                        .updatedReplicas(rolledOut ? 2 : 1)
+                        .availableReplicas(2));
+    }
+
+    /**
+     * Records the writes, and fails the next ones with the queued failures. Written deployments report no status.
+     */
+    private static class ScriptedDeploymentAnnotator extends DeploymentAnnotator {
+
+        private final BlockingQueue<String> writtenTargets = new LinkedBlockingQueue<>();
+        private final BlockingQueue<Map<String, String>> writtenAnnotations = new LinkedBlockingQueue<>();
+        private final BlockingQueue<Exception> failures = new LinkedBlockingQueue<>();
+
+        private ScriptedDeploymentAnnotator() {
+            super(null, 1);
+        }
+
+        @Override
+        public CompletableFuture<V1Deployment> annotatePodTemplate(String deploymentNamespace, String deploymentName, Map<String, String> annotations,
+                                                                   Map<String, String> ledgerEntries) {
+            writtenTargets.add(deploymentNamespace + "/" + deploymentName);
+            writtenAnnotations.add(Map.copyOf(annotations));
+            Exception failure = failures.poll();
+            if (failure != null) {
+                return CompletableFuture.failedFuture(failure);
+            }
+            return CompletableFuture.completedFuture(new V1Deployment()
+                    .metadata(new V1ObjectMeta().namespace(deploymentNamespace).name(deploymentName).generation(2L)));
+        }
+    }
+}
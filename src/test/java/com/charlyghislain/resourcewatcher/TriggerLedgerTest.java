@@ -0,0 +1,90 @@
+package com.charlyghislain.resourcewatcher;
+
+import com.charlyghislain.resourcewatcher.config.ResourceActionSpec;
+import io.kubernetes.client.openapi.models.V1ObjectMeta;
+import io.kubernetes.client.openapi.models.V1Secret;
+import org.junit.jupiter.api.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class TriggerLedgerTest {
+
+    private static final V1Secret SECRET = new V1Secret()
+            .metadata(new V1ObjectMeta().namespace("ns0").name("my-tls"));
+
+    @Test
+    void entryAnnotationNameIsAFixedLengthKey() {
+        String entryAnnotationName = TriggerLedger.getEntryAnnotationName("secret", SECRET, createActionSpec("reload"));
+
+        assertTrue(entryAnnotationName.startsWith(TriggerLedger.ENTRY_ANNOTATION_PREFIX));
+        String entryKey = entryAnnotationName.substring(TriggerLedger.ENTRY_ANNOTATION_PREFIX.length());
+        assertTrue(entryKey.matches("[0-9a-f]{32}"), entryKey);
+        assertTrue(entryKey.length() <= 63);
+    }
+
+    @Test
+    void entryAnnotationNameIsPerWatchedObjectAndAction() {
+        String entryAnnotationName = TriggerLedger.getEntryAnnotationName("secret", SECRET, createActionSpec("reload"));
+        V1Secret otherSecret = new V1Secret().metadata(new V1ObjectMeta().namespace("ns0").name("other-tls"));
+
+        assertEquals(entryAnnotationName, TriggerLedger.getEntryAnnotationName("secret", SECRET, createActionSpec("reload")));
+        assertNotEquals(entryAnnotationName, TriggerLedger.getEntryAnnotationName("secret", otherSecret, createActionSpec("reload")));
+        assertNotEquals(entryAnnotationName, TriggerLedger.getEntryAnnotationName("configmap", SECRET, createActionSpec("reload")));
+        assertNotEquals(entryAnnotationName, TriggerLedger.getEntryAnnotationName("secret", SECRET, createActionSpec("restart")));
+    }
+
+    @Test
+    void entryValueReferencesTheWatchedObject() {
+        assertEquals("secret/ns0/my-tls@digest-1", TriggerLedger.getEntryValue("secret", SECRET, "digest-1"));
+    }
+
+    @Test
+    void handledWhenTheEntryValueIsRecorded() {
+        V1ObjectMeta deploymentMetadata = new V1ObjectMeta().annotations(Map.of("ledger-entry", "secret/ns0/my-tls@digest-1"));
+
+        assertTrue(TriggerLedger.isHandled(deploymentMetadata, "ledger-entry", "secret/ns0/my-tls@digest-1"));
+        assertFalse(TriggerLedger.isHandled(deploymentMetadata, "ledger-entry", "secret/ns0/my-tls@digest-2"));
+        assertFalse(TriggerLedger.isHandled(deploymentMetadata, "other-entry", "secret/ns0/my-tls@digest-1"));
+        assertFalse(TriggerLedger.isHandled(new V1ObjectMeta(), "ledger-entry", "secret/ns0/my-tls@digest-1"));
+        assertFalse(TriggerLedger.isHandled(null, "ledger-entry", "secret/ns0/my-tls@digest-1"));
+    }
+
+    @Test
+    void entryRemovesStaleEntriesOfTheSameKind() {
+        String stalePrefix = TriggerLedger.ENTRY_ANNOTATION_PREFIX;
+        Map<String, String> annotations = new HashMap<>();
+        annotations.put(stalePrefix + "deleted", "secret/ns0/deleted-tls@digest-0");
+        annotations.put(stalePrefix + "existing", "secret/ns0/existing-tls@digest-0");
+        annotations.put(stalePrefix + "configmap", "configmap/ns0/deleted-config@digest-0");
+        annotations.put("other-annotation", "secret/ns0/deleted-tls@digest-0");
+        V1ObjectMeta deploymentMetadata = new V1ObjectMeta().annotations(annotations);
+        Set<String> existingObjects = Set.of("ns0/existing-tls");
+
+        Map<String, String> ledgerEntries = TriggerLedger.createEntry(deploymentMetadata, "ledger-entry", "secret/ns0/my-tls@digest-1",
+                "secret", objectKey -> !existingObjects.contains(objectKey));
+
+        Map<String, String> expectedEntries = new HashMap<>();
+        expectedEntries.put("ledger-entry", "secret/ns0/my-tls@digest-1");
+        expectedEntries.put(stalePrefix + "deleted", null);
+        assertEquals(expectedEntries, ledgerEntries);
+    }
+
+    @Test
+    void entryWithoutExistingAnnotations() {
+        assertEquals(Map.of("ledger-entry", "secret/ns0/my-tls@digest-1"),
+                TriggerLedger.createEntry(null, "ledger-entry", "secret/ns0/my-tls@digest-1", "secret", objectKey -> true));
+    }
+
+    private static ResourceActionSpec createActionSpec(String annotationName) {
+        ResourceActionSpec actionSpec = new ResourceActionSpec();
+        actionSpec.setAnnotatedResourceAnnotationName(annotationName);
+        return actionSpec;
+    }
+}
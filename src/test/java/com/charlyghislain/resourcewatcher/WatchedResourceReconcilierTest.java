@@ -0,0 +1,234 @@
+package com.charlyghislain.resourcewatcher;
+
+import com.charlyghislain.resourcewatcher.config.AnnotatedResourceKind;
+import com.charlyghislain.resourcewatcher.config.ResourceActionSpec;
+import com.charlyghislain.resourcewatcher.config.ResourceActionType;
+import com.charlyghislain.resourcewatcher.config.WatchedResource;
+import io.kubernetes.client.extended.controller.reconciler.Request;
+import io.kubernetes.client.extended.controller.reconciler.Result;
+import io.kubernetes.client.informer.SharedIndexInformer;
+import io.kubernetes.client.informer.SharedInformerFactory;
+import io.kubernetes.client.openapi.ApiClient;
+import io.kubernetes.client.openapi.ApiException;
+import io.kubernetes.client.openapi.apis.AppsV1Api;
+import io.kubernetes.client.openapi.models.V1Deployment;
+import io.kubernetes.client.openapi.models.V1DeploymentList;
+import io.kubernetes.client.openapi.models.V1ObjectMeta;
+import io.kubernetes.client.openapi.models.V1Secret;
+import io.kubernetes.client.openapi.models.V1SecretList;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class WatchedResourceReconcilierTest {
+
+    private static final Request REQUEST = new Request("ns0", "my-tls");
+
+    private final FailingDeploymentAnnotator deploymentAnnotator = new FailingDeploymentAnnotator();
+    private final BlockingQueue<Request> requeuedRequests = new LinkedBlockingQueue<>();
+    private ScheduledExecutorService scheduler;
+    private SharedIndexInformer<V1Secret> secretInformer;
+
+    @BeforeEach
+    void setUp() {
+        scheduler = Executors.newSingleThreadScheduledExecutor();
+        secretInformer = new SharedInformerFactory().sharedIndexInformerFor(params -> null, V1Secret.class, V1SecretList.class);
+        secretInformer.getIndexer().add(createSecret("1"));
+    }
+
+    @AfterEach
+    void shutDown() {
+        scheduler.shutdownNow();
+    }
+
+    @Test
+    void retriesOnlyTheFailedTargets() {
+        WatchedResourceReconcilier<V1Secret> reconcilier = createReconcilier(10, Duration.ZERO);
+        deploymentAnnotator.failuresByTarget.put("ns0/worker", new ApiException(500, ""));
+
+        assertTrue(reconcilier.reconcile(REQUEST).isRequeue());
+        assertEquals(List.of("ns0/web", "ns0/worker"), takeWrittenTargets());
+
+        deploymentAnnotator.failuresByTarget.clear();
+        assertFalse(reconcilier.reconcile(REQUEST).isRequeue());
+        assertEquals(List.of("ns0/worker"), takeWrittenTargets());
+    }
+
+    @Test
+    void newResourceVersionRetriesAllTargets() {
+        WatchedResourceReconcilier<V1Secret> reconcilier = createReconcilier(10, Duration.ZERO);
+        deploymentAnnotator.failuresByTarget.put("ns0/worker", new ApiException(500, ""));
+        reconcilier.reconcile(REQUEST);
+        takeWrittenTargets();
+
+        deploymentAnnotator.failuresByTarget.clear();
+        secretInformer.getIndexer().update(createSecret("2"));
+        assertFalse(reconcilier.reconcile(REQUEST).isRequeue());
+        assertEquals(List.of("ns0/web", "ns0/worker"), takeWrittenTargets());
+    }
+
+    @Test
+    void givesUpAfterTheMaxRetries() {
+        WatchedResourceReconcilier<V1Secret> reconcilier = createReconcilier(2, Duration.ZERO);
+        deploymentAnnotator.failuresByTarget.put("ns0/worker", new ApiException(500, ""));
+
+        assertTrue(reconcilier.reconcile(REQUEST).isRequeue());
+        assertTrue(reconcilier.reconcile(REQUEST).isRequeue());
+        assertFalse(reconcilier.reconcile(REQUEST).isRequeue());
+        assertEquals(List.of("ns0/web", "ns0/worker", "ns0/worker", "ns0/worker"), takeWrittenTargets());
+    }
+
+    @Test
+    void throttledFailuresDoNotCountAsRetries() {
+        WatchedResourceReconcilier<V1Secret> reconcilier = createReconcilier(0, Duration.ZERO);
+        deploymentAnnotator.failuresByTarget.put("ns0/worker", new ApiException(ApiRateLimiter.TOO_MANY_REQUESTS,
+                Map.of("Retry-After", List.of("3")), ""));
+
+        Result throttledResult = reconcilier.reconcile(REQUEST);
+        assertTrue(throttledResult.isRequeue());
+        assertEquals(Duration.ofSeconds(3), throttledResult.getRequeueAfter());
+
+        deploymentAnnotator.failuresByTarget.clear();
+        assertFalse(reconcilier.reconcile(REQUEST).isRequeue());
+        assertEquals(List.of("ns0/web", "ns0/worker", "ns0/worker"), takeWrittenTargets());
+    }
+
+    @Test
+    void deferredFailureRequeuesTheRequest() throws InterruptedException {
+        WatchedResourceReconcilier<V1Secret> reconcilier = createReconcilier(10, Duration.ofMillis(10));
+        deploymentAnnotator.failuresByTarget.put("ns0/worker", new ApiException(500, ""));
+
+        assertFalse(reconcilier.reconcile(REQUEST).isRequeue());
+        assertEquals(REQUEST, requeuedRequests.poll(5, TimeUnit.SECONDS));
+        awaitWrittenTargets(2);
+
+        deploymentAnnotator.failuresByTarget.clear();
+        assertFalse(reconcilier.reconcile(REQUEST).isRequeue());
+        assertEquals(List.of("ns0/worker"), awaitWrittenTargets(1));
+        assertNull(deploymentAnnotator.writtenTargets.poll(200, TimeUnit.MILLISECONDS));
+    }
+
+    @Test
+    void deferredFailuresShareTheMaxRetries() throws InterruptedException {
+        WatchedResourceReconcilier<V1Secret> reconcilier = createReconcilier(0, Duration.ofMillis(10));
+        deploymentAnnotator.failuresByTarget.put("ns0/worker", new ApiException(500, ""));
+
+        reconcilier.reconcile(REQUEST);
+        assertEquals(REQUEST, requeuedRequests.poll(5, TimeUnit.SECONDS));
+        awaitWrittenTargets(2);
+
+        assertFalse(reconcilier.reconcile(REQUEST).isRequeue());
+        assertNull(deploymentAnnotator.writtenTargets.poll(200, TimeUnit.MILLISECONDS));
+    }
+
+    private WatchedResourceReconcilier<V1Secret> createReconcilier(int maxActionRetries, Duration coalescingWindow) {
+        ApiClient apiClient = new ApiClient();
+        AppsV1Api appsV1Api = new StubAppsV1Api(apiClient);
+        // Deployment informers are never started, so that deployments are listed from the stubbed api
+        ResourceInformerFactory resourceInformerFactory = new ResourceInformerFactory(new SharedInformerFactory(), apiClient, false);
+        RolloutScheduler rolloutScheduler = new RolloutScheduler(deploymentAnnotator, 0, 0, Duration.ZERO, scheduler);
+        DeploymentTargetCache deploymentTargetCache = new DeploymentTargetCache(resourceInformerFactory, appsV1Api, rolloutScheduler);
+        DeploymentAnnotationCoalescer annotationCoalescer = new DeploymentAnnotationCoalescer(rolloutScheduler,
+                coalescingWindow, coalescingWindow, scheduler);
+
+        ResourceActionSpec actionSpec = new ResourceActionSpec();
+        actionSpec.setActionType(ResourceActionType.ANNOTATE_WITH_CONTENT_HASH);
+        actionSpec.setAnnotatedResourceKind(AnnotatedResourceKind.DEPLOYMENT_POD_TEMPLATE);
+        actionSpec.setAnnotatedResourceNamespace("ns0");
+        WatchedResource watchedResource = new WatchedResource();
+        watchedResource.setName("my-tls");
+        watchedResource.setKind("Secret");
+        watchedResource.setNamespace("ns0");
+        watchedResource.setMaxActionRetries(maxActionRetries);
+        watchedResource.setActionList(List.of(actionSpec));
+
+        return new WatchedResourceReconcilier<>(null, appsV1Api, deploymentTargetCache, annotationCoalescer,
+                watchedResource, secretInformer, new ResourceDigestCache<>(secretInformer),
+                ResourceWatcherMetrics.forWatchedResource("test"), null, requeuedRequests::add);
+    }
+
+    private List<String> takeWrittenTargets() {
+        List<String> writtenTargets = new ArrayList<>();
+        deploymentAnnotator.writtenTargets.drainTo(writtenTargets);
+        return writtenTargets;
+    }
+
+    private List<String> awaitWrittenTargets(int count) throws InterruptedException {
+        List<String> writtenTargets = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            String writtenTarget = deploymentAnnotator.writtenTargets.poll(5, TimeUnit.SECONDS);
+            if (writtenTarget != null) {
+                writtenTargets.add(writtenTarget);
+            }
+        }
+        return writtenTargets;
+    }
+
+    private static V1Secret createSecret(String resourceVersion) {
+        return new V1Secret()
+                .metadata(new V1ObjectMeta().namespace("ns0").name("my-tls").resourceVersion(resourceVersion))
+                .type("kubernetes.io/tls")
+                .putDataItem("tls.crt", ("certificate-" + resourceVersion).getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static V1Deployment createDeployment(String name) {
+        return new V1Deployment()
+                .metadata(new V1ObjectMeta().namespace("ns0").name(name));
+    }
+
+    private static class StubAppsV1Api extends AppsV1Api {
+
+        private StubAppsV1Api(ApiClient apiClient) {
+            super(apiClient);
+        }
+
+        @Override
+        public V1DeploymentList listNamespacedDeployment(String namespace, String pretty, Boolean allowWatchBookmarks,
+                                                         String _continue, String fieldSelector, String labelSelector,
+                                                         Integer limit, String resourceVersion, String resourceVersionMatch,
+                                                         Integer timeoutSeconds, Boolean watch) {
+            return new V1DeploymentList()
+                    .items(List.of(createDeployment("web"), createDeployment("worker")));
+        }
+    }
+
+    /**
+     * Records the written targets, and fails the writes of the configured ones.
+     */
+    private static class FailingDeploymentAnnotator extends DeploymentAnnotator {
+
+        private final BlockingQueue<String> writtenTargets = new LinkedBlockingQueue<>();
+        private final Map<String, Exception> failuresByTarget = new ConcurrentHashMap<>();
+
+        private FailingDeploymentAnnotator() {
+            super(null, 1);
+        }
+
+        @Override
+        public CompletableFuture<V1Deployment> annotatePodTemplate(String deploymentNamespace, String deploymentName, Map<String, String> annotations,
+                                                                   Map<String, String> ledgerEntries) {
+            String targetKey = deploymentNamespace + "/" + deploymentName;
+            writtenTargets.add(targetKey);
+            Exception failure = failuresByTarget.get(targetKey);
+            return failure == null ? CompletableFuture.completedFuture(null) : CompletableFuture.failedFuture(failure);
+        }
+    }
+}